@@ -4,5 +4,5 @@ package com.example.mislplayer;
  * The adaptation algorithms that are available.
  */
 public enum AdaptationAlgorithmType {
-    BBA2, ARBITER, ELASTIC, OSCAR_H, BASIC_ADAPTIVE, BASIC_SIZE, ARBITER_PLUS, BASIC_TIME
+    BBA2, ARBITER, ELASTIC, OSCAR_H, BASIC_ADAPTIVE, BASIC_SIZE, ARBITER_PLUS, BASIC_TIME, MPC, BOLA, META, RISK_BOUNDED, LEARNED, DASH
 }
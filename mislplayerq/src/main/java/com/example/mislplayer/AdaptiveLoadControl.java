@@ -0,0 +1,243 @@
+package com.example.mislplayer;
+
+import android.util.Log;
+
+import com.example.mislplayer.sampling.SampleProcessor;
+import com.google.android.exoplayer2.Renderer;
+import com.google.android.exoplayer2.source.TrackGroupArray;
+import com.google.android.exoplayer2.trackselection.TrackSelection;
+import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
+import com.google.android.exoplayer2.util.Util;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+/**
+ * A {@link MislLoadControl} whose buffer target follows the throughput.
+ *
+ * <p>When recent throughput is volatile, the maximum buffer grows (up to
+ * double its initial value) to ride out drops. When throughput is stable
+ * and well above the highest bitrate, it shrinks (down to the initial
+ * minimum buffer) to save memory. Between the two, it returns to its
+ * initial value. The current target is given to a
+ * {@link SampleProcessor.BufferTargetReceiver}, so adaptation algorithms
+ * which read {@link SampleProcessor#maxBufferMs()} follow it.
+ *
+ * <p>Loading stops above the target, and resumes below a low watermark
+ * which scales with the target in the ratio of the initial minimum and
+ * maximum buffers. It stays above 0 however far the target shrinks, so
+ * loading always restarts before the buffer runs out.
+ */
+public class AdaptiveLoadControl extends MislLoadControl
+        implements SampleProcessor.SampleListener {
+
+    /** The coefficient of variation above which throughput is volatile. */
+    private static final double VOLATILE_CV = 0.3;
+    /** The coefficient of variation below which throughput is stable. */
+    private static final double STABLE_CV = 0.1;
+    /**
+     * How far the throughput must exceed the highest bitrate before the
+     * buffer target shrinks.
+     */
+    private static final double HEADROOM_FACTOR = 1.5;
+    private static final int CV_WINDOW = 5;
+
+    private static final String TAG = "AdaptiveLoadControl";
+
+    private final SampleProcessor sampleProcessor;
+    private final SampleProcessor.BufferTargetReceiver bufferTargetReceiver;
+
+    private volatile boolean samplesChanged;
+    private long targetBufferMs;
+    private int highestBitrate;
+    private int targetBufferBytes;
+    private boolean isLoading;
+
+    /**
+     * Creates a new AdaptiveLoadControl with default initial values.
+     *
+     * @param sampleProcessor Provides the throughput samples.
+     * @param bufferTargetReceiver Is given the buffer target when it
+     *     changes.
+     */
+    public AdaptiveLoadControl(SampleProcessor sampleProcessor,
+                               SampleProcessor.BufferTargetReceiver bufferTargetReceiver) {
+        this(DEFAULT_MIN_BUFFER_MS,
+                DEFAULT_MAX_BUFFER_MS,
+                DEFAULT_BUFFER_FOR_PLAYBACK_MS,
+                DEFAULT_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS,
+                sampleProcessor, bufferTargetReceiver
+        );
+    }
+
+    /**
+     * Creates a new AdaptiveLoadControl.
+     *
+     * @param minBufferMs The initial minimum duration of media that the player will attempt to
+     *     ensure is buffered at all times, in milliseconds.
+     * @param maxBufferMs The initial maximum duration of media that the player will attempt buffer,
+     *     in milliseconds.
+     * @param bufferForPlaybackMs The duration of media that must be buffered for playback to start or
+     *     resume following a user action such as a seek, in milliseconds.
+     * @param bufferForPlaybackAfterRebufferMs The default duration of media that must be buffered for
+     *     playback to resume after a rebuffer, in milliseconds. A rebuffer is defined to be caused by
+     *     buffer depletion rather than a user action.
+     * @param sampleProcessor Provides the throughput samples.
+     * @param bufferTargetReceiver Is given the buffer target when it
+     *     changes.
+     */
+    public AdaptiveLoadControl(int minBufferMs, int maxBufferMs,
+                               long bufferForPlaybackMs, long bufferForPlaybackAfterRebufferMs,
+                               SampleProcessor sampleProcessor,
+                               SampleProcessor.BufferTargetReceiver bufferTargetReceiver) {
+        this(minBufferMs, maxBufferMs, bufferForPlaybackMs, bufferForPlaybackAfterRebufferMs,
+                sampleProcessor, bufferTargetReceiver, null);
+    }
+
+    /**
+     * Creates a new AdaptiveLoadControl with a byte budget.
+     *
+     * @param minBufferMs The initial minimum duration of media that the player will attempt to
+     *     ensure is buffered at all times, in milliseconds.
+     * @param maxBufferMs The initial maximum duration of media that the player will attempt buffer,
+     *     in milliseconds.
+     * @param bufferForPlaybackMs The duration of media that must be buffered for playback to start or
+     *     resume following a user action such as a seek, in milliseconds.
+     * @param bufferForPlaybackAfterRebufferMs The default duration of media that must be buffered for
+     *     playback to resume after a rebuffer, in milliseconds. A rebuffer is defined to be caused by
+     *     buffer depletion rather than a user action.
+     * @param sampleProcessor Provides the throughput samples.
+     * @param bufferTargetReceiver Is given the buffer target when it
+     *     changes.
+     * @param byteBudgetAllocator The allocator to buffer media into, or null
+     *     for no byte budget.
+     */
+    public AdaptiveLoadControl(int minBufferMs, int maxBufferMs,
+                               long bufferForPlaybackMs, long bufferForPlaybackAfterRebufferMs,
+                               SampleProcessor sampleProcessor,
+                               SampleProcessor.BufferTargetReceiver bufferTargetReceiver,
+                               ByteBudgetAllocator byteBudgetAllocator) {
+        super(minBufferMs, maxBufferMs, bufferForPlaybackMs, bufferForPlaybackAfterRebufferMs,
+                byteBudgetAllocator);
+        this.sampleProcessor = sampleProcessor;
+        this.bufferTargetReceiver = bufferTargetReceiver;
+        this.targetBufferMs = maxBufferMs;
+        sampleProcessor.addSampleListener(this);
+    }
+
+    /** The maximum duration of media the player is currently aiming for, in ms. */
+    public long getTargetBufferMs() {
+        return targetBufferMs;
+    }
+
+    @Override
+    public void onTracksSelected(Renderer[] renderers, TrackGroupArray trackGroups,
+                                 TrackSelectionArray trackSelections) {
+        super.onTracksSelected(renderers, trackGroups, trackSelections);
+
+        highestBitrate = 0;
+        targetBufferBytes = 0;
+        for (int i = 0; i < renderers.length; i++) {
+            TrackSelection selection = trackSelections.get(i);
+            if (selection != null) {
+                targetBufferBytes += Util.getDefaultBufferSize(renderers[i].getTrackType());
+                for (int j = 0; j < selection.length(); j++) {
+                    highestBitrate = max(highestBitrate, selection.getFormat(j).bitrate);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onStopped() {
+        super.onStopped();
+        reset();
+    }
+
+    @Override
+    public void onReleased() {
+        super.onReleased();
+        reset();
+    }
+
+    @Override
+    public boolean shouldContinueLoading(long bufferedDurationUs) {
+        if (samplesChanged) {
+            samplesChanged = false;
+            updateTargetBufferMs();
+        }
+
+        if (byteBudgetReached()) {
+            // the byte budget is a hard limit, whatever the buffer target
+            isLoading = false;
+            return false;
+        }
+
+        long bufferedDurationMs = bufferedDurationUs / 1000;
+        long lowWatermarkMs = targetBufferMs * getMinBufferMs() / getMaxBufferMs();
+        if (bufferedDurationMs < lowWatermarkMs) {
+            isLoading = true;
+        } else if (bufferedDurationMs > targetBufferMs || byteLimitReached()) {
+            isLoading = false;
+        }
+        return isLoading;
+    }
+
+    /**
+     * Whether the media buffered has reached its memory limit, scaled up
+     * or down with the buffer target, or the byte budget.
+     */
+    private boolean byteLimitReached() {
+        if (byteBudgetReached()) {
+            return true;
+        } else if (targetBufferBytes == 0) {
+            return false;
+        }
+        long byteLimit = targetBufferBytes * targetBufferMs / getMaxBufferMs();
+        return getAllocator().getTotalBytesAllocated() >= byteLimit;
+    }
+
+    /** Recalculates the buffer target from the recent throughput samples. */
+    private void updateTargetBufferMs() {
+        if (sampleProcessor.windowSize(CV_WINDOW) < 2) {
+            return;
+        }
+        double cv = sampleProcessor.sampleCV(CV_WINDOW);
+        double throughput = sampleProcessor.sampleHarmonicAverage(CV_WINDOW);
+
+        long newTargetMs;
+        if (cv > VOLATILE_CV) {
+            newTargetMs = (long) min(2 * getMaxBufferMs(), getMaxBufferMs() * (1 + cv));
+        } else if (cv < STABLE_CV && highestBitrate > 0
+                && throughput > HEADROOM_FACTOR * highestBitrate) {
+            newTargetMs = getMinBufferMs();
+        } else {
+            newTargetMs = getMaxBufferMs();
+        }
+        setTargetBufferMs(newTargetMs);
+    }
+
+    private void setTargetBufferMs(long newTargetMs) {
+        if (newTargetMs != targetBufferMs) {
+            targetBufferMs = newTargetMs;
+            Log.d(TAG, String.format("Target buffer = %d ms", targetBufferMs));
+            bufferTargetReceiver.giveMaxBufferMs(targetBufferMs);
+        }
+    }
+
+    private void reset() {
+        isLoading = false;
+        samplesChanged = false;
+        setTargetBufferMs(getMaxBufferMs());
+    }
+
+    // SampleListener implementation
+
+    @Override
+    public void onSample(SampleProcessor.ThroughputSample sample) {
+        samplesChanged = true;
+    }
+
+    @Override
+    public void onSamplesCleared() {}
+}
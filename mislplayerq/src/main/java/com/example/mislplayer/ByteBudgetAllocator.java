@@ -0,0 +1,172 @@
+package com.example.mislplayer;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.Allocation;
+import com.google.android.exoplayer2.upstream.Allocator;
+
+import java.util.ArrayDeque;
+
+/**
+ * An {@link Allocator} with a byte budget, which recycles its segments
+ * through a pool.
+ *
+ * <p>Released segments are kept in a free list and handed out again, so
+ * steady-state buffering doesn't allocate. The segments can optionally be
+ * carved out of one slab allocated up front, so the buffer's memory is
+ * claimed once rather than growing with it.
+ *
+ * <p>The budget is enforced by {@link MislLoadControl}, which stops
+ * loading once it has been reached. A load already in progress is still
+ * given the segments it needs, so it can be exceeded by up to one chunk
+ * per renderer; such allocations are counted in
+ * {@link #getOverBudgetCount()}.
+ */
+public final class ByteBudgetAllocator implements Allocator {
+
+    /** The default byte budget, enough for 30 s of the highest bitrate. */
+    public static final int DEFAULT_BYTE_BUDGET = 16 * 1024 * 1024;
+
+    private final int individualAllocationLength;
+    private final int byteBudget;
+    private final byte[] slab;
+    private final ArrayDeque<Allocation> freeAllocations;
+
+    private int allocatedCount;
+    private int peakAllocatedCount;
+    private int createdCount;
+    private int reusedCount;
+    private int overBudgetCount;
+
+    /**
+     * Creates a ByteBudgetAllocator with the default segment size and
+     * byte budget, which allocates its segments as they're needed.
+     */
+    public ByteBudgetAllocator() {
+        this(C.DEFAULT_BUFFER_SEGMENT_SIZE, DEFAULT_BYTE_BUDGET, false);
+    }
+
+    /**
+     * Creates a ByteBudgetAllocator.
+     *
+     * @param individualAllocationLength The length of each segment, in
+     *        bytes.
+     * @param byteBudget The number of bytes which may be in use before
+     *        loading stops.
+     * @param preallocate Whether to allocate the whole budget in one slab
+     *        up front.
+     */
+    public ByteBudgetAllocator(int individualAllocationLength, int byteBudget,
+                               boolean preallocate) {
+        if (individualAllocationLength <= 0 || byteBudget < individualAllocationLength) {
+            throw new IllegalArgumentException(
+                    "The budget must hold at least one positive-length segment");
+        }
+        this.individualAllocationLength = individualAllocationLength;
+        this.byteBudget = byteBudget;
+
+        int segmentCount = byteBudget / individualAllocationLength;
+        freeAllocations = new ArrayDeque<>(segmentCount);
+        if (preallocate) {
+            slab = new byte[segmentCount * individualAllocationLength];
+            for (int i = 0; i < segmentCount; i++) {
+                freeAllocations.add(new Allocation(slab, i * individualAllocationLength));
+            }
+        } else {
+            slab = null;
+        }
+    }
+
+    @Override
+    public synchronized Allocation allocate() {
+        allocatedCount++;
+        peakAllocatedCount = Math.max(peakAllocatedCount, allocatedCount);
+        if (allocatedCount * individualAllocationLength > byteBudget) {
+            overBudgetCount++;
+        }
+
+        Allocation allocation = freeAllocations.pollLast();
+        if (allocation != null) {
+            reusedCount++;
+            return allocation;
+        }
+        createdCount++;
+        return new Allocation(new byte[individualAllocationLength], 0);
+    }
+
+    @Override
+    public synchronized void release(Allocation allocation) {
+        freeAllocations.addLast(allocation);
+        allocatedCount--;
+    }
+
+    @Override
+    public synchronized void release(Allocation[] allocations) {
+        for (Allocation allocation : allocations) {
+            freeAllocations.addLast(allocation);
+        }
+        allocatedCount -= allocations.length;
+    }
+
+    /**
+     * Frees pooled segments which aren't part of the slab, and any pooled
+     * segments beyond the budget.
+     */
+    @Override
+    public synchronized void trim() {
+        int maxFreeCount = byteBudget / individualAllocationLength - allocatedCount;
+        int remaining = freeAllocations.size();
+        while (remaining-- > 0) {
+            Allocation allocation = freeAllocations.pollFirst();
+            if (allocation.data == slab || freeAllocations.size() < maxFreeCount) {
+                freeAllocations.addLast(allocation);
+            }
+        }
+    }
+
+    @Override
+    public synchronized int getTotalBytesAllocated() {
+        return allocatedCount * individualAllocationLength;
+    }
+
+    @Override
+    public int getIndividualAllocationLength() {
+        return individualAllocationLength;
+    }
+
+    /** The number of bytes which may be in use before loading stops. */
+    public int getByteBudget() {
+        return byteBudget;
+    }
+
+    /** Whether the bytes in use have reached the budget. */
+    public synchronized boolean isBudgetReached() {
+        return allocatedCount * individualAllocationLength >= byteBudget;
+    }
+
+    /** The most bytes which have been in use at once. */
+    public synchronized int getPeakBytesAllocated() {
+        return peakAllocatedCount * individualAllocationLength;
+    }
+
+    /** The number of segments which have been newly allocated. */
+    public synchronized int getCreatedCount() {
+        return createdCount;
+    }
+
+    /** The number of allocations which were served from the pool. */
+    public synchronized int getReusedCount() {
+        return reusedCount;
+    }
+
+    /** The number of allocations which were made beyond the budget. */
+    public synchronized int getOverBudgetCount() {
+        return overBudgetCount;
+    }
+
+    /** A summary of the counters, for logging. */
+    public synchronized String statistics() {
+        return String.format("in use %d B, peak %d B, budget %d B, created %d, reused %d, over budget %d",
+                getTotalBytesAllocated(), getPeakBytesAllocated(), byteBudget,
+                createdCount, reusedCount, overBudgetCount);
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.mislplayer;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.source.chunk.MediaChunk;
+import com.google.android.exoplayer2.trackselection.BaseTrackSelection;
+import com.google.android.exoplayer2.trackselection.TrackSelection;
+
+import java.util.List;
+
+/**
+ * Passes on the decisions of another {@link TrackSelection}, but can hold
+ * them below a maximum bitrate.
+ *
+ * <p>Used by {@link MislDashChunkSource} to re-request an abandoned chunk
+ * at a sustainable quality level, without the adaptation algorithm having
+ * to know about it.
+ */
+final class CappedTrackSelection extends BaseTrackSelection {
+
+    private final TrackSelection trackSelection;
+
+    private int maxBitrate = Integer.MAX_VALUE;
+    private int selectedIndex;
+    private int reason;
+
+    /**
+     * @param trackSelection The track selection to pass on.
+     */
+    CappedTrackSelection(TrackSelection trackSelection) {
+        super(trackSelection.getTrackGroup(), tracksOf(trackSelection));
+        this.trackSelection = trackSelection;
+        selectedIndex = indexOf(trackSelection.getSelectedFormat());
+        reason = trackSelection.getSelectionReason();
+    }
+
+    /** Holds the selection at or below a bitrate, in bps, until cleared. */
+    void setMaxBitrate(int maxBitrate) {
+        this.maxBitrate = maxBitrate;
+    }
+
+    /** Lets the selection through unchanged again. */
+    void clearMaxBitrate() {
+        maxBitrate = Integer.MAX_VALUE;
+    }
+
+    /** Whether the selection is currently being held below a bitrate. */
+    boolean isCapped() {
+        return maxBitrate != Integer.MAX_VALUE;
+    }
+
+    @Override
+    public void updateSelectedTrack(long bufferedDurationUs) {
+        trackSelection.updateSelectedTrack(bufferedDurationUs);
+        selectedIndex = indexOf(trackSelection.getSelectedFormat());
+        reason = trackSelection.getSelectionReason();
+
+        if (getFormat(selectedIndex).bitrate > maxBitrate) {
+            int cappedIndex = length - 1;
+            for (int i = selectedIndex + 1; i < length; i++) {
+                if (getFormat(i).bitrate <= maxBitrate) {
+                    cappedIndex = i;
+                    break;
+                }
+            }
+            selectedIndex = cappedIndex;
+            reason = C.SELECTION_REASON_ADAPTIVE;
+        }
+    }
+
+    @Override
+    public int evaluateQueueSize(long playbackPositionUs, List<? extends MediaChunk> queue) {
+        return trackSelection.evaluateQueueSize(playbackPositionUs, queue);
+    }
+
+    @Override
+    public int getSelectedIndex() {
+        return selectedIndex;
+    }
+
+    @Override
+    public int getSelectionReason() {
+        return reason;
+    }
+
+    @Override
+    public Object getSelectionData() {
+        return trackSelection.getSelectionData();
+    }
+
+    private static int[] tracksOf(TrackSelection trackSelection) {
+        int[] tracks = new int[trackSelection.length()];
+        for (int i = 0; i < tracks.length; i++) {
+            tracks[i] = trackSelection.getIndexInTrackGroup(i);
+        }
+        return tracks;
+    }
+}
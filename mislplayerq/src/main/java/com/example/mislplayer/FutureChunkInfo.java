@@ -2,21 +2,58 @@ package com.example.mislplayer;
 
 import android.annotation.SuppressLint;
 
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.source.TrackGroup;
+import com.google.android.exoplayer2.util.MimeTypes;
+
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 
 /**
- * Stores and provides information about chunks in a video.
+ * Stores and provides information about chunks in a video: their sizes,
+ * and optionally a quality score (such as PSNR, SSIM or VMAF) for each.
+ *
+ * <p>For live streams, the range of chunks currently available to load
+ * can also be stored. It moves forward as the manifest is refreshed, and
+ * information on chunks which have dropped out of it is discarded.
+ *
+ * <p>Chunk information is read on the loading thread as well as the
+ * playback thread, while the range moving forward removes it, so all
+ * access is synchronized. Callers which would check for a chunk and then
+ * read it should use {@link #findByteSize} or {@link #findQualityScore},
+ * which do both in one lookup.
  */
 public class FutureChunkInfo {
 
+    /** Returned by {@link #findByteSize} for a chunk whose size isn't known. */
+    public static final int SIZE_UNKNOWN = C.LENGTH_UNSET;
+
     private ArrayList<HashMap<Integer, Integer>> byteSizes;
+    private ArrayList<HashMap<Integer, Double>> qualityScores;
+
+    /**
+     * Running totals of chunk sizes for each representation level, so the
+     * size of any window of chunks can be found in constant time. Rebuilt
+     * when needed after chunk information is added.
+     */
+    private long[][] cumulativeByteSizes;
+    private int[][] cumulativeChunkCounts;
+    /** The chunk index entry 0 of the running totals starts at. */
+    private int cumulativeFirstChunkIndex;
+
+    private String qualityMetric;
+
+    private int firstAvailableChunkIndex = C.INDEX_UNSET;
+    private int lastAvailableChunkIndex = C.INDEX_UNSET;
 
     @SuppressLint("UseSparseArrays")
     public FutureChunkInfo(int numberOfRepresentations) {
         byteSizes = new ArrayList<>(numberOfRepresentations);
+        qualityScores = new ArrayList<>(numberOfRepresentations);
         for (int i = 0; i < numberOfRepresentations; i++) {
             byteSizes.add(new HashMap<Integer, Integer>());
+            qualityScores.add(new HashMap<Integer, Double>());
         }
     }
 
@@ -28,8 +65,9 @@ public class FutureChunkInfo {
      *        the chunk.
      * @param byteSize The size of the chunk in bytes.
      */
-    public void addChunkInfo(int chunkIndex, int representationLevel, int byteSize) {
+    public synchronized void addChunkInfo(int chunkIndex, int representationLevel, int byteSize) {
         byteSizes.get(representationLevel).put(chunkIndex, byteSize);
+        cumulativeByteSizes = null;
     }
 
     /**
@@ -41,8 +79,269 @@ public class FutureChunkInfo {
      *        the chunk.
      * @return The size of the chunk in bytes.
      */
-    public int getByteSize(int chunkIndex, int representationLevel){
+    public synchronized int getByteSize(int chunkIndex, int representationLevel){
         return byteSizes.get(representationLevel).get(chunkIndex);
     }
 
+    /**
+     * Indicates whether the size of a chunk is known, at a specified
+     * representation level.
+     *
+     * @param chunkIndex The index of the chunk within the data stream.
+     * @param representationLevel The index of the representation level of
+     *        the chunk.
+     * @return true if the size of the chunk is known, false otherwise.
+     */
+    public synchronized boolean hasChunkInfo(int chunkIndex, int representationLevel) {
+        return representationLevel >= 0
+                && representationLevel < byteSizes.size()
+                && byteSizes.get(representationLevel).containsKey(chunkIndex);
+    }
+
+    /**
+     * Gets the size of a chunk in bytes, at a specified representation
+     * level, if it is known.
+     *
+     * @param chunkIndex The index of the chunk within the data stream.
+     * @param representationLevel The index of the representation level of
+     *        the chunk.
+     * @return The size of the chunk in bytes, or {@link #SIZE_UNKNOWN} if
+     *         it isn't known.
+     */
+    public synchronized int findByteSize(int chunkIndex, int representationLevel) {
+        if (representationLevel < 0 || representationLevel >= byteSizes.size()) {
+            return SIZE_UNKNOWN;
+        }
+        Integer byteSize = byteSizes.get(representationLevel).get(chunkIndex);
+        return byteSize == null ? SIZE_UNKNOWN : byteSize;
+    }
+
+    /**
+     * Gets the total size of a window of consecutive chunks, at a
+     * specified representation level. Chunks whose size isn't known are
+     * left out.
+     *
+     * @param firstChunkIndex The index of the first chunk in the window.
+     * @param windowLength The number of chunks in the window.
+     * @param representationLevel The index of the representation level of
+     *        the chunks.
+     * @return The total size of the known chunks in the window, in bytes.
+     */
+    public synchronized long getWindowByteSize(int firstChunkIndex, int windowLength,
+                                               int representationLevel) {
+        long[] cumulative = cumulativeByteSizes()[representationLevel];
+        int start = firstChunkIndex - cumulativeFirstChunkIndex;
+        return cumulative[clampIndex(start + windowLength, cumulative.length)]
+                - cumulative[clampIndex(start, cumulative.length)];
+    }
+
+    /**
+     * Counts the chunks whose size is known in a window of consecutive
+     * chunks, at a specified representation level.
+     *
+     * @param firstChunkIndex The index of the first chunk in the window.
+     * @param windowLength The number of chunks in the window.
+     * @param representationLevel The index of the representation level of
+     *        the chunks.
+     * @return The number of chunks in the window whose size is known.
+     */
+    public synchronized int getWindowChunkCount(int firstChunkIndex, int windowLength,
+                                                int representationLevel) {
+        cumulativeByteSizes();
+        int[] cumulative = cumulativeChunkCounts[representationLevel];
+        int start = firstChunkIndex - cumulativeFirstChunkIndex;
+        return cumulative[clampIndex(start + windowLength, cumulative.length)]
+                - cumulative[clampIndex(start, cumulative.length)];
+    }
+
+    /**
+     * Builds the running totals if needed. Entry i of a level's totals
+     * covers the chunks with indices below cumulativeFirstChunkIndex + i,
+     * so live streams' large chunk indices don't need large arrays.
+     */
+    private long[][] cumulativeByteSizes() {
+        if (cumulativeByteSizes == null) {
+            int minChunkIndex = Integer.MAX_VALUE;
+            int maxChunkIndex = Integer.MIN_VALUE;
+            for (HashMap<Integer, Integer> levelSizes : byteSizes) {
+                for (int chunkIndex : levelSizes.keySet()) {
+                    minChunkIndex = Math.min(minChunkIndex, chunkIndex);
+                    maxChunkIndex = Math.max(maxChunkIndex, chunkIndex);
+                }
+            }
+            if (minChunkIndex > maxChunkIndex) {
+                minChunkIndex = maxChunkIndex = 0;
+            }
+
+            int chunkCount = maxChunkIndex - minChunkIndex + 1;
+            cumulativeFirstChunkIndex = minChunkIndex;
+            cumulativeByteSizes = new long[byteSizes.size()][chunkCount + 1];
+            cumulativeChunkCounts = new int[byteSizes.size()][chunkCount + 1];
+            for (int level = 0; level < byteSizes.size(); level++) {
+                HashMap<Integer, Integer> levelSizes = byteSizes.get(level);
+                for (int i = 0; i < chunkCount; i++) {
+                    Integer byteSize = levelSizes.get(minChunkIndex + i);
+                    cumulativeByteSizes[level][i + 1] = cumulativeByteSizes[level][i]
+                            + (byteSize == null ? 0 : byteSize);
+                    cumulativeChunkCounts[level][i + 1] = cumulativeChunkCounts[level][i]
+                            + (byteSize == null ? 0 : 1);
+                }
+            }
+        }
+        return cumulativeByteSizes;
+    }
+
+    private static int clampIndex(int index, int length) {
+        return Math.max(0, Math.min(index, length - 1));
+    }
+
+    /**
+     * Adds a quality score for a chunk.
+     *
+     * @param chunkIndex The index of the chunk within the data stream.
+     * @param representationLevel The index of the representation level of
+     *        the chunk.
+     * @param qualityScore The quality score of the chunk, where a higher
+     *        score means better quality.
+     */
+    public synchronized void addQualityScore(int chunkIndex, int representationLevel, double qualityScore) {
+        qualityScores.get(representationLevel).put(chunkIndex, qualityScore);
+    }
+
+    /**
+     * Gets the quality score of a chunk, at a specified representation
+     * level.
+     *
+     * @param chunkIndex The index of the chunk within the data stream.
+     * @param representationLevel The index of the representation level of
+     *        the chunk.
+     * @return The quality score of the chunk.
+     */
+    public synchronized double getQualityScore(int chunkIndex, int representationLevel) {
+        return qualityScores.get(representationLevel).get(chunkIndex);
+    }
+
+    /**
+     * Indicates whether the quality score of a chunk is known, at a
+     * specified representation level.
+     *
+     * @param chunkIndex The index of the chunk within the data stream.
+     * @param representationLevel The index of the representation level of
+     *        the chunk.
+     * @return true if the quality score of the chunk is known, false
+     *         otherwise.
+     */
+    public synchronized boolean hasQualityScore(int chunkIndex, int representationLevel) {
+        return representationLevel >= 0
+                && representationLevel < qualityScores.size()
+                && qualityScores.get(representationLevel).containsKey(chunkIndex);
+    }
+
+    /**
+     * Gets the quality score of a chunk, at a specified representation
+     * level, if it is known.
+     *
+     * @param chunkIndex The index of the chunk within the data stream.
+     * @param representationLevel The index of the representation level of
+     *        the chunk.
+     * @return The quality score of the chunk, or {@link Double#NaN} if it
+     *         isn't known.
+     */
+    public synchronized double findQualityScore(int chunkIndex, int representationLevel) {
+        if (representationLevel < 0 || representationLevel >= qualityScores.size()) {
+            return Double.NaN;
+        }
+        Double qualityScore = qualityScores.get(representationLevel).get(chunkIndex);
+        return qualityScore == null ? Double.NaN : qualityScore;
+    }
+
+    /**
+     * Sets the name of the metric the quality scores are given in.
+     *
+     * @param qualityMetric The name of the metric, such as "PSNR", "SSIM"
+     *        or "VMAF".
+     */
+    public synchronized void setQualityMetric(String qualityMetric) {
+        this.qualityMetric = qualityMetric;
+    }
+
+    /**
+     * The name of the metric the quality scores are given in, or null if
+     * it isn't known.
+     */
+    public synchronized String qualityMetric() {
+        return qualityMetric;
+    }
+
+    /**
+     * Sets the range of chunks currently available to load, and discards
+     * information on any chunks before it.
+     *
+     * @param firstChunkIndex The index of the first available chunk.
+     * @param lastChunkIndex The index of the last available chunk.
+     */
+    public synchronized void setAvailableChunks(int firstChunkIndex, int lastChunkIndex) {
+        if (firstChunkIndex > firstAvailableChunkIndex) {
+            for (int level = 0; level < byteSizes.size(); level++) {
+                discardChunksBefore(byteSizes.get(level).keySet().iterator(), firstChunkIndex);
+                discardChunksBefore(qualityScores.get(level).keySet().iterator(), firstChunkIndex);
+            }
+            cumulativeByteSizes = null;
+        }
+        firstAvailableChunkIndex = firstChunkIndex;
+        lastAvailableChunkIndex = lastChunkIndex;
+    }
+
+    private static void discardChunksBefore(Iterator<Integer> chunkIndices, int firstChunkIndex) {
+        while (chunkIndices.hasNext()) {
+            if (chunkIndices.next() < firstChunkIndex) {
+                chunkIndices.remove();
+            }
+        }
+    }
+
+    /**
+     * Indicates whether the range of available chunks is known, which it
+     * only is for live streams.
+     */
+    public synchronized boolean hasAvailableChunks() {
+        return lastAvailableChunkIndex != C.INDEX_UNSET;
+    }
+
+    /**
+     * The index of the first chunk currently available to load, or
+     * {@link C#INDEX_UNSET} if it isn't known.
+     */
+    public synchronized int firstAvailableChunkIndex() {
+        return firstAvailableChunkIndex;
+    }
+
+    /**
+     * The index of the last chunk currently available to load, or
+     * {@link C#INDEX_UNSET} if it isn't known.
+     */
+    public synchronized int lastAvailableChunkIndex() {
+        return lastAvailableChunkIndex;
+    }
+
+    /** The number of representation levels information is stored for. */
+    public int numberOfRepresentations() {
+        return byteSizes.size();
+    }
+
+    /**
+     * Indicates whether this information describes the tracks of a track
+     * group. It is only stored for the video, so it doesn't describe other
+     * groups, or a video group with a different number of representation
+     * levels.
+     *
+     * @param group The track group.
+     * @return true if the representation levels here are the group's
+     *         tracks, false otherwise.
+     */
+    public boolean describes(TrackGroup group) {
+        return group.length == numberOfRepresentations()
+                && MimeTypes.isVideo(group.getFormat(0).sampleMimeType);
+    }
+
 }
@@ -0,0 +1,207 @@
+package com.example.mislplayer;
+
+import android.os.Handler;
+import android.util.Log;
+
+import com.example.mislplayer.sampling.SampleProcessor;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.ExoPlayer;
+import com.google.android.exoplayer2.PlaybackParameters;
+import com.google.android.exoplayer2.Timeline;
+
+/**
+ * Holds the latency of a live stream near a target by playing slightly
+ * faster or slower than real time.
+ *
+ * <p>Every update, the distance from the playback position to the live
+ * edge is measured, and the playback speed is set in proportion to how
+ * far it is from the target, by at most 5% either way. Nothing is done
+ * for media which isn't live.
+ *
+ * <p>Speeding up consumes media faster than it arrives, so the adaptation
+ * algorithm is told the planned speed first, through a
+ * {@link SampleProcessor.PlaybackSpeedReceiver}. Algorithms scale their
+ * throughput estimate down by it and drop quality at the next chunk. The
+ * speed-up is only applied once the last chunk's bitrate can be loaded at
+ * the planned speed, and while enough media is buffered that it can't
+ * cause a stall. Slowing down is always allowed.
+ *
+ * <p>The live edge is found by the server's clock, as the chunk sources
+ * find the segments available, so the latency isn't thrown off by the
+ * device's clock being wrong.
+ */
+public class LiveLatencyController implements Runnable {
+
+    /**
+     * Gives the time by the clock the live stream is timed by.
+     */
+    public interface ServerClock {
+
+        /**
+         * @return The current time in ms since the epoch.
+         */
+        long nowUnixTimeMs();
+    }
+
+    /** The default latency to aim for, in ms. */
+    public static final long DEFAULT_TARGET_LATENCY_MS = 6000;
+
+    private static final String TAG = "LiveLatencyController";
+
+    private static final long UPDATE_INTERVAL_MS = 500;
+    /** The largest change from real-time playback speed. */
+    private static final float MAX_SPEED_CHANGE = 0.05f;
+    /** How far the latency may be from the target before the speed changes, in ms. */
+    private static final long LATENCY_TOLERANCE_MS = 500;
+    /** The latency error at which the largest speed change is used, in ms. */
+    private static final long FULL_CORRECTION_ERROR_MS = 4000;
+    /** The least media which must be buffered to speed up, in ms. */
+    private static final long MIN_CATCH_UP_BUFFER_MS = 3000;
+    /** The smallest speed change worth passing to the player. */
+    private static final float MIN_SPEED_STEP = 0.005f;
+
+    private final ExoPlayer player;
+    private final SampleProcessor sampleProcessor;
+    private final SampleProcessor.PlaybackSpeedReceiver speedReceiver;
+    private final Handler handler;
+    private final ServerClock serverClock;
+    private final long targetLatencyMs;
+    private final Timeline.Window window = new Timeline.Window();
+
+    private float speed = 1f;
+
+    /**
+     * Creates a LiveLatencyController with the default target latency.
+     *
+     * @param player The player to control.
+     * @param sampleProcessor Provides the throughput and chunk information
+     *                        used to decide whether a speed-up is safe.
+     * @param speedReceiver Is told the speed playback is about to change to.
+     * @param handler The handler to run updates on, on the player's
+     *                application thread.
+     * @param serverClock Gives the time by the server's clock.
+     */
+    public LiveLatencyController(ExoPlayer player, SampleProcessor sampleProcessor,
+                                 SampleProcessor.PlaybackSpeedReceiver speedReceiver,
+                                 Handler handler, ServerClock serverClock) {
+        this(player, sampleProcessor, speedReceiver, handler, serverClock,
+                DEFAULT_TARGET_LATENCY_MS);
+    }
+
+    /**
+     * Creates a LiveLatencyController.
+     *
+     * @param player The player to control.
+     * @param sampleProcessor Provides the throughput and chunk information
+     *                        used to decide whether a speed-up is safe.
+     * @param speedReceiver Is told the speed playback is about to change to.
+     * @param handler The handler to run updates on, on the player's
+     *                application thread.
+     * @param serverClock Gives the time by the server's clock.
+     * @param targetLatencyMs The latency to aim for, in ms.
+     */
+    public LiveLatencyController(ExoPlayer player, SampleProcessor sampleProcessor,
+                                 SampleProcessor.PlaybackSpeedReceiver speedReceiver,
+                                 Handler handler, ServerClock serverClock,
+                                 long targetLatencyMs) {
+        this.player = player;
+        this.sampleProcessor = sampleProcessor;
+        this.speedReceiver = speedReceiver;
+        this.handler = handler;
+        this.serverClock = serverClock;
+        this.targetLatencyMs = targetLatencyMs;
+    }
+
+    /** Starts updating the playback speed. */
+    public void start() {
+        handler.post(this);
+    }
+
+    /** Stops updating the playback speed, and returns it to real time. */
+    public void stop() {
+        handler.removeCallbacks(this);
+        speedReceiver.givePlannedPlaybackSpeed(1f);
+        setSpeed(1f);
+    }
+
+    @Override
+    public void run() {
+        update();
+        handler.postDelayed(this, UPDATE_INTERVAL_MS);
+    }
+
+    /** Measures the latency and sets the playback speed to suit it. */
+    void update() {
+        long latencyMs = liveLatencyMs();
+        if (latencyMs == C.TIME_UNSET || !player.getPlayWhenReady()
+                || player.getPlaybackState() != ExoPlayer.STATE_READY) {
+            speedReceiver.givePlannedPlaybackSpeed(1f);
+            setSpeed(1f);
+            return;
+        }
+
+        long errorMs = latencyMs - targetLatencyMs;
+        float targetSpeed = 1f;
+        if (Math.abs(errorMs) > LATENCY_TOLERANCE_MS) {
+            float correction = Math.max(-1f, Math.min(1f, (float) errorMs / FULL_CORRECTION_ERROR_MS));
+            targetSpeed = 1f + MAX_SPEED_CHANGE * correction;
+        }
+
+        if (targetSpeed > 1f) {
+            // let quality drop to suit the faster speed before using it
+            speedReceiver.givePlannedPlaybackSpeed(targetSpeed);
+            long bufferedMs = player.getBufferedPosition() - player.getCurrentPosition();
+            if (bufferedMs < MIN_CATCH_UP_BUFFER_MS || !sustainableAt(targetSpeed)) {
+                targetSpeed = 1f;
+            }
+        } else {
+            speedReceiver.givePlannedPlaybackSpeed(1f);
+        }
+
+        if (Math.abs(targetSpeed - speed) >= MIN_SPEED_STEP
+                || (targetSpeed == 1f && speed != 1f)) {
+            Log.d(TAG, String.format("Latency %d ms (target %d ms); speed %.3f",
+                    latencyMs, targetLatencyMs, targetSpeed));
+            setSpeed(targetSpeed);
+        }
+    }
+
+    /**
+     * Finds how far playback is behind the live edge.
+     *
+     * @return The latency in ms, or {@link C#TIME_UNSET} if the current
+     *         media isn't live.
+     */
+    private long liveLatencyMs() {
+        Timeline timeline = player.getCurrentTimeline();
+        if (timeline == null || timeline.isEmpty()) {
+            return C.TIME_UNSET;
+        }
+        timeline.getWindow(player.getCurrentWindowIndex(), window);
+        if (!window.isDynamic) {
+            return C.TIME_UNSET;
+        }
+        if (window.windowStartTimeMs != C.TIME_UNSET) {
+            return serverClock.nowUnixTimeMs() - (window.windowStartTimeMs + player.getCurrentPosition());
+        }
+        return window.getDurationMs() - player.getCurrentPosition();
+    }
+
+    /**
+     * Whether the bitrate of the last chunk can be loaded while playing at
+     * a speed, going by the last throughput sample.
+     */
+    private boolean sustainableAt(float speed) {
+        if (sampleProcessor.dataNotAvailable() || sampleProcessor.chunkDataNotAvailable()) {
+            return false;
+        }
+        return sampleProcessor.lastRepLevel() * speed <= sampleProcessor.lastSampleThroughput();
+    }
+
+    private void setSpeed(float speed) {
+        if (speed != this.speed) {
+            this.speed = speed;
+            player.setPlaybackParameters(new PlaybackParameters(speed, 1f));
+        }
+    }
+}
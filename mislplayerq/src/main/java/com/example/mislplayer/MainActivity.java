@@ -99,6 +99,24 @@ public class MainActivity extends Activity  {
             case R.id.arbiter_plus:
                 type = AdaptationAlgorithmType.ARBITER_PLUS;
                 break;
+            case R.id.mpc:
+                type = AdaptationAlgorithmType.MPC;
+                break;
+            case R.id.bola:
+                type = AdaptationAlgorithmType.BOLA;
+                break;
+            case R.id.meta:
+                type = AdaptationAlgorithmType.META;
+                break;
+            case R.id.risk_bounded:
+                type = AdaptationAlgorithmType.RISK_BOUNDED;
+                break;
+            case R.id.learned:
+                type = AdaptationAlgorithmType.LEARNED;
+                break;
+            case R.id.dash:
+                type = AdaptationAlgorithmType.DASH;
+                break;
             default:
                 throw new IllegalArgumentException(
                         "Unrecognised adaptation algorithm");
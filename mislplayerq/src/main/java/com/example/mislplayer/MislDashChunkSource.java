@@ -1,15 +1,31 @@
 package com.example.mislplayer;
 
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
 import com.example.mislplayer.sampling.ChunkListener;
+import com.example.mislplayer.upstream.InitSegmentCache;
+import com.example.mislplayer.upstream.InitSegmentDataSource;
+import com.example.mislplayer.upstream.ParallelDataSource;
+import com.example.mislplayer.upstream.SubsegmentDataSource;
+import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.source.chunk.Chunk;
 import com.google.android.exoplayer2.source.chunk.ChunkHolder;
+import com.google.android.exoplayer2.source.chunk.InitializationChunk;
 import com.google.android.exoplayer2.source.chunk.MediaChunk;
 import com.google.android.exoplayer2.source.dash.DashChunkSource;
+import com.google.android.exoplayer2.source.dash.DashSegmentIndex;
 import com.google.android.exoplayer2.source.dash.DefaultDashChunkSource;
 import com.google.android.exoplayer2.source.dash.manifest.DashManifest;
+import com.google.android.exoplayer2.source.dash.manifest.RangedUri;
+import com.google.android.exoplayer2.source.dash.manifest.Representation;
 import com.google.android.exoplayer2.trackselection.TrackSelection;
 import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
 import com.google.android.exoplayer2.upstream.LoaderErrorThrower;
+import com.google.android.exoplayer2.upstream.cache.Cache;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSource;
 
 import java.io.IOException;
 import java.util.List;
@@ -17,20 +33,58 @@ import java.util.List;
 /**
  * A replacement for {@link DefaultDashChunkSource}.
  *
- * <p>Passes chunks to a ChunkListener for chunk-based throughput sampling,
- * and otherwise behaves identically to DefaultDashChunkSource.
+ * <p>Passes media and initialization chunks to a ChunkListener for
+ * chunk-based throughput sampling, and otherwise behaves identically to
+ * DefaultDashChunkSource.
+ *
+ * <p>Its factory can load each chunk over several connections at once, by
+ * way of a {@link ParallelDataSource}, and read segments through a disk
+ * {@link Cache} so they aren't downloaded again when the media loops. It
+ * can also request each segment one subsegment at a time, by way of a
+ * {@link SubsegmentDataSource}, so throughput is measured, and a load can
+ * be abandoned, part way through a long segment.
+ *
+ * <p>Initialization segments can be kept in an {@link InitSegmentCache}
+ * shared by all the chunk sources, so they're loaded once however often
+ * the representation is switched to or the media loops. When the
+ * selection climbs to a higher level, the initialization segments of the
+ * levels either side of it are prefetched, so a further switch doesn't
+ * wait on one.
+ *
+ * <p>A media chunk's load is abandoned if, at its current throughput, it
+ * can't finish before the buffer ahead of it runs out, and a lower quality
+ * level could. The same chunk is then re-requested at that level.
+ *
+ * <p>Conversely, once throughput has improved, chunks buffered well ahead
+ * of the playhead at a lower level than is now selected are discarded so
+ * they are loaded again at the higher level, provided the re-download
+ * fits comfortably within the buffer before them. The bytes thrown away
+ * are limited by a budget. The throughput this is judged by counts only
+ * bytes from the network, so chunks read from the cache don't inflate it.
+ *
+ * <p>For live streams, each manifest refresh updates the range of chunks
+ * available in {@link FutureChunkInfo}, using the same chunk indices the
+ * media chunks carry, even when a refreshed manifest numbers its segments
+ * differently. The range is also moved forward with the live edge as
+ * chunks are requested.
  */
 
 public class MislDashChunkSource implements DashChunkSource {
 
-    public static class Factory implements DashChunkSource.Factory {
+    public static class Factory implements DashChunkSource.Factory,
+            LiveLatencyController.ServerClock {
 
         private static final int DEFAULT_MAX_SEGMENTS_PER_LOAD = 1;
+        private static final int DEFAULT_CONNECTION_COUNT = 1;
 
         private final DataSource.Factory dataSourceFactory;
+        private final Cache cache;
         private final int maxSegmentsPerLoad;
+        private final InitSegmentCache initSegmentCache;
         private final ChunkListener chunkListener;
 
+        private volatile long elapsedRealtimeOffsetMs;
+
         /**
          * Creates a MislDashChunkSource factory with default values.
          *
@@ -46,8 +100,120 @@ public class MislDashChunkSource implements DashChunkSource {
 
         public Factory(DataSource.Factory dataSourceFactory,
                        int maxSegmentsPerLoad, ChunkListener chunkListener) {
+            this(dataSourceFactory, maxSegmentsPerLoad, DEFAULT_CONNECTION_COUNT,
+                    chunkListener);
+        }
+
+        /**
+         * Creates a MislDashChunkSource factory which loads chunks over
+         * parallel connections.
+         *
+         * @param dataSourceFactory Creates the data sources for each
+         *                          connection.
+         * @param maxSegmentsPerLoad The most segments to load in one chunk,
+         *                           if they're contiguous byte ranges.
+         * @param connectionCount The number of connections to load each
+         *                        chunk over. If 1, chunks are loaded
+         *                        directly from dataSourceFactory's sources.
+         * @param chunkListener Can be given chunks for chunk-based
+         *                      throughput sampling.
+         */
+        public Factory(DataSource.Factory dataSourceFactory,
+                       int maxSegmentsPerLoad, int connectionCount,
+                       ChunkListener chunkListener) {
+            this(dataSourceFactory, maxSegmentsPerLoad, connectionCount, null,
+                    chunkListener);
+        }
+
+        /**
+         * Creates a MislDashChunkSource factory which loads chunks over
+         * parallel connections, through a cache.
+         *
+         * @param dataSourceFactory Creates the data sources for each
+         *                          connection.
+         * @param maxSegmentsPerLoad The most segments to load in one chunk,
+         *                           if they're contiguous byte ranges.
+         * @param connectionCount The number of connections to load each
+         *                        chunk over. If 1, chunks are loaded
+         *                        directly from dataSourceFactory's sources.
+         * @param cache The cache to read segments through, keyed by URL and
+         *              byte range, or null to always use the network.
+         * @param chunkListener Can be given chunks for chunk-based
+         *                      throughput sampling.
+         */
+        public Factory(DataSource.Factory dataSourceFactory,
+                       int maxSegmentsPerLoad, int connectionCount,
+                       Cache cache, ChunkListener chunkListener) {
+            this(dataSourceFactory, maxSegmentsPerLoad, connectionCount, false,
+                    cache, chunkListener);
+        }
+
+        /**
+         * Creates a MislDashChunkSource factory which loads chunks over
+         * parallel connections, optionally as subsegment byte ranges,
+         * through a cache.
+         *
+         * @param dataSourceFactory Creates the data sources for each
+         *                          connection.
+         * @param maxSegmentsPerLoad The most segments to load in one chunk,
+         *                           if they're contiguous byte ranges.
+         * @param connectionCount The number of connections to load each
+         *                        chunk over. If 1, chunks are loaded
+         *                        directly from dataSourceFactory's sources.
+         * @param subsegmentRequests Whether to request each segment as the
+         *                           byte ranges of the subsegments listed
+         *                           in its segment index.
+         * @param cache The cache to read segments through, keyed by URL and
+         *              byte range, or null to always use the network.
+         * @param chunkListener Can be given chunks for chunk-based
+         *                      throughput sampling.
+         */
+        public Factory(DataSource.Factory dataSourceFactory,
+                       int maxSegmentsPerLoad, int connectionCount,
+                       boolean subsegmentRequests, Cache cache,
+                       ChunkListener chunkListener) {
+            this(dataSourceFactory, maxSegmentsPerLoad, connectionCount, subsegmentRequests,
+                    cache, null, chunkListener);
+        }
+
+        /**
+         * Creates a MislDashChunkSource factory which loads chunks over
+         * parallel connections, optionally as subsegment byte ranges,
+         * through a cache, and keeps initialization segments in memory.
+         *
+         * @param dataSourceFactory Creates the data sources for each
+         *                          connection.
+         * @param maxSegmentsPerLoad The most segments to load in one chunk,
+         *                           if they're contiguous byte ranges.
+         * @param connectionCount The number of connections to load each
+         *                        chunk over. If 1, chunks are loaded
+         *                        directly from dataSourceFactory's sources.
+         * @param subsegmentRequests Whether to request each segment as the
+         *                           byte ranges of the subsegments listed
+         *                           in its segment index.
+         * @param cache The cache to read segments through, keyed by URL and
+         *              byte range, or null to always use the network.
+         * @param initSegmentCache The cache for initialization segments,
+         *                         shared by every chunk source the factory
+         *                         creates, or null to not keep them.
+         * @param chunkListener Can be given chunks for chunk-based
+         *                      throughput sampling.
+         */
+        public Factory(DataSource.Factory dataSourceFactory,
+                       int maxSegmentsPerLoad, int connectionCount,
+                       boolean subsegmentRequests, Cache cache,
+                       InitSegmentCache initSegmentCache, ChunkListener chunkListener) {
+            if (connectionCount > 1) {
+                dataSourceFactory = new ParallelDataSource.Factory(dataSourceFactory,
+                        connectionCount);
+            }
+            if (subsegmentRequests) {
+                dataSourceFactory = new SubsegmentDataSource.Factory(dataSourceFactory);
+            }
             this.dataSourceFactory = dataSourceFactory;
+            this.cache = cache;
             this.maxSegmentsPerLoad = maxSegmentsPerLoad;
+            this.initSegmentCache = initSegmentCache;
             this.chunkListener = chunkListener;
         }
 
@@ -56,33 +222,409 @@ public class MislDashChunkSource implements DashChunkSource {
                                                      DashManifest manifest, int periodIndex, int adaptationSetIndex,
                                                      TrackSelection trackSelection, long elapsedRealtimeOffsetMs,
                                                      boolean enableEventMessageTrack, boolean enableCea608Track) {
+            this.elapsedRealtimeOffsetMs = elapsedRealtimeOffsetMs;
             DataSource dataSource = dataSourceFactory.createDataSource();
 
             return new MislDashChunkSource(manifestLoaderErrorThrower, manifest, periodIndex,
-                    adaptationSetIndex, trackSelection, dataSource, elapsedRealtimeOffsetMs,
+                    adaptationSetIndex, trackSelection, dataSource, cache, elapsedRealtimeOffsetMs,
                     maxSegmentsPerLoad, enableEventMessageTrack,
-                    enableCea608Track, chunkListener);
+                    enableCea608Track, initSegmentCache, chunkListener);
+        }
+
+        /**
+         * Gives the current time by the server's clock, using the offset
+         * given to the last chunk source created, as the chunk sources
+         * themselves do.
+         */
+        @Override
+        public long nowUnixTimeMs() {
+            return MislDashChunkSource.nowUnixTimeMs(elapsedRealtimeOffsetMs);
+        }
+    }
+
+    /**
+     * Gives the current time by the server's clock, as for
+     * DefaultDashChunkSource.
+     *
+     * @param elapsedRealtimeOffsetMs The difference between the server's
+     *                                clock and {@link SystemClock#elapsedRealtime()},
+     *                                or 0 if unknown.
+     * @return The time in ms since the epoch.
+     */
+    private static long nowUnixTimeMs(long elapsedRealtimeOffsetMs) {
+        return elapsedRealtimeOffsetMs != 0
+                ? SystemClock.elapsedRealtime() + elapsedRealtimeOffsetMs
+                : System.currentTimeMillis();
+    }
+
+    /**
+     * Thrown by a chunk's data source when its load is abandoned because it
+     * can't finish before the buffer runs out.
+     */
+    public static final class AbandonedLoadException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        /** The highest bitrate which could be loaded in time, in bps. */
+        public final int sustainableBitrate;
+
+        public AbandonedLoadException(int sustainableBitrate) {
+            super("Chunk load abandoned");
+            this.sustainableBitrate = sustainableBitrate;
+        }
+    }
+
+    /**
+     * Counts the bytes read from the network, beneath any cache.
+     */
+    private static final class NetworkMonitor implements DataSource {
+
+        private final DataSource dataSource;
+
+        private volatile long bytesRead;
+
+        NetworkMonitor(DataSource dataSource) {
+            this.dataSource = dataSource;
+        }
+
+        /** The number of bytes read from the network so far. */
+        long bytesRead() {
+            return bytesRead;
+        }
+
+        @Override
+        public long open(DataSpec dataSpec) throws IOException {
+            return dataSource.open(dataSpec);
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int readLength) throws IOException {
+            int read = dataSource.read(buffer, offset, readLength);
+            if (read > 0) {
+                bytesRead += read;
+            }
+            return read;
+        }
+
+        @Override
+        public Uri getUri() {
+            return dataSource.getUri();
+        }
+
+        @Override
+        public void close() throws IOException {
+            dataSource.close();
+        }
+    }
+
+    /**
+     * Watches the load of each media chunk, and abandons it if it can't
+     * finish before the buffer runs out but a lower quality level could.
+     */
+    private final class LoadMonitor implements DataSource {
+
+        private final DataSource dataSource;
+
+        private volatile MediaChunk chunk;
+        private volatile long bufferedDurationMs;
+        private volatile boolean abandonable;
+        private long loadStartMs;
+        private long bytesLoaded;
+        private long networkBytesAtStart;
+
+        LoadMonitor(DataSource dataSource) {
+            this.dataSource = dataSource;
+        }
+
+        /**
+         * Starts watching a chunk.
+         *
+         * @param chunk The chunk which is about to load, or null if it isn't
+         *              a media chunk.
+         * @param bufferedDurationMs The duration of media buffered ahead of
+         *                           the chunk, in ms.
+         */
+        void watch(MediaChunk chunk, long bufferedDurationMs) {
+            this.bufferedDurationMs = bufferedDurationMs;
+            this.abandonable = true;
+            this.loadStartMs = C.TIME_UNSET;
+            this.bytesLoaded = 0;
+            this.networkBytesAtStart = networkMonitor.bytesRead();
+            this.chunk = chunk;
+        }
+
+        /** Lets the chunk being watched load to the end. */
+        void stopAbandoning() {
+            abandonable = false;
+        }
+
+        /**
+         * The network throughput of the watched chunk's load so far, in bps,
+         * or 0 if it isn't known. Bytes read from the cache aren't counted,
+         * so it is 0 for a chunk read entirely from the cache.
+         */
+        double loadRate() {
+            long elapsedMs = SystemClock.elapsedRealtime() - loadStartMs;
+            if (loadStartMs == C.TIME_UNSET || elapsedMs <= 0) {
+                return 0;
+            }
+            return (networkMonitor.bytesRead() - networkBytesAtStart) * 8000.0 / elapsedMs;
+        }
+
+        @Override
+        public long open(DataSpec dataSpec) throws IOException {
+            if (loadStartMs == C.TIME_UNSET) {
+                loadStartMs = SystemClock.elapsedRealtime();
+            }
+            return dataSource.open(dataSpec);
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int readLength) throws IOException {
+            int read = dataSource.read(buffer, offset, readLength);
+            if (read > 0) {
+                bytesLoaded += read;
+                MediaChunk chunk = this.chunk;
+                if (chunk != null && abandonable) {
+                    int sustainableBitrate = sustainableBitrate(chunk);
+                    if (sustainableBitrate != NO_ABANDONMENT) {
+                        throw new AbandonedLoadException(sustainableBitrate);
+                    }
+                }
+            }
+            return read;
+        }
+
+        @Override
+        public Uri getUri() {
+            return dataSource.getUri();
         }
+
+        @Override
+        public void close() throws IOException {
+            dataSource.close();
+        }
+
+        /**
+         * Decides whether the chunk's load should be abandoned.
+         *
+         * @return The highest bitrate whose chunk could be loaded before the
+         *         buffer runs out, or {@link #NO_ABANDONMENT} if the load
+         *         should continue.
+         */
+        private int sustainableBitrate(MediaChunk chunk) {
+            long elapsedMs = SystemClock.elapsedRealtime() - loadStartMs;
+            int trackIndex = trackSelection.indexOf(chunk.trackFormat);
+            if (elapsedMs < MIN_ABANDON_ELAPSED_MS || trackIndex == C.INDEX_UNSET
+                    || trackIndex == trackSelection.length() - 1) {
+                return NO_ABANDONMENT;
+            }
+
+            double rate = bytesLoaded * 8000.0 / elapsedMs;
+            long chunkDurationMs = (chunk.endTimeUs - chunk.startTimeUs) / 1000;
+            double remainingBits = chunkSizeBits(chunk.chunkIndex, trackIndex, chunkDurationMs)
+                    - bytesLoaded * 8.0;
+            double finishMs = remainingBits * 1000 / rate;
+            long bufferLeftMs = bufferedDurationMs - elapsedMs;
+            if (remainingBits <= 0 || finishMs <= bufferLeftMs) {
+                return NO_ABANDONMENT;
+            }
+
+            // restart at the highest level which fits in the buffer, or at
+            // the lowest if that would still beat finishing this chunk
+            int lowestIndex = trackSelection.length() - 1;
+            for (int i = trackIndex + 1; i <= lowestIndex; i++) {
+                double loadMs = chunkSizeBits(chunk.chunkIndex, i, chunkDurationMs) * 1000 / rate;
+                if (loadMs <= bufferLeftMs * ABANDON_SAFETY_FRACTION
+                        || (i == lowestIndex && loadMs < finishMs * ABANDON_GAIN_FRACTION)) {
+                    return trackSelection.getFormat(i).bitrate;
+                }
+            }
+            return NO_ABANDONMENT;
+        }
+
     }
 
     private static final String TAG = "MislDashChunkSource";
 
+    private static final int NO_ABANDONMENT = -1;
+    /** How long a load must run before its throughput is trusted, in ms. */
+    private static final long MIN_ABANDON_ELAPSED_MS = 500;
+    /** The fraction of the remaining buffer a re-requested chunk may take to load. */
+    private static final double ABANDON_SAFETY_FRACTION = 0.8;
+    /**
+     * How much faster than finishing the current chunk a re-request at the
+     * lowest level must be, when no level fits in the buffer.
+     */
+    private static final double ABANDON_GAIN_FRACTION = 0.5;
+
+    /** How far ahead of the playhead a chunk must start to be replaced, in us. */
+    private static final long MIN_REPLACE_AHEAD_US = 10_000_000;
+    /** The fraction of the buffer before replaced chunks their re-download may take. */
+    private static final double REPLACE_SAFETY_FRACTION = 0.5;
+    /**
+     * How far the throughput must exceed the selected bitrate before
+     * there is throughput to spare for replacements.
+     */
+    private static final double REPLACE_SPARE_FACTOR = 1.2;
+    /** The most bytes of buffered chunks which may be replaced. */
+    private static final long DEFAULT_REPLACEMENT_BYTE_BUDGET = 8 * 1024 * 1024;
+    private static final double THROUGHPUT_WEIGHT = 0.3;
+    private static final int CACHE_FLAGS = CacheDataSource.FLAG_BLOCK_ON_CACHE
+            | CacheDataSource.FLAG_IGNORE_CACHE_ON_ERROR
+            | CacheDataSource.FLAG_CACHE_UNBOUNDED_REQUESTS;
+
     private DashChunkSource dashChunkSource;
     private ChunkListener chunkListener;
+    private final CappedTrackSelection trackSelection;
+    private final NetworkMonitor networkMonitor;
+    private final LoadMonitor loadMonitor;
+    private final int adaptationSetIndex;
+    private final InitSegmentCache initSegmentCache;
+    private final InitSegmentDataSource initSegmentDataSource;
+
+    private final long elapsedRealtimeOffsetMs;
+
+    private DashManifest manifest;
+    private int periodIndex;
+    private int lastSelectedIndex = C.INDEX_UNSET;
+    /**
+     * The difference between the chunk indices of media chunks and the
+     * segment numbers of the current manifest.
+     */
+    private int segmentNumShift;
+
+    private MediaChunk lastCompletedChunk;
+    private double throughputEstimate;
+    private long replacementBytesLeft = DEFAULT_REPLACEMENT_BYTE_BUDGET;
 
     public MislDashChunkSource(LoaderErrorThrower manifestLoaderErrorThrower, DashManifest manifest,
                                int periodIndex, int adaptationSetIndex, TrackSelection trackSelection,
-                               DataSource dataSource, long elapsedRealtimeOffsetMs, int maxSegmentsPerLoad,
-                               boolean enableEventMessageTrack, boolean enableCea608Track, ChunkListener chunkListener) {
+                               DataSource dataSource, Cache cache, long elapsedRealtimeOffsetMs,
+                               int maxSegmentsPerLoad,
+                               boolean enableEventMessageTrack, boolean enableCea608Track,
+                               InitSegmentCache initSegmentCache, ChunkListener chunkListener) {
+        this.trackSelection = new CappedTrackSelection(trackSelection);
+        this.manifest = manifest;
+        this.periodIndex = periodIndex;
+        this.adaptationSetIndex = adaptationSetIndex;
+        this.elapsedRealtimeOffsetMs = elapsedRealtimeOffsetMs;
+        this.initSegmentCache = initSegmentCache;
+        this.networkMonitor = new NetworkMonitor(dataSource);
+        dataSource = networkMonitor;
+        if (cache != null) {
+            dataSource = new CacheDataSource(cache, dataSource, CACHE_FLAGS);
+        }
+        if (initSegmentCache != null) {
+            initSegmentDataSource = new InitSegmentDataSource(dataSource, initSegmentCache);
+            dataSource = initSegmentDataSource;
+        } else {
+            initSegmentDataSource = null;
+        }
+        this.loadMonitor = new LoadMonitor(dataSource);
         this.dashChunkSource = new DefaultDashChunkSource(manifestLoaderErrorThrower, manifest, periodIndex,
-                adaptationSetIndex, trackSelection, dataSource, elapsedRealtimeOffsetMs, maxSegmentsPerLoad,
+                adaptationSetIndex, this.trackSelection, loadMonitor, elapsedRealtimeOffsetMs, maxSegmentsPerLoad,
                 enableEventMessageTrack, enableCea608Track);
         this.chunkListener = chunkListener;
+        updateAvailableChunks();
     }
 
     @Override
     public void updateManifest(DashManifest newManifest, int periodIndex) {
         dashChunkSource.updateManifest(newManifest, periodIndex);
+        if (periodIndex == this.periodIndex) {
+            segmentNumShift += segmentNumShift(newManifest);
+        } else {
+            segmentNumShift = 0;
+        }
+        this.manifest = newManifest;
+        this.periodIndex = periodIndex;
+        updateAvailableChunks();
+    }
+
+    /**
+     * Finds how the segment numbering changes with a refreshed manifest,
+     * in the same way as {@link DefaultDashChunkSource}, so the chunk
+     * index of a segment stays the same however the manifest numbers it.
+     *
+     * @param newManifest The refreshed manifest.
+     * @return The change in the difference between chunk indices and
+     *         segment numbers.
+     */
+    private int segmentNumShift(DashManifest newManifest) {
+        DashSegmentIndex oldIndex = representation(manifest, 0).getIndex();
+        DashSegmentIndex newIndex = representation(newManifest, 0).getIndex();
+        long periodDurationUs = newManifest.getPeriodDurationUs(periodIndex);
+        if (oldIndex == null || newIndex == null) {
+            return 0;
+        }
+        int oldIndexSegmentCount = oldIndex.getSegmentCount(periodDurationUs);
+        if (oldIndexSegmentCount == DashSegmentIndex.INDEX_UNBOUNDED || oldIndexSegmentCount == 0) {
+            // an unbounded index numbers its segments the same way every time
+            return 0;
+        }
+
+        int oldIndexLastSegmentNum = oldIndex.getFirstSegmentNum() + oldIndexSegmentCount - 1;
+        long oldIndexEndTimeUs = oldIndex.getTimeUs(oldIndexLastSegmentNum)
+                + oldIndex.getDurationUs(oldIndexLastSegmentNum, periodDurationUs);
+        int newIndexFirstSegmentNum = newIndex.getFirstSegmentNum();
+        long newIndexStartTimeUs = newIndex.getTimeUs(newIndexFirstSegmentNum);
+        if (oldIndexEndTimeUs == newIndexStartTimeUs) {
+            return oldIndexLastSegmentNum + 1 - newIndexFirstSegmentNum;
+        } else if (oldIndexEndTimeUs < newIndexStartTimeUs) {
+            // the stream has moved on past the old manifest; the wrapped
+            // chunk source reports this as falling behind the live window
+            return 0;
+        }
+        return oldIndex.getSegmentNum(newIndexStartTimeUs, periodDurationUs) - newIndexFirstSegmentNum;
+    }
+
+    /**
+     * Stores the range of chunks currently available in a live stream, by
+     * chunk index, in {@link PlayerActivity#futureChunkInfo}.
+     */
+    private void updateAvailableChunks() {
+        FutureChunkInfo chunkInfo = PlayerActivity.futureChunkInfo;
+        if (chunkInfo == null || !manifest.dynamic) {
+            return;
+        }
+        DashSegmentIndex index = representation(manifest, trackSelection.getSelectedIndex()).getIndex();
+        if (index == null) {
+            return;
+        }
+
+        long periodDurationUs = manifest.getPeriodDurationUs(periodIndex);
+        int firstSegmentNum = index.getFirstSegmentNum();
+        int lastSegmentNum;
+        int segmentCount = index.getSegmentCount(periodDurationUs);
+        if (segmentCount == DashSegmentIndex.INDEX_UNBOUNDED) {
+            // the segments available depend on the time, as for
+            // DefaultDashChunkSource
+            long nowUs = nowUnixTimeMs(elapsedRealtimeOffsetMs) * 1000;
+            long liveEdgeInPeriodUs = nowUs - manifest.availabilityStartTime * 1000
+                    - manifest.getPeriod(periodIndex).startMs * 1000;
+            if (manifest.timeShiftBufferDepth != C.TIME_UNSET) {
+                firstSegmentNum = Math.max(firstSegmentNum, index.getSegmentNum(
+                        liveEdgeInPeriodUs - manifest.timeShiftBufferDepth * 1000, periodDurationUs));
+            }
+            lastSegmentNum = index.getSegmentNum(liveEdgeInPeriodUs, periodDurationUs) - 1;
+        } else {
+            lastSegmentNum = firstSegmentNum + segmentCount - 1;
+        }
+
+        int firstChunkIndex = firstSegmentNum + segmentNumShift;
+        int lastChunkIndex = lastSegmentNum + segmentNumShift;
+        if (firstChunkIndex != chunkInfo.firstAvailableChunkIndex()
+                || lastChunkIndex != chunkInfo.lastAvailableChunkIndex()) {
+            chunkInfo.setAvailableChunks(firstChunkIndex, lastChunkIndex);
+            Log.d(TAG, String.format("Chunks %d to %d available", firstChunkIndex, lastChunkIndex));
+        }
+    }
+
+    /** The representation of a track in a manifest. */
+    private Representation representation(DashManifest manifest, int trackIndex) {
+        return manifest.getPeriod(periodIndex).adaptationSets.get(adaptationSetIndex)
+                .representations.get(trackSelection.getIndexInTrackGroup(trackIndex));
     }
 
     @Override
@@ -92,25 +634,169 @@ public class MislDashChunkSource implements DashChunkSource {
 
     @Override
     public int getPreferredQueueSize(long playbackPositionUs, List<? extends MediaChunk> queue) {
-        return dashChunkSource.getPreferredQueueSize(playbackPositionUs, queue);
+        int queueSize = dashChunkSource.getPreferredQueueSize(playbackPositionUs, queue);
+        return Math.min(queueSize, replacementQueueSize(playbackPositionUs, queue));
+    }
+
+    /**
+     * Finds how many buffered chunks to keep so that the newest ones can be
+     * replaced at the currently selected quality level.
+     *
+     * <p>Chunks are considered from the newest back, while they're at a
+     * lower level than is selected, start far enough ahead of the playhead,
+     * fit in the byte budget, and can be loaded again at the selected level
+     * within the buffer before them.
+     *
+     * @param playbackPositionUs The current playback position.
+     * @param queue The buffered chunks, oldest first.
+     * @return The number of chunks to keep.
+     */
+    private int replacementQueueSize(long playbackPositionUs, List<? extends MediaChunk> queue) {
+        int targetBitrate = trackSelection.getSelectedFormat().bitrate;
+        if (queue.size() < 2 || trackSelection.isCapped()
+                || throughputEstimate < targetBitrate * REPLACE_SPARE_FACTOR) {
+            return queue.size();
+        }
+
+        int targetIndex = trackSelection.getSelectedIndex();
+        int keep = queue.size();
+        double reloadBits = 0;
+        long wastedBytes = 0;
+        for (int i = queue.size() - 1; i >= 1; i--) {
+            MediaChunk chunk = queue.get(i);
+            long aheadUs = chunk.startTimeUs - playbackPositionUs;
+            if (chunk.trackFormat.bitrate >= targetBitrate || aheadUs < MIN_REPLACE_AHEAD_US) {
+                break;
+            }
+            long chunkDurationMs = (chunk.endTimeUs - chunk.startTimeUs) / 1000;
+            double newReloadBits = reloadBits
+                    + chunkSizeBits(chunk.chunkIndex, targetIndex, chunkDurationMs);
+            long newWastedBytes = wastedBytes + chunk.bytesLoaded();
+            double reloadMs = newReloadBits * 1000 / throughputEstimate;
+            if (newWastedBytes > replacementBytesLeft
+                    || reloadMs > aheadUs / 1000 * REPLACE_SAFETY_FRACTION) {
+                break;
+            }
+            keep = i;
+            reloadBits = newReloadBits;
+            wastedBytes = newWastedBytes;
+        }
+
+        if (keep < queue.size()) {
+            replacementBytesLeft -= wastedBytes;
+            Log.d(TAG, String.format("Replacing %d chunks from chunk %d at %d kbps, wasting %d bytes (%d left in budget)",
+                    queue.size() - keep, queue.get(keep).chunkIndex, targetBitrate / 1000,
+                    wastedBytes, replacementBytesLeft));
+        }
+        return keep;
+    }
+
+    /** The size of a chunk, in bits, estimated from its bitrate if it isn't known. */
+    private double chunkSizeBits(int chunkIndex, int trackIndex, long chunkDurationMs) {
+        FutureChunkInfo chunkInfo = PlayerActivity.futureChunkInfo;
+        if (chunkInfo != null && chunkInfo.describes(trackSelection.getTrackGroup())) {
+            int byteSize = chunkInfo.findByteSize(chunkIndex, trackIndex);
+            if (byteSize != FutureChunkInfo.SIZE_UNKNOWN) {
+                return byteSize * 8.0;
+            }
+        }
+        return trackSelection.getFormat(trackIndex).bitrate * (chunkDurationMs / 1E3);
     }
 
     @Override
     public void getNextChunk(MediaChunk previous, long playbackPositionUs, ChunkHolder out) {
         if (chunkListener != null) {
-            chunkListener.giveLastChunk(previous);
+            // replaced chunks leave an older chunk last in the queue, but the
+            // most recent load is still the one to sample
+            chunkListener.giveLastChunk(lastCompletedChunk != null ? lastCompletedChunk : previous);
         }
 
+        updateAvailableChunks();
         dashChunkSource.getNextChunk(previous, playbackPositionUs, out);
+
+        if (initSegmentDataSource != null) {
+            initSegmentDataSource.setCaching(out.chunk instanceof InitializationChunk);
+            int selectedIndex = trackSelection.getSelectedIndex();
+            if (lastSelectedIndex != C.INDEX_UNSET && selectedIndex < lastSelectedIndex) {
+                prefetchInitSegment(selectedIndex - 1);
+                prefetchInitSegment(selectedIndex + 1);
+            }
+            lastSelectedIndex = selectedIndex;
+        }
+
+        if (out.chunk instanceof MediaChunk) {
+            // a cap only lasts for the chunk being re-requested
+            trackSelection.clearMaxBitrate();
+            long bufferedDurationUs = previous == null ? 0
+                    : Math.max(0, previous.endTimeUs - playbackPositionUs);
+            loadMonitor.watch((MediaChunk) out.chunk, bufferedDurationUs / 1000);
+        } else {
+            loadMonitor.watch(null, 0);
+        }
+    }
+
+    /**
+     * Loads a level's initialization segment into the cache in the
+     * background, requesting it just as {@link DefaultDashChunkSource}
+     * would so that its request finds it.
+     */
+    private void prefetchInitSegment(int trackIndex) {
+        if (trackIndex < 0 || trackIndex >= trackSelection.length()) {
+            return;
+        }
+        Representation representation = representation(manifest, trackIndex);
+        RangedUri initializationUri = representation.getInitializationUri();
+        RangedUri indexUri = representation.getIndex() == null ? representation.getIndexUri() : null;
+        RangedUri requestUri = initializationUri;
+        if (initializationUri != null) {
+            RangedUri mergedUri = initializationUri.attemptMerge(indexUri, representation.baseUrl);
+            if (mergedUri != null) {
+                requestUri = mergedUri;
+            }
+        } else {
+            requestUri = indexUri;
+        }
+        if (requestUri == null) {
+            return;
+        }
+
+        initSegmentCache.prefetch(new DataSpec(requestUri.resolveUri(representation.baseUrl),
+                requestUri.start, requestUri.length, representation.getCacheKey()));
     }
 
     @Override
     public void onChunkLoadCompleted(Chunk chunk) {
         dashChunkSource.onChunkLoadCompleted(chunk);
+
+        if (chunk instanceof MediaChunk) {
+            lastCompletedChunk = (MediaChunk) chunk;
+            double loadRate = loadMonitor.loadRate();
+            if (loadRate > 0) {
+                throughputEstimate = throughputEstimate == 0 ? loadRate
+                        : THROUGHPUT_WEIGHT * loadRate + (1 - THROUGHPUT_WEIGHT) * throughputEstimate;
+            }
+        }
+
+        if (chunkListener != null && chunk instanceof InitializationChunk) {
+            chunkListener.giveInitializationChunk((InitializationChunk) chunk);
+        }
     }
 
     @Override
     public boolean onChunkLoadError(Chunk chunk, boolean cancelable, Exception e) {
+        if (e instanceof AbandonedLoadException) {
+            if (!cancelable) {
+                // playback has already read from the chunk, so it must finish
+                loadMonitor.stopAbandoning();
+                return false;
+            }
+            int sustainableBitrate = ((AbandonedLoadException) e).sustainableBitrate;
+            Log.d(TAG, String.format("Abandoned chunk %d at %d kbps, wasting %d bytes; re-requesting at %d kbps",
+                    ((MediaChunk) chunk).chunkIndex, chunk.trackFormat.bitrate / 1000,
+                    chunk.bytesLoaded(), sustainableBitrate / 1000));
+            trackSelection.setMaxBitrate(sustainableBitrate);
+            return true;
+        }
         return dashChunkSource.onChunkLoadError(chunk, cancelable, e);
     }
 }
@@ -1,18 +1,34 @@
 package com.example.mislplayer;
 
+import android.util.Log;
+
+import com.example.mislplayer.sampling.SampleProcessor;
 import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.DefaultLoadControl;
 import com.google.android.exoplayer2.LoadControl;
 import com.google.android.exoplayer2.Renderer;
 import com.google.android.exoplayer2.source.TrackGroupArray;
+import com.google.android.exoplayer2.trackselection.TrackSelection;
 import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
 import com.google.android.exoplayer2.upstream.Allocator;
 import com.google.android.exoplayer2.upstream.DefaultAllocator;
+import com.google.android.exoplayer2.util.Util;
 
 /**
  * An alternative to {@link DefaultLoadControl}, which exposes its buffer
  * parameters, and otherwise behaves identically to
  * {@code DefaultLoadControl}.
+ *
+ * <p>It can also be given a {@link ByteBudgetAllocator}, in which case
+ * loading stops at whichever of the duration or byte limits is reached
+ * first. {@code DefaultLoadControl} can only measure its own
+ * {@link DefaultAllocator}, so its loading rule is then applied here,
+ * against the bytes in the budget allocator.
+ *
+ * <p>With {@link #setThroughputAwareStart(SampleProcessor)}, the buffer
+ * needed to start or resume playback is chosen from the current throughput
+ * statistics rather than fixed: one chunk when the link is well above the
+ * selected bitrate and stable, rising as it becomes slower or shakier.
  */
 public class MislLoadControl implements LoadControl {
 
@@ -40,13 +56,31 @@ public class MislLoadControl implements LoadControl {
      */
     public static final int DEFAULT_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS  = 5000;
 
+    /**
+     * How far the throughput must exceed the selected bitrate for playback
+     * to start with a single chunk buffered.
+     */
+    private static final double FAST_START_RATIO = 2;
+    /** The coefficient of variation below which throughput is stable. */
+    private static final double STABLE_CV = 0.15;
+    private static final int CV_WINDOW = 5;
+    private static final long DEFAULT_CHUNK_DURATION_MS = 4000;
+
+    private static final String TAG = "MislLoadControl";
+
     private LoadControl loadControl;
+    private final ByteBudgetAllocator byteBudgetAllocator;
 
     private final long minBufferMs;
     private final long maxBufferMs;
     private final long bufferForPlaybackMs;
     private final long bufferForPlaybackAfterRebufferMs;
 
+    private SampleProcessor startSampleProcessor;
+    private TrackSelectionArray trackSelections;
+    private int targetBufferSize;
+    private boolean isBuffering;
+
     /**
      * Creates a new MislLoadControl with default values.
      */
@@ -73,6 +107,29 @@ public class MislLoadControl implements LoadControl {
      */
     public MislLoadControl(int minBufferMs, int maxBufferMs,
                            long bufferForPlaybackMs, long bufferForPlaybackAfterRebufferMs) {
+        this(minBufferMs, maxBufferMs, bufferForPlaybackMs, bufferForPlaybackAfterRebufferMs,
+                null);
+    }
+
+    /**
+     * Creates a new MislLoadControl with a byte budget.
+     *
+     * @param minBufferMs The minimum duration of media that the player will attempt to ensure is
+     *     buffered at all times, in milliseconds.
+     * @param maxBufferMs The maximum duration of media that the player will attempt buffer, in
+     *     milliseconds.
+     * @param bufferForPlaybackMs The duration of media that must be buffered for playback to start or
+     *     resume following a user action such as a seek, in milliseconds.
+     * @param bufferForPlaybackAfterRebufferMs The default duration of media that must be buffered for
+     *     playback to resume after a rebuffer, in milliseconds. A rebuffer is defined to be caused by
+     *     buffer depletion rather than a user action.
+     * @param byteBudgetAllocator The allocator to buffer media into, or null to use a
+     *     {@link DefaultAllocator} without a byte budget.
+     */
+    public MislLoadControl(int minBufferMs, int maxBufferMs,
+                           long bufferForPlaybackMs, long bufferForPlaybackAfterRebufferMs,
+                           ByteBudgetAllocator byteBudgetAllocator) {
+        this.byteBudgetAllocator = byteBudgetAllocator;
         this.loadControl = new DefaultLoadControl(
                 new DefaultAllocator(true, C.DEFAULT_BUFFER_SEGMENT_SIZE), minBufferMs,
                 maxBufferMs, bufferForPlaybackMs, bufferForPlaybackAfterRebufferMs, null
@@ -99,6 +156,17 @@ public class MislLoadControl implements LoadControl {
         return bufferForPlaybackAfterRebufferMs;
     }
 
+    /**
+     * Chooses the buffer needed to start or resume playback from the
+     * throughput statistics, instead of using the fixed values. Must be
+     * called before the load control is given to the player.
+     *
+     * @param sampleProcessor Provides the throughput statistics.
+     */
+    public void setThroughputAwareStart(SampleProcessor sampleProcessor) {
+        this.startSampleProcessor = sampleProcessor;
+    }
+
     @Override
     public void onPrepared() {
         loadControl.onPrepared();
@@ -107,30 +175,136 @@ public class MislLoadControl implements LoadControl {
     @Override
     public void onTracksSelected(Renderer[] renderers, TrackGroupArray trackGroups, TrackSelectionArray trackSelections) {
         loadControl.onTracksSelected(renderers, trackGroups, trackSelections);
+        this.trackSelections = trackSelections;
+
+        targetBufferSize = 0;
+        for (int i = 0; i < renderers.length; i++) {
+            if (trackSelections.get(i) != null) {
+                targetBufferSize += Util.getDefaultBufferSize(renderers[i].getTrackType());
+            }
+        }
     }
 
     @Override
     public void onStopped() {
         loadControl.onStopped();
+        isBuffering = false;
+        trimByteBudgetAllocator();
     }
 
     @Override
     public void onReleased() {
         loadControl.onReleased();
+        isBuffering = false;
+        trimByteBudgetAllocator();
     }
 
     @Override
     public Allocator getAllocator() {
+        if (byteBudgetAllocator != null) {
+            return byteBudgetAllocator;
+        }
         return loadControl.getAllocator();
     }
 
     @Override
     public boolean shouldStartPlayback(long bufferedDurationUs, boolean rebuffering) {
-        return loadControl.shouldStartPlayback(bufferedDurationUs, rebuffering);
+        // loading stops at the byte budget, so waiting for more would hang
+        if (byteBudgetReached()) {
+            Log.d(TAG, String.format("%s with %d ms buffered at the byte budget",
+                    rebuffering ? "Resuming" : "Starting", bufferedDurationUs / 1000));
+            return true;
+        }
+        if (startSampleProcessor == null) {
+            return loadControl.shouldStartPlayback(bufferedDurationUs, rebuffering);
+        }
+
+        long thresholdMs = startThresholdMs(rebuffering);
+        if (bufferedDurationUs / 1000 >= thresholdMs) {
+            Log.d(TAG, String.format("%s with %d ms buffered (threshold %d ms)",
+                    rebuffering ? "Resuming" : "Starting", bufferedDurationUs / 1000, thresholdMs));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Finds the buffer needed to start or resume playback from the current
+     * throughput statistics.
+     *
+     * @param rebuffering Whether playback is resuming after a rebuffer.
+     * @return The buffer needed, in ms.
+     */
+    private long startThresholdMs(boolean rebuffering) {
+        long fixedThresholdMs = rebuffering ? bufferForPlaybackAfterRebufferMs : bufferForPlaybackMs;
+        int selectedBitrate = highestSelectedBitrate();
+        double throughput;
+        if (!startSampleProcessor.dataNotAvailable()) {
+            throughput = startSampleProcessor.sampleHarmonicAverage(CV_WINDOW);
+        } else if (!startSampleProcessor.startupDataNotAvailable()) {
+            throughput = startSampleProcessor.startupThroughput();
+        } else {
+            return fixedThresholdMs;
+        }
+        if (selectedBitrate <= 0 || throughput <= 0) {
+            return fixedThresholdMs;
+        }
+
+        double cv = startSampleProcessor.windowSize(CV_WINDOW) >= 2
+                ? startSampleProcessor.sampleCV(CV_WINDOW) : 0;
+        double ratio = throughput / selectedBitrate;
+        long chunkDurationMs = startSampleProcessor.nominalChunkDurationMs();
+        if (chunkDurationMs == C.TIME_UNSET) {
+            chunkDurationMs = DEFAULT_CHUNK_DURATION_MS;
+        }
+
+        if (ratio >= FAST_START_RATIO && cv < STABLE_CV) {
+            return chunkDurationMs;
+        }
+        // slower links need more buffer to absorb the next chunk's download,
+        // and shakier ones to absorb the variation
+        double scale = (1 + cv) * Math.max(1, FAST_START_RATIO / ratio);
+        long thresholdMs = Math.max(chunkDurationMs, (long) (fixedThresholdMs * scale));
+        return Math.min(thresholdMs, minBufferMs);
+    }
+
+    /** The highest bitrate among the currently selected formats, in bps. */
+    private int highestSelectedBitrate() {
+        int bitrate = 0;
+        if (trackSelections != null) {
+            for (TrackSelection selection : trackSelections.getAll()) {
+                if (selection != null) {
+                    bitrate = Math.max(bitrate, selection.getSelectedFormat().bitrate);
+                }
+            }
+        }
+        return bitrate;
     }
 
     @Override
     public boolean shouldContinueLoading(long bufferedDurationUs) {
-        return loadControl.shouldContinueLoading(bufferedDurationUs);
+        if (byteBudgetAllocator == null) {
+            return loadControl.shouldContinueLoading(bufferedDurationUs);
+        }
+
+        // as DefaultLoadControl does, but counting the budget allocator's bytes
+        long bufferedDurationMs = bufferedDurationUs / 1000;
+        boolean targetBufferSizeReached =
+                byteBudgetAllocator.getTotalBytesAllocated() >= targetBufferSize;
+        isBuffering = !byteBudgetReached() && (bufferedDurationMs < minBufferMs
+                || (bufferedDurationMs <= maxBufferMs && isBuffering && !targetBufferSizeReached));
+        return isBuffering;
+    }
+
+    /** Whether the media buffered has reached the byte budget, if there is one. */
+    protected boolean byteBudgetReached() {
+        return byteBudgetAllocator != null && byteBudgetAllocator.isBudgetReached();
+    }
+
+    private void trimByteBudgetAllocator() {
+        if (byteBudgetAllocator != null) {
+            Log.d(TAG, "Allocator: " + byteBudgetAllocator.statistics());
+            byteBudgetAllocator.trim();
+        }
     }
 }
@@ -13,14 +13,31 @@ import android.widget.TextView;
 
 import com.example.mislplayer.logging.DefaultChunkLogger;
 import com.example.mislplayer.logging.ManifestListener;
+import com.example.mislplayer.sampling.BurstAwareSampler;
 import com.example.mislplayer.sampling.ChunkBasedSampler;
 import com.example.mislplayer.sampling.ChunkListener;
 import com.example.mislplayer.sampling.DefaultSampleProcessor;
+import com.example.mislplayer.sampling.IdleAwareBandwidthMeter;
 import com.example.mislplayer.sampling.SizeBasedSampler;
 import com.example.mislplayer.sampling.TimeBasedSampler;
+import com.example.mislplayer.scheduling.RequestScheduler;
+import com.example.mislplayer.scheduling.ScheduledLoadControl;
 import com.example.mislplayer.trackselection.Bba2TrackSelection;
+import com.example.mislplayer.trackselection.BitrateBudget;
 import com.example.mislplayer.trackselection.BasicTrackSelection;
+import com.example.mislplayer.trackselection.BolaTrackSelection;
+import com.example.mislplayer.trackselection.DashTrackSelection;
 import com.example.mislplayer.trackselection.ElasticTrackSelection;
+import com.example.mislplayer.trackselection.MetaTrackSelection;
+import com.example.mislplayer.trackselection.MpcTrackSelection;
+import com.example.mislplayer.trackselection.NeuralTrackSelection;
+import com.example.mislplayer.trackselection.PolicyNetwork;
+import com.example.mislplayer.trackselection.QualityAwareTrackSelection;
+import com.example.mislplayer.trackselection.RiskBoundedTrackSelection;
+import com.example.mislplayer.trackselection.SustainabilityFilter;
+import com.example.mislplayer.upstream.ConnectionPool;
+import com.example.mislplayer.upstream.InitSegmentCache;
+import com.example.mislplayer.upstream.PooledHttpDataSource;
 import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.DefaultRenderersFactory;
 import com.google.android.exoplayer2.ExoPlaybackException;
@@ -45,6 +62,9 @@ import com.google.android.exoplayer2.upstream.DefaultDataSourceFactory;
 import com.google.android.exoplayer2.upstream.DefaultHttpDataSourceFactory;
 import com.google.android.exoplayer2.upstream.HttpDataSource;
 import com.google.android.exoplayer2.upstream.TransferListener;
+import com.google.android.exoplayer2.upstream.cache.Cache;
+import com.google.android.exoplayer2.upstream.cache.LeastRecentlyUsedCacheEvictor;
+import com.google.android.exoplayer2.upstream.cache.SimpleCache;
 import com.google.android.exoplayer2.util.Util;
 
 import java.io.File;
@@ -75,6 +95,22 @@ public class PlayerActivity extends Activity implements View.OnClickListener,
 
     private static final int DEBUG_VIEW_UPDATE_MS = 1000;
 
+    /** The relative shares of the throughput estimate for video and audio. */
+    private static final double VIDEO_BUDGET_WEIGHT = 0.9;
+    private static final double AUDIO_BUDGET_WEIGHT = 0.1;
+
+    /**
+     * The name of the raw resource holding per-chunk quality scores, in
+     * the same layout as the segment size CSV file.
+     */
+    private static final String QUALITY_SCORE_RESOURCE = "segmentqualityincolumnsanewhopex264";
+
+    /** The asset holding the trained policy for the learned algorithm. */
+    private static final String POLICY_NETWORK_ASSET = "abr_policy.bin";
+
+    private static final String SEGMENT_CACHE_DIRECTORY = "segments";
+    private static final long SEGMENT_CACHE_BYTES = 256 * 1024 * 1024;
+
     private SimpleExoPlayerView playerView;
     private Handler mainHandler;
     private SimpleExoPlayer player;
@@ -102,6 +138,39 @@ public class PlayerActivity extends Activity implements View.OnClickListener,
     private int maxBufferMs = DEFAULT_MAX_BUFFER_MS;
     private long playbackBufferMs = DEFAULT_BUFFER_FOR_PLAYBACK_MS;
     private long rebufferMs = DEFAULT_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS;
+    /** Whether to choose by per-chunk quality scores; needs the quality score resource. */
+    private boolean qualityAwareSelection = false;
+    /** Whether to cap selections at the bitrate the throughput can sustain. */
+    private boolean sustainabilityFilter = false;
+    /** Whether to split one throughput budget between the video and audio selections. */
+    private boolean bitrateBudget = false;
+    /** Schedules chunk requests, if set; otherwise chunks are loaded as needed. */
+    private RequestScheduler requestScheduler = null;
+    /** Whether to move the buffer target with the throughput variability. */
+    private boolean adaptiveBufferTarget = false;
+    /** The most bytes of media to buffer, or 0 to limit buffering by duration only. */
+    private int bufferByteBudget = 0;
+    /** Whether to choose the startup and rebuffer thresholds from throughput. */
+    private boolean throughputAwareStart = false;
+    /** The number of connections to load each chunk over; needs range support if above 1. */
+    private int chunkConnections = 1;
+    private int maxSegmentsPerLoad = 1;
+    /** Whether to request segments one sidx subsegment at a time; needs range support. */
+    private boolean subsegmentRequests = false;
+    /** Whether to keep HTTP connections open between requests. */
+    private boolean pooledConnections = false;
+    private final ConnectionPool connectionPool = new ConnectionPool();
+    /** Whether to keep downloaded segments in a disk cache, so loops don't fetch them again. */
+    private boolean segmentCaching = false;
+    /** The disk cache for segments. There can only be one per directory. */
+    private static SimpleCache segmentCache;
+    /** Whether to keep initialization segments in memory and prefetch them on upswitches. */
+    private boolean initSegmentCaching = true;
+    /** Whether to hold live streams near a target latency by adjusting the playback speed. */
+    private boolean liveLatencyControl = true;
+    private LiveLatencyController latencyController;
+    /** Whether to sample throughput over bursts only, for chunked-transfer live streams. */
+    private boolean burstAwareSampling = false;
 
     private TextView debugView;
     private final StringBuilder debugBuilder = new StringBuilder();
@@ -151,6 +220,9 @@ public class PlayerActivity extends Activity implements View.OnClickListener,
 
         //futur segment sizes obtained thanks to CSV file
         futureChunkInfo = getSegmentSizes();
+        if (futureChunkInfo != null) {
+            addQualityScores(futureChunkInfo);
+        }
 
         //Provides instances of DataSource from which streams of data can be read.
         DataSource.Factory mediaDataSourceFactory = buildDataSourceFactory(transferListener);
@@ -164,9 +236,13 @@ public class PlayerActivity extends Activity implements View.OnClickListener,
 
         manifestListener.addListener(chunkLogger);
         manifestListener.addListener(sampleProcessor);
+        manifestListener.addTransferReceiver(sampleProcessor);
 
         //Provides instances of DashChunkSource
         df = new MislDashChunkSource.Factory(mediaDataSourceFactory,
+                maxSegmentsPerLoad, chunkConnections, subsegmentRequests,
+                segmentCaching ? getSegmentCache() : null,
+                initSegmentCaching ? new InitSegmentCache(buildDataSourceFactory(null)) : null,
                 chunkListener);
 
         // Our video source media, we give it an URL, and all the stuff before
@@ -179,8 +255,24 @@ public class PlayerActivity extends Activity implements View.OnClickListener,
         //Used to play media indefinitely (loop)
         LoopingMediaSource loopingSource = new LoopingMediaSource(videoSource);
 
-        loadControl = new MislLoadControl(minBufferMs, maxBufferMs,
-                playbackBufferMs, rebufferMs);
+        ByteBudgetAllocator allocator = bufferByteBudget > 0
+                ? new ByteBudgetAllocator(C.DEFAULT_BUFFER_SEGMENT_SIZE, bufferByteBudget, false)
+                : null;
+        MislLoadControl mislLoadControl;
+        if (requestScheduler != null) {
+            mislLoadControl = new ScheduledLoadControl(minBufferMs, maxBufferMs,
+                    playbackBufferMs, rebufferMs, requestScheduler, allocator);
+        } else if (adaptiveBufferTarget) {
+            mislLoadControl = new AdaptiveLoadControl(minBufferMs, maxBufferMs,
+                    playbackBufferMs, rebufferMs, sampleProcessor, sampleProcessor, allocator);
+        } else {
+            mislLoadControl = new MislLoadControl(minBufferMs, maxBufferMs,
+                    playbackBufferMs, rebufferMs, allocator);
+        }
+        if (throughputAwareStart) {
+            mislLoadControl.setThroughputAwareStart(sampleProcessor);
+        }
+        loadControl = mislLoadControl;
 
         player = ExoPlayerFactory.newSimpleInstance(
                 new DefaultRenderersFactory(this), trackSelector,
@@ -195,6 +287,12 @@ public class PlayerActivity extends Activity implements View.OnClickListener,
 
         chunkLogger.setPlayer(player);
 
+        if (liveLatencyControl) {
+            latencyController = new LiveLatencyController(player, sampleProcessor,
+                    sampleProcessor, mainHandler, df);
+            latencyController.start();
+        }
+
         //bind the player to a view
         playerView.setPlayer(player);
 
@@ -219,12 +317,18 @@ public class PlayerActivity extends Activity implements View.OnClickListener,
 
     //Choose our algorithm given the button selected in the previous Activity
     private void configureRun() {
-        sampleProcessor = new DefaultSampleProcessor(maxBufferMs, sampleLogFile);
+        sampleProcessor = new DefaultSampleProcessor(maxBufferMs, playbackBufferMs,
+                sampleLogFile);
 
         if (algorithmType == AdaptationAlgorithmType.BASIC_ADAPTIVE) {
             DefaultBandwidthMeter bandwidthMeter = new DefaultBandwidthMeter();
             transferListener = bandwidthMeter;
             trackSelectionFactory = new AdaptiveTrackSelection.Factory(bandwidthMeter);
+        } else if (algorithmType == AdaptationAlgorithmType.DASH) {
+            Log.d(TAG, "DASH has been chosen.");
+            IdleAwareBandwidthMeter bandwidthMeter = new IdleAwareBandwidthMeter();
+            transferListener = bandwidthMeter;
+            trackSelectionFactory = new DashTrackSelection.Factory(bandwidthMeter);
         } else if (algorithmType == AdaptationAlgorithmType.BASIC_SIZE) {
             SizeBasedSampler sizeSampler = new SizeBasedSampler(
                     sampleProcessor, 100_000);
@@ -238,9 +342,16 @@ public class PlayerActivity extends Activity implements View.OnClickListener,
             chunkListener = timeSampler;
             trackSelectionFactory = new BasicTrackSelection.Factory(sampleProcessor);
         } else {
-            ChunkBasedSampler chunkSampler = new ChunkBasedSampler(sampleProcessor);
-            transferListener = chunkSampler;
-            chunkListener = chunkSampler;
+            if (burstAwareSampling) {
+                BurstAwareSampler burstSampler = new BurstAwareSampler(sampleProcessor);
+                transferListener = burstSampler;
+                chunkListener = burstSampler;
+            } else {
+                ChunkBasedSampler chunkSampler = new ChunkBasedSampler(sampleProcessor,
+                        segmentCaching);
+                transferListener = chunkSampler;
+                chunkListener = chunkSampler;
+            }
 
             switch (algorithmType) {
                 case BBA2:
@@ -251,10 +362,55 @@ public class PlayerActivity extends Activity implements View.OnClickListener,
                     Log.d(TAG, "ELASTIC has been chosen.");
                     trackSelectionFactory = new ElasticTrackSelection.Factory(sampleProcessor);
                     break;
+                case MPC:
+                    Log.d(TAG, "MPC has been chosen.");
+                    trackSelectionFactory = new MpcTrackSelection.Factory(sampleProcessor);
+                    break;
+                case BOLA:
+                    Log.d(TAG, "BOLA has been chosen.");
+                    trackSelectionFactory = new BolaTrackSelection.Factory(sampleProcessor);
+                    break;
+                case META:
+                    Log.d(TAG, "META has been chosen.");
+                    trackSelectionFactory = new MetaTrackSelection.Factory(sampleProcessor);
+                    break;
+                case RISK_BOUNDED:
+                    Log.d(TAG, "RISK_BOUNDED has been chosen.");
+                    trackSelectionFactory = new RiskBoundedTrackSelection.Factory(sampleProcessor);
+                    break;
+                case LEARNED:
+                    Log.d(TAG, "LEARNED has been chosen.");
+                    PolicyNetwork network = loadPolicyNetwork();
+                    if (network != null) {
+                        trackSelectionFactory = new NeuralTrackSelection.Factory(sampleProcessor,
+                                network);
+                    } else {
+                        Log.d(TAG, "No policy network; falling back to the basic selection.");
+                        trackSelectionFactory = new BasicTrackSelection.Factory(sampleProcessor);
+                    }
+                    break;
                 default:
                     throw new IllegalArgumentException("Unrecognised algorithm type");
             }
         }
+
+        if (algorithmType != AdaptationAlgorithmType.BASIC_ADAPTIVE
+                && algorithmType != AdaptationAlgorithmType.DASH) {
+            if (qualityAwareSelection) {
+                trackSelectionFactory = new QualityAwareTrackSelection.Factory(
+                        trackSelectionFactory);
+            }
+            if (sustainabilityFilter) {
+                trackSelectionFactory = new SustainabilityFilter.Factory(
+                        trackSelectionFactory, sampleProcessor);
+            }
+            if (bitrateBudget) {
+                trackSelectionFactory = new BitrateBudget(sampleProcessor)
+                        .setWeight(C.TRACK_TYPE_VIDEO, VIDEO_BUDGET_WEIGHT)
+                        .setWeight(C.TRACK_TYPE_AUDIO, AUDIO_BUDGET_WEIGHT)
+                        .wrap(trackSelectionFactory);
+            }
+        }
     }
 
     // Here we use our CSV file to obtain all future segment sizes of our media content. Will be used in our algorithms
@@ -304,6 +460,66 @@ public class PlayerActivity extends Activity implements View.OnClickListener,
         return null;
     }
 
+    /**
+     * Adds per-chunk quality scores to the chunk information, if a quality
+     * score CSV file is present in the raw folder. The file uses the same
+     * layout as the segment size file, with a score in place of each size,
+     * and the name of the metric (such as PSNR, SSIM or VMAF) in place of
+     * the name of the video.
+     */
+    private void addQualityScores(FutureChunkInfo chunkInfo) {
+        int resourceId = getResources().getIdentifier(QUALITY_SCORE_RESOURCE,
+                "raw", getPackageName());
+        if (resourceId == 0) {
+            Log.d(TAG, "No quality score file found.");
+            return;
+        }
+        try {
+            InputStream inputStream = getResources().openRawResource(resourceId);
+            CSVReader reader = new CSVReader(new InputStreamReader(inputStream));
+            String[] header = reader.readNext();
+            if (header != null && header.length > 0) {
+                chunkInfo.setQualityMetric(header[0].trim());
+            }
+            String[] nextLine;
+            while ((nextLine = reader.readNext()) != null) {
+                try {
+                    int chunkIndex = Integer.valueOf(nextLine[0].trim());
+                    if (chunkIndex >= 1) { // 0 is the INIT segment
+                        for (int i = 0; i < chunkInfo.numberOfRepresentations(); i++) {
+                            chunkInfo.addQualityScore(chunkIndex, i,
+                                    Double.valueOf(nextLine[i + 2].trim()));
+                        }
+                    }
+                } catch (NumberFormatException n) {
+                }
+            }
+        } catch (IOException e) {
+            Log.d(TAG, "Couldn't read quality score file.");
+        }
+    }
+
+    /**
+     * Loads the trained policy for the learned algorithm from the assets
+     * folder. Policies are trained offline; see {@link PolicyNetwork} for
+     * the file format.
+     *
+     * @return The policy, or null if there isn't one or it can't be read.
+     */
+    private PolicyNetwork loadPolicyNetwork() {
+        try {
+            InputStream inputStream = getAssets().open(POLICY_NETWORK_ASSET);
+            try {
+                return PolicyNetwork.read(inputStream);
+            } finally {
+                inputStream.close();
+            }
+        } catch (IOException e) {
+            Log.d(TAG, "Couldn't load policy network " + POLICY_NETWORK_ASSET);
+            return null;
+        }
+    }
+
     public int getMaxBufferMs() {
         return maxBufferMs;
     }
@@ -332,7 +548,22 @@ public class PlayerActivity extends Activity implements View.OnClickListener,
         return new DefaultDataSourceFactory(this, transferListener, buildHttpDataSourceFactory(transferListener));
     }
 
+    /**
+     * Gets the segment cache, creating it the first time. Its index is
+     * written atomically, so a crash leaves the previous index intact.
+     */
+    private Cache getSegmentCache() {
+        if (segmentCache == null) {
+            segmentCache = new SimpleCache(new File(getCacheDir(), SEGMENT_CACHE_DIRECTORY),
+                    new LeastRecentlyUsedCacheEvictor(SEGMENT_CACHE_BYTES));
+        }
+        return segmentCache;
+    }
+
     private HttpDataSource.Factory buildHttpDataSourceFactory(TransferListener<? super DataSource> transferListener) {
+        if (pooledConnections) {
+            return new PooledHttpDataSource.Factory("MyPlayer", transferListener, connectionPool);
+        }
         return new DefaultHttpDataSourceFactory("MyPlayer", transferListener);
     }
 
@@ -388,6 +619,10 @@ public class PlayerActivity extends Activity implements View.OnClickListener,
     private void releasePlayer() {
         if (player != null) {
             mainHandler.removeCallbacks(debugViewUpdater);
+            if (latencyController != null) {
+                latencyController.stop();
+                latencyController = null;
+            }
 
             updateResumePosition();
             player.release();
@@ -397,6 +632,7 @@ public class PlayerActivity extends Activity implements View.OnClickListener,
             chunkLogger.clearChunkInformation();
             sampleProcessor.writeSampleLog();
             sampleProcessor.clearSamples();
+            connectionPool.evictAll();
         }
     }
 
@@ -12,19 +12,35 @@ import java.util.List;
 /**
  * Listens to manifest data transfers and notifies components of the
  * manifest request time so they can synchronise times.
+ *
+ * <p>The size and duration of each manifest transfer is also passed on,
+ * so it can be used to estimate throughput before any media is loaded.
+ *
+ * <p>A live manifest is requested again every time it's refreshed. The
+ * first request time stays the reference time the listeners are given,
+ * while the time of each refresh is tracked separately.
  */
 public class ManifestListener implements TransferListener<Object> {
 
     private static final String TAG = "ManifestListener";
 
     private List<ManifestRequestTimeReceiver> listeners = new ArrayList<>();
+    private List<ManifestTransferReceiver> transferReceivers = new ArrayList<>();
 
     private long manifestRequestTime;
+    private long lastManifestRequestTime;
+    private int manifestRequestCount;
+    private long transferStartMs;
+    private long bytesTransferred;
 
     public void addListener(ManifestRequestTimeReceiver listener) {
         listeners.add(listener);
     }
 
+    public void addTransferReceiver(ManifestTransferReceiver receiver) {
+        transferReceivers.add(receiver);
+    }
+
     private void notifyListeners() {
         for (ManifestRequestTimeReceiver listener : listeners) {
             listener.giveManifestRequestTime(manifestRequestTime);
@@ -35,18 +51,49 @@ public class ManifestListener implements TransferListener<Object> {
 
     @Override
     public void onTransferStart(Object source, DataSpec dataSpec) {
+        transferStartMs = SystemClock.elapsedRealtime();
+        bytesTransferred = 0;
+
         if (manifestRequestTime == 0) {
-            manifestRequestTime = SystemClock.elapsedRealtime();
+            manifestRequestTime = transferStartMs;
             Log.d(TAG, String.format("Updated manifest request time to %d.", manifestRequestTime));
             notifyListeners();
+        } else {
+            Log.d(TAG, String.format("Manifest refresh %d requested %d ms after the last request.",
+                    manifestRequestCount, transferStartMs - lastManifestRequestTime));
         }
+        lastManifestRequestTime = transferStartMs;
+        manifestRequestCount++;
     }
 
     @Override
-    public void onBytesTransferred(Object source, int bytesTransferred) {}
+    public void onBytesTransferred(Object source, int bytesTransferred) {
+        this.bytesTransferred += bytesTransferred;
+    }
 
     @Override
-    public void onTransferEnd(Object source) {}
+    public void onTransferEnd(Object source) {
+        long elapsedRealtimeMs = SystemClock.elapsedRealtime();
+        long durationMs = elapsedRealtimeMs - transferStartMs;
+        Log.d(TAG, String.format("Manifest transfer: %d bytes in %d ms.",
+                bytesTransferred, durationMs));
+        for (ManifestTransferReceiver receiver : transferReceivers) {
+            receiver.giveManifestTransfer(elapsedRealtimeMs, bytesTransferred, durationMs);
+        }
+    }
+
+    /**
+     * The value of SystemClock#elapsedRealtime() when the manifest was
+     * last requested, or 0 if it hasn't been.
+     */
+    public long getLastManifestRequestTime() {
+        return lastManifestRequestTime;
+    }
+
+    /** The number of times the manifest has been requested. */
+    public int getManifestRequestCount() {
+        return manifestRequestCount;
+    }
 
     /**
      * To be implemented by listeners who wish to receive the manifest
@@ -56,4 +103,21 @@ public class ManifestListener implements TransferListener<Object> {
         /** Gives the manifest request time to the listener. */
         void giveManifestRequestTime(long manifestRequestTime);
     }
+
+    /**
+     * To be implemented by listeners who wish to be told about each
+     * manifest transfer.
+     */
+    public interface ManifestTransferReceiver {
+        /**
+         * Gives the listener the details of a finished manifest transfer.
+         *
+         * @param elapsedRealtimeMs The value of SystemClock#elapsedRealtime()
+         *                          when the transfer finished.
+         * @param bytesTransferred The size of the manifest, in bytes.
+         * @param durationMs The duration of the transfer, in ms.
+         */
+        void giveManifestTransfer(long elapsedRealtimeMs, long bytesTransferred,
+                                  long durationMs);
+    }
 }
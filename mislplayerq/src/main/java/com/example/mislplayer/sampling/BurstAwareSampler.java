@@ -0,0 +1,259 @@
+package com.example.mislplayer.sampling;
+
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.source.chunk.Chunk;
+import com.google.android.exoplayer2.source.chunk.InitializationChunk;
+import com.google.android.exoplayer2.source.chunk.MediaChunk;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.TransferListener;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Samples the available throughput on a chunk-by-chunk basis, counting
+ * only the time the server was actually sending.
+ *
+ * <p>Near the live edge, a segment delivered with chunked transfer
+ * encoding arrives as it is produced, so it takes as long to download as
+ * it does to play, and its throughput looks like its own bitrate. Within
+ * the transfer, though, the data comes in bursts separated by idle gaps.
+ * This sampler times the reads: a gap longer than a threshold is idle
+ * time and is left out, and the bytes of the first read after it are too,
+ * since it isn't known when during the gap they started arriving. The
+ * same goes for the first read of each transfer, which also waits for the
+ * request. What remains measures the link rather than the encoder.
+ *
+ * <p>A sample is delivered every time a chunk finishes, as with
+ * {@link ChunkBasedSampler}, and in the same way each transfer is recorded
+ * separately and a chunk is sampled only from the transfers of its own
+ * URI and byte range, so audio and video loading side by side don't mix.
+ * Where a chunk is loaded over several connections at once, their bursts
+ * overlap, and the time is counted once. If a chunk arrived in too few
+ * reads to find any burst, its sample covers the whole transfer instead.
+ */
+public class BurstAwareSampler implements TransferListener<Object>, ChunkListener {
+
+    /** A transfer from the network, and the bursts it arrived in. */
+    private static final class Transfer {
+
+        private final Uri uri;
+        private final long position;
+        private final long startNs;
+        private long endNs;
+        private long bytes;
+        private long lastReadNs = TIME_UNSET;
+
+        private long burstBytes;
+        /** The start and end times of the bursts, in order. */
+        private final ArrayList<long[]> bursts = new ArrayList<>();
+        private int idleGapCount;
+
+        private Transfer(DataSpec dataSpec, long startNs) {
+            this.uri = dataSpec.uri;
+            this.position = dataSpec.absoluteStreamPosition;
+            this.startNs = startNs;
+        }
+
+        /** Records a read, as part of a burst unless it followed a gap. */
+        private void addRead(long nowNs, int bytesRead, long idleGapNs) {
+            bytes += bytesRead;
+            endNs = nowNs;
+            if (lastReadNs != TIME_UNSET) {
+                if (nowNs - lastReadNs <= idleGapNs) {
+                    burstBytes += bytesRead;
+                    long[] lastBurst = bursts.isEmpty() ? null : bursts.get(bursts.size() - 1);
+                    if (lastBurst != null && lastBurst[1] == lastReadNs) {
+                        lastBurst[1] = nowNs;
+                    } else {
+                        bursts.add(new long[] {lastReadNs, nowNs});
+                    }
+                } else {
+                    idleGapCount++;
+                }
+            }
+            lastReadNs = nowNs;
+        }
+
+        /** Whether the transfer loaded part of a chunk. */
+        private boolean belongsTo(Chunk chunk) {
+            DataSpec chunkSpec = chunk.dataSpec;
+            return uri.equals(chunkSpec.uri)
+                    && position >= chunkSpec.absoluteStreamPosition
+                    && (chunkSpec.length == C.LENGTH_UNSET
+                        || position < chunkSpec.absoluteStreamPosition + chunkSpec.length);
+        }
+    }
+
+    private static final String TAG = "BurstAwareSampler";
+
+    /** The default read gap above which the server is taken to be idle, in ms. */
+    public static final long DEFAULT_IDLE_GAP_MS = 50;
+
+    private static final long NANOS_PER_MS = 1_000_000;
+    private static final long TIME_UNSET = -1;
+
+    /** The most finished transfers kept while waiting for their chunk. */
+    private static final int MAX_FINISHED_TRANSFERS = 64;
+
+    private static final Comparator<long[]> BY_START = new Comparator<long[]>() {
+        @Override
+        public int compare(long[] a, long[] b) {
+            return a[0] < b[0] ? -1 : (a[0] == b[0] ? 0 : 1);
+        }
+    };
+
+    private final SampleProcessor.Receiver sampleReceiver;
+    private final long idleGapNs;
+
+    private final HashMap<Object, Transfer> transfers = new HashMap<>();
+    private final ArrayDeque<Transfer> finishedTransfers = new ArrayDeque<>();
+
+    private MediaChunk lastChunk;
+
+    private long sampleBytes;
+    private long sampleDurationMs;
+
+    /**
+     * Creates a burst-aware sampler with the default idle gap threshold.
+     *
+     * @param sampleReceiver The receiver for throughput samples and
+     *                       chunks.
+     */
+    public BurstAwareSampler(SampleProcessor.Receiver sampleReceiver) {
+        this(sampleReceiver, DEFAULT_IDLE_GAP_MS);
+    }
+
+    /**
+     * Creates a burst-aware sampler.
+     *
+     * @param sampleReceiver The receiver for throughput samples and
+     *                       chunks.
+     * @param idleGapMs The gap between reads above which the server is
+     *                  taken to have been idle, in ms.
+     */
+    public BurstAwareSampler(SampleProcessor.Receiver sampleReceiver, long idleGapMs) {
+        this.sampleReceiver = sampleReceiver;
+        this.idleGapNs = idleGapMs * NANOS_PER_MS;
+    }
+
+    // ChunkListener implementation
+
+    @Override
+    public synchronized void giveLastChunk(MediaChunk lastChunk) {
+        if (lastChunk == null || lastChunk == this.lastChunk) {
+            return;
+        }
+
+        if (takeSample(lastChunk)) {
+            sampleReceiver.sendSample(SystemClock.elapsedRealtime(), sampleBytes * 8,
+                    sampleDurationMs);
+        }
+        sampleReceiver.giveChunk(lastChunk);
+        this.lastChunk = lastChunk;
+    }
+
+    @Override
+    public synchronized void giveInitializationChunk(InitializationChunk chunk) {
+        if (takeSample(chunk)) {
+            sampleReceiver.sendStartupSample(sampleBytes * 8, sampleDurationMs);
+        }
+    }
+
+    /**
+     * Gathers up the finished transfers which belong to a chunk into a
+     * sample, and forgets them.
+     *
+     * @param chunk The chunk to sample.
+     * @return true if the chunk had transfers of its own to sample, false
+     *         otherwise.
+     */
+    private boolean takeSample(Chunk chunk) {
+        long bytes = 0;
+        long burstBytes = 0;
+        long startNs = Long.MAX_VALUE;
+        long endNs = Long.MIN_VALUE;
+        int idleGapCount = 0;
+        List<long[]> bursts = new ArrayList<>();
+        Iterator<Transfer> iterator = finishedTransfers.iterator();
+        while (iterator.hasNext()) {
+            Transfer transfer = iterator.next();
+            if (transfer.belongsTo(chunk)) {
+                bytes += transfer.bytes;
+                burstBytes += transfer.burstBytes;
+                startNs = Math.min(startNs, transfer.startNs);
+                endNs = Math.max(endNs, transfer.endNs);
+                idleGapCount += transfer.idleGapCount;
+                bursts.addAll(transfer.bursts);
+                iterator.remove();
+            }
+        }
+        if (bytes == 0) {
+            return false;
+        }
+
+        long burstDurationNs = mergedDurationNs(bursts);
+        if (burstDurationNs >= NANOS_PER_MS && burstBytes > 0) {
+            Log.d(TAG, String.format("%d of %d bytes in bursts, %d idle gaps left out",
+                    burstBytes, bytes, idleGapCount));
+            sampleBytes = burstBytes;
+            sampleDurationMs = burstDurationNs / NANOS_PER_MS;
+        } else {
+            sampleBytes = bytes;
+            sampleDurationMs = (endNs - startNs) / NANOS_PER_MS;
+        }
+        return sampleDurationMs > 0;
+    }
+
+    /** The total time covered by a set of intervals, counting overlaps once. */
+    private static long mergedDurationNs(List<long[]> intervals) {
+        Collections.sort(intervals, BY_START);
+        long durationNs = 0;
+        long coveredUntilNs = Long.MIN_VALUE;
+        for (long[] interval : intervals) {
+            long startNs = Math.max(interval[0], coveredUntilNs);
+            if (interval[1] > startNs) {
+                durationNs += interval[1] - startNs;
+                coveredUntilNs = interval[1];
+            }
+        }
+        return durationNs;
+    }
+
+    // TransferListener implementation
+
+    @Override
+    public synchronized void onTransferStart(Object source, DataSpec dataSpec) {
+        transfers.put(source, new Transfer(dataSpec, System.nanoTime()));
+    }
+
+    @Override
+    public synchronized void onBytesTransferred(Object source, int bytesTransferred) {
+        Transfer transfer = transfers.get(source);
+        if (transfer != null) {
+            transfer.addRead(System.nanoTime(), bytesTransferred, idleGapNs);
+        }
+    }
+
+    @Override
+    public synchronized void onTransferEnd(Object source) {
+        Transfer transfer = transfers.remove(source);
+        if (transfer != null) {
+            transfer.endNs = System.nanoTime();
+            // transfers nothing claims, such as the manifest's, mustn't pile up
+            if (finishedTransfers.size() == MAX_FINISHED_TRANSFERS) {
+                finishedTransfers.removeFirst();
+            }
+            finishedTransfers.addLast(transfer);
+        }
+    }
+}
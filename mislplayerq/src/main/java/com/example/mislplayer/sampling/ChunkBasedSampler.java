@@ -1,11 +1,22 @@
 package com.example.mislplayer.sampling;
 
+import android.net.Uri;
 import android.os.SystemClock;
+import android.util.Log;
 
+import com.example.mislplayer.upstream.PooledHttpDataSource;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.source.chunk.Chunk;
+import com.google.android.exoplayer2.source.chunk.InitializationChunk;
 import com.google.android.exoplayer2.source.chunk.MediaChunk;
 import com.google.android.exoplayer2.upstream.DataSpec;
 import com.google.android.exoplayer2.upstream.TransferListener;
 
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+
 /**
  * Samples the available throughput on a chunk-by-chunk basis.
  *
@@ -13,17 +24,66 @@ import com.google.android.exoplayer2.upstream.TransferListener;
  * then. However, this depends on {@link #giveLastChunk} being called at
  * the correct time (after a chunk has been downloaded and before
  * updateTrackSelection() is called for downloading the next chunk).
+ *
+ * <p>Audio and video chunks load at the same time, so each transfer is
+ * recorded separately, and a chunk is sampled from the transfers of its
+ * own URI and byte range. A chunk may be loaded over several of them, for
+ * example by a {@link com.example.mislplayer.upstream.ParallelDataSource}
+ * or as a series of byte ranges by a
+ * {@link com.example.mislplayer.upstream.SubsegmentDataSource}. The load
+ * duration then runs from the start of the first to the end of the last,
+ * so the sample is the combined throughput of all the connections.
+ *
+ * <p>Chunks read from a cache arrive far faster than the network could
+ * deliver them. If cache hits are excluded, only the bytes which were
+ * transferred from the network count towards a sample. A chunk with no
+ * transfers of its own, because it came entirely from a cache, gives no
+ * sample either way.
  */
-public class ChunkBasedSampler implements TransferListener<Object>, ChunkListener {
+public class ChunkBasedSampler implements TransferListener<Object>, ChunkListener,
+        PooledHttpDataSource.ConnectionListener {
+
+    /** A transfer from the network, which may belong to a chunk. */
+    private static final class Transfer {
+
+        private final Uri uri;
+        private final long position;
+        private final long startMs;
+        private long endMs;
+        private long bytes;
+
+        private Transfer(DataSpec dataSpec, long startMs) {
+            this.uri = dataSpec.uri;
+            this.position = dataSpec.absoluteStreamPosition;
+            this.startMs = startMs;
+        }
+
+        /** Whether the transfer loaded part of a chunk. */
+        private boolean belongsTo(Chunk chunk) {
+            DataSpec chunkSpec = chunk.dataSpec;
+            return uri.equals(chunkSpec.uri)
+                    && position >= chunkSpec.absoluteStreamPosition
+                    && (chunkSpec.length == C.LENGTH_UNSET
+                        || position < chunkSpec.absoluteStreamPosition + chunkSpec.length);
+        }
+    }
 
     private static final String TAG = "ChunkBasedSampler";
 
+    /** The most finished transfers kept while waiting for their chunk. */
+    private static final int MAX_FINISHED_TRANSFERS = 64;
+
     private SampleProcessor.Receiver sampleReceiver;
     private MediaChunk lastChunk;
 
-    private long transferClockMs;
-    private long loadDurationMs;
-    private long elapsedRealtimeMs;
+    private final HashMap<Object, Transfer> transfers = new HashMap<>();
+    private final ArrayDeque<Transfer> finishedTransfers = new ArrayDeque<>();
+
+    private final boolean excludeCacheHits;
+
+    private long sampleBytes;
+    private long sampleDurationMs;
+    private long sampleEndMs;
 
     /**
      * Creates a chunk-based sampler.
@@ -32,39 +92,118 @@ public class ChunkBasedSampler implements TransferListener<Object>, ChunkListene
      *                        chunks.
      */
     public ChunkBasedSampler(SampleProcessor.Receiver sampleReceiver) {
+        this(sampleReceiver, false);
+    }
+
+    /**
+     * Creates a chunk-based sampler.
+     *
+     * @param sampleReceiver The receiver for throughput samples and
+     *                       chunks.
+     * @param excludeCacheHits Whether to leave bytes which weren't
+     *                         transferred from the network out of the
+     *                         samples. The transfer listener must only be
+     *                         given network transfers.
+     */
+    public ChunkBasedSampler(SampleProcessor.Receiver sampleReceiver,
+                             boolean excludeCacheHits) {
         this.sampleReceiver = sampleReceiver;
+        this.excludeCacheHits = excludeCacheHits;
     }
 
     // ChunkListener implementation
 
     @Override
-    public void giveLastChunk(MediaChunk lastChunk) {
+    public synchronized void giveLastChunk(MediaChunk lastChunk) {
         if (lastChunk == null) {
             return;
         } else if (lastChunk == this.lastChunk) {
             return;
         }
 
-        long chunkSizeBits = lastChunk.bytesLoaded() * 8;
-
-        sampleReceiver.sendSample(elapsedRealtimeMs, chunkSizeBits, loadDurationMs);
+        if (takeSample(lastChunk)) {
+            sampleReceiver.sendSample(sampleEndMs, sampleBytes * 8, sampleDurationMs);
+        } else {
+            Log.d(TAG, "Chunk came from the cache; no sample taken");
+        }
         sampleReceiver.giveChunk(lastChunk);
         this.lastChunk = lastChunk;
     }
 
+    @Override
+    public synchronized void giveInitializationChunk(InitializationChunk chunk) {
+        if (takeSample(chunk)) {
+            sampleReceiver.sendStartupSample(sampleBytes * 8, sampleDurationMs);
+        }
+    }
+
+    /**
+     * Gathers up the finished transfers which belong to a chunk into a
+     * sample, and forgets them.
+     *
+     * @param chunk The chunk to sample.
+     * @return true if the chunk had transfers of its own to sample, false
+     *         otherwise.
+     */
+    private boolean takeSample(Chunk chunk) {
+        long chunkNetworkBytes = 0;
+        long startMs = Long.MAX_VALUE;
+        long endMs = Long.MIN_VALUE;
+        Iterator<Transfer> iterator = finishedTransfers.iterator();
+        while (iterator.hasNext()) {
+            Transfer transfer = iterator.next();
+            if (transfer.belongsTo(chunk)) {
+                chunkNetworkBytes += transfer.bytes;
+                startMs = Math.min(startMs, transfer.startMs);
+                endMs = Math.max(endMs, transfer.endMs);
+                iterator.remove();
+            }
+        }
+        if (chunkNetworkBytes == 0) {
+            return false;
+        }
+
+        long chunkBytes = chunk.bytesLoaded();
+        sampleBytes = excludeCacheHits ? Math.min(chunkBytes, chunkNetworkBytes) : chunkBytes;
+        sampleDurationMs = endMs - startMs;
+        sampleEndMs = endMs;
+        return sampleBytes > 0;
+    }
+
+    // ConnectionListener implementation
+
+    @Override
+    public void onConnection(PooledHttpDataSource source, boolean reused, long connectTimeMs) {
+        if (!reused) {
+            Log.d(TAG, String.format("New connection took %d ms", connectTimeMs));
+        }
+    }
+
     // TransferListener implementation
 
     @Override
-    public void onTransferStart(Object source, DataSpec dataSpec) {
-        transferClockMs = SystemClock.elapsedRealtime();
+    public synchronized void onTransferStart(Object source, DataSpec dataSpec) {
+        transfers.put(source, new Transfer(dataSpec, SystemClock.elapsedRealtime()));
     }
 
     @Override
-    public void onBytesTransferred(Object source, int bytesTransferred) {}
+    public synchronized void onBytesTransferred(Object source, int bytesTransferred) {
+        Transfer transfer = transfers.get(source);
+        if (transfer != null) {
+            transfer.bytes += bytesTransferred;
+        }
+    }
 
     @Override
-    public void onTransferEnd(Object source) {
-        elapsedRealtimeMs = SystemClock.elapsedRealtime();
-        loadDurationMs = elapsedRealtimeMs - transferClockMs;
+    public synchronized void onTransferEnd(Object source) {
+        Transfer transfer = transfers.remove(source);
+        if (transfer != null) {
+            transfer.endMs = SystemClock.elapsedRealtime();
+            // transfers nothing claims, such as the manifest's, mustn't pile up
+            if (finishedTransfers.size() == MAX_FINISHED_TRANSFERS) {
+                finishedTransfers.removeFirst();
+            }
+            finishedTransfers.addLast(transfer);
+        }
     }
 }
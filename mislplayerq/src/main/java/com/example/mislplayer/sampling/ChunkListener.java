@@ -1,9 +1,10 @@
 package com.example.mislplayer.sampling;
 
+import com.google.android.exoplayer2.source.chunk.InitializationChunk;
 import com.google.android.exoplayer2.source.chunk.MediaChunk;
 
 /**
- * Receives {@link MediaChunk}s.
+ * Receives {@link MediaChunk}s and {@link InitializationChunk}s.
  */
 public interface ChunkListener {
     /**
@@ -12,4 +13,12 @@ public interface ChunkListener {
      * @param lastChunk The last chunk that was downloaded.
      */
     void giveLastChunk(MediaChunk lastChunk);
+
+    /**
+     * Give the listener an initialization chunk that has just finished
+     * loading.
+     *
+     * @param chunk The initialization chunk.
+     */
+    void giveInitializationChunk(InitializationChunk chunk);
 }
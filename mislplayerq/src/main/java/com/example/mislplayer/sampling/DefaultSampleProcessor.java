@@ -5,13 +5,18 @@ import android.util.Log;
 import com.example.mislplayer.logging.DefaultLogBuilder;
 import com.example.mislplayer.logging.LogBuilder;
 import com.example.mislplayer.logging.ManifestListener;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.DefaultLoadControl;
 import com.google.android.exoplayer2.ExoPlaybackException;
 import com.google.android.exoplayer2.ExoPlayer;
 import com.google.android.exoplayer2.PlaybackParameters;
 import com.google.android.exoplayer2.Timeline;
 import com.google.android.exoplayer2.source.TrackGroupArray;
 import com.google.android.exoplayer2.source.chunk.MediaChunk;
+import com.google.android.exoplayer2.source.dash.DashSegmentIndex;
+import com.google.android.exoplayer2.source.dash.manifest.AdaptationSet;
 import com.google.android.exoplayer2.source.dash.manifest.DashManifest;
+import com.google.android.exoplayer2.source.dash.manifest.Period;
 import com.google.android.exoplayer2.source.hls.HlsManifest;
 import com.google.android.exoplayer2.source.smoothstreaming.manifest.SsManifest;
 import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
@@ -27,7 +32,10 @@ import static java.lang.Math.min;
  * A default sample processor.
  */
 public class DefaultSampleProcessor implements SampleProcessor, SampleProcessor.Receiver,
-        ExoPlayer.EventListener, ManifestListener.ManifestRequestTimeReceiver {
+        SampleProcessor.BufferTargetReceiver, SampleProcessor.PlaybackSpeedReceiver,
+        ExoPlayer.EventListener,
+        ManifestListener.ManifestRequestTimeReceiver,
+        ManifestListener.ManifestTransferReceiver {
 
     /** A default throughput sample implementation. */
     public static class DefaultThroughputSample implements ThroughputSample {
@@ -72,10 +80,18 @@ public class DefaultSampleProcessor implements SampleProcessor, SampleProcessor.
     private LogBuilder logBuilder;
 
     private List<ThroughputSample> samples = new ArrayList<>();
-    private int maxBufferMs;
+    private List<SampleListener> sampleListeners = new ArrayList<>();
+    private volatile long maxBufferMs;
+    private long bufferForPlaybackMs;
+    private volatile float playbackSpeed = 1f;
+    private volatile float plannedPlaybackSpeed = 1f;
     private long mpdDurationMs = DATA_NOT_AVAILABLE;
+    private long nominalChunkDurationMs = C.TIME_UNSET;
     private long manifestRequestTime;
 
+    private long startupBitsTransferred;
+    private long startupDurationMs;
+
     private MediaChunk lastChunk;
 
     /**
@@ -87,7 +103,23 @@ public class DefaultSampleProcessor implements SampleProcessor, SampleProcessor.
      * @param logFile The file the log should be written to.
      */
     public DefaultSampleProcessor(int maxBufferMs, File logFile) {
-        this(maxBufferMs, new DefaultLogBuilder(logFile));
+        this(maxBufferMs, DefaultLoadControl.DEFAULT_BUFFER_FOR_PLAYBACK_MS,
+                logFile);
+    }
+
+    /**
+     * Creates a default {@link SampleProcessor} that uses a
+     * {@link DefaultLogBuilder} to build its log.
+     *
+     * @param maxBufferMs The maximum duration of media the player will
+     *        attempt to buffer.
+     * @param bufferForPlaybackMs The duration of media that must be
+     *        buffered for playback to start.
+     * @param logFile The file the log should be written to.
+     */
+    public DefaultSampleProcessor(int maxBufferMs, long bufferForPlaybackMs,
+                                  File logFile) {
+        this(maxBufferMs, bufferForPlaybackMs, new DefaultLogBuilder(logFile));
     }
 
     /**
@@ -99,7 +131,24 @@ public class DefaultSampleProcessor implements SampleProcessor, SampleProcessor.
      * @param builder The builder that should be used to build the log.
      */
     public DefaultSampleProcessor(int maxBufferMs, LogBuilder builder) {
+        this(maxBufferMs, DefaultLoadControl.DEFAULT_BUFFER_FOR_PLAYBACK_MS,
+                builder);
+    }
+
+    /**
+     * Creates a default {@link SampleProcessor} using a specific
+     * {@link LogBuilder}.
+     *
+     * @param maxBufferMs The maximum duration of media the player will
+     *        attempt to buffer.
+     * @param bufferForPlaybackMs The duration of media that must be
+     *        buffered for playback to start.
+     * @param builder The builder that should be used to build the log.
+     */
+    public DefaultSampleProcessor(int maxBufferMs, long bufferForPlaybackMs,
+                                  LogBuilder builder) {
         this.maxBufferMs = maxBufferMs;
+        this.bufferForPlaybackMs = bufferForPlaybackMs;
         logBuilder = builder;
     }
 
@@ -107,16 +156,38 @@ public class DefaultSampleProcessor implements SampleProcessor, SampleProcessor.
     public void sendSample(long elapsedRealtimeMs, long bitsTransferred,
                            long durationMs) {
         long arrivalTime = elapsedRealtimeMs - manifestRequestTime;
-        samples.add(
-                new DefaultThroughputSample(arrivalTime, bitsTransferred,
-                        durationMs)
-        );
+        ThroughputSample sample = new DefaultThroughputSample(arrivalTime,
+                bitsTransferred, durationMs);
+        samples.add(sample);
+        for (SampleListener listener : sampleListeners) {
+            listener.onSample(sample);
+        }
         Log.d(TAG,
                 String.format("New sample (index: %d, bits: %d, duration (ms): %d, throughput (kbps): %g)",
                         samples.size() - 1, bitsTransferred, durationMs,
                         lastSampleThroughput() / 1000));
     }
 
+    @Override
+    public void sendStartupSample(long bitsTransferred, long durationMs) {
+        startupBitsTransferred += bitsTransferred;
+        startupDurationMs += durationMs;
+        Log.d(TAG, String.format("New startup sample (bits: %d, duration (ms): %d, estimate (kbps): %g)",
+                bitsTransferred, durationMs, startupThroughput() / 1000));
+    }
+
+    @Override
+    public void giveMaxBufferMs(long maxBufferMs) {
+        this.maxBufferMs = maxBufferMs;
+    }
+
+    @Override
+    public void addSampleListener(SampleListener listener) {
+        if (!sampleListeners.contains(listener)) {
+            sampleListeners.add(listener);
+        }
+    }
+
     @Override
     public void writeSampleLog() {
         for (ThroughputSample sample : samples) {
@@ -134,6 +205,9 @@ public class DefaultSampleProcessor implements SampleProcessor, SampleProcessor.
     @Override
     public void clearSamples() {
         samples.clear();
+        for (SampleListener listener : sampleListeners) {
+            listener.onSamplesCleared();
+        }
     }
 
     @Override
@@ -151,14 +225,44 @@ public class DefaultSampleProcessor implements SampleProcessor, SampleProcessor.
         return mpdDurationMs;
     }
 
+    @Override
+    public float playbackSpeed() {
+        return Math.max(playbackSpeed, plannedPlaybackSpeed);
+    }
+
     @Override
     public long maxBufferMs() {
         return maxBufferMs;
     }
 
+    @Override
+    public long bufferForPlaybackMs() {
+        return bufferForPlaybackMs;
+    }
+
+    @Override
+    public long nominalChunkDurationMs() {
+        return nominalChunkDurationMs;
+    }
+
     @Override
     public boolean dataNotAvailable() {return samples.size() == 0;}
 
+    @Override
+    public boolean startupDataNotAvailable() {
+        return startupDurationMs <= 0;
+    }
+
+    @Override
+    public double startupThroughput() {
+        return (double) startupBitsTransferred * 1000 / startupDurationMs;
+    }
+
+    @Override
+    public boolean chunkDataNotAvailable() {
+        return lastChunk == null;
+    }
+
     @Override
     public boolean throughputIsDecreasing() {
         if (samples.size() < 2) {
@@ -325,6 +429,13 @@ public class DefaultSampleProcessor implements SampleProcessor, SampleProcessor.
         return values.size() * totalDeviation / (values.size() - 1);
     }
 
+    // PlaybackSpeedReceiver implementation
+
+    @Override
+    public void givePlannedPlaybackSpeed(float speed) {
+        plannedPlaybackSpeed = speed;
+    }
+
     // ManifestRequestTimeReceiver implementation
 
     @Override
@@ -332,6 +443,18 @@ public class DefaultSampleProcessor implements SampleProcessor, SampleProcessor.
         this.manifestRequestTime = manifestRequestTime;
     }
 
+    // ManifestTransferReceiver implementation
+
+    @Override
+    public void giveManifestTransfer(long elapsedRealtimeMs, long bytesTransferred,
+                                     long durationMs) {
+        // a live manifest keeps being refreshed, but only the transfers
+        // before any media say anything about startup
+        if (chunkDataNotAvailable()) {
+            sendStartupSample(bytesTransferred * 8, durationMs);
+        }
+    }
+
     // ExoPlayer EventListener implementation
 
     @Override
@@ -339,7 +462,9 @@ public class DefaultSampleProcessor implements SampleProcessor, SampleProcessor.
         if (manifest != null) {
             if (manifest instanceof DashManifest) {
                 DashManifest dashManifest = (DashManifest) manifest;
-                mpdDurationMs = dashManifest.duration;
+                mpdDurationMs = dashManifest.dynamic
+                        ? availableDurationMs(timeline) : dashManifest.duration;
+                nominalChunkDurationMs = nominalChunkDurationMs(dashManifest);
             } else if (manifest instanceof HlsManifest) {
                 HlsManifest hlsManifest = (HlsManifest) manifest;
                 mpdDurationMs = hlsManifest.mediaPlaylist.durationUs / 1000;
@@ -350,6 +475,48 @@ public class DefaultSampleProcessor implements SampleProcessor, SampleProcessor.
         }
     }
 
+    /**
+     * Finds the duration of the media a dynamic manifest currently makes
+     * available, which grows or slides along as the manifest is refreshed.
+     *
+     * @return The duration in ms, or {@link #DATA_NOT_AVAILABLE} if it
+     *         isn't known.
+     */
+    private static long availableDurationMs(Timeline timeline) {
+        if (timeline.getWindowCount() == 0) {
+            return DATA_NOT_AVAILABLE;
+        }
+        Timeline.Window window = timeline.getWindow(0, new Timeline.Window());
+        return window.durationUs == C.TIME_UNSET ? DATA_NOT_AVAILABLE : window.durationUs / 1000;
+    }
+
+    /**
+     * Finds the duration of the first segment in the first period of a
+     * manifest, or in the last period of a dynamic manifest, where new
+     * segments are added.
+     *
+     * @return The duration in ms, or {@link C#TIME_UNSET} if the manifest
+     *         doesn't index its segments.
+     */
+    private static long nominalChunkDurationMs(DashManifest manifest) {
+        if (manifest.getPeriodCount() == 0) {
+            return C.TIME_UNSET;
+        }
+        int periodIndex = manifest.dynamic ? manifest.getPeriodCount() - 1 : 0;
+        Period period = manifest.getPeriod(periodIndex);
+        for (AdaptationSet adaptationSet : period.adaptationSets) {
+            if (adaptationSet.representations.isEmpty()) {
+                continue;
+            }
+            DashSegmentIndex index = adaptationSet.representations.get(0).getIndex();
+            if (index != null) {
+                return index.getDurationUs(index.getFirstSegmentNum(),
+                        manifest.getPeriodDurationUs(periodIndex)) / 1000;
+            }
+        }
+        return C.TIME_UNSET;
+    }
+
     @Override
     public void onTracksChanged(TrackGroupArray trackGroups, TrackSelectionArray trackSelections) {}
 
@@ -366,5 +533,7 @@ public class DefaultSampleProcessor implements SampleProcessor, SampleProcessor.
     public void onPositionDiscontinuity() {}
 
     @Override
-    public void onPlaybackParametersChanged(PlaybackParameters playbackParameters) {}
+    public void onPlaybackParametersChanged(PlaybackParameters playbackParameters) {
+        playbackSpeed = playbackParameters.speed;
+    }
 }
@@ -0,0 +1,63 @@
+package com.example.mislplayer.sampling;
+
+/**
+ * Predicts the throughput using an exponentially weighted moving average
+ * of the samples.
+ *
+ * <p>The exponentially weighted variance is kept alongside the average,
+ * with the same weights, for algorithms which need to know how far the
+ * throughput strays from the prediction.
+ */
+public class EwmaPredictor implements ThroughputPredictor {
+
+    private final double weight;
+
+    private boolean hasSample;
+    private double average;
+    private double variance;
+
+    /**
+     * Creates an EWMA predictor.
+     *
+     * @param weight The weight given to each new sample, between 0 and 1.
+     */
+    public EwmaPredictor(double weight) {
+        this.weight = weight;
+    }
+
+    @Override
+    public void onSample(SampleProcessor.ThroughputSample sample) {
+        if (hasSample) {
+            double difference = sample.bitsPerSecond() - average;
+            average += weight * difference;
+            variance = (1 - weight) * (variance + weight * difference * difference);
+        } else {
+            average = sample.bitsPerSecond();
+            variance = 0;
+            hasSample = true;
+        }
+    }
+
+    @Override
+    public void onSamplesCleared() {
+        hasSample = false;
+    }
+
+    @Override
+    public boolean hasPrediction() {
+        return hasSample;
+    }
+
+    @Override
+    public double predictedThroughput() {
+        return average;
+    }
+
+    /**
+     * The exponentially weighted variance of the samples, in bps squared.
+     * It is 0 until a second sample has arrived.
+     */
+    public double variance() {
+        return variance;
+    }
+}
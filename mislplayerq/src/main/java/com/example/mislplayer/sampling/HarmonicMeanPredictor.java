@@ -0,0 +1,56 @@
+package com.example.mislplayer.sampling;
+
+/**
+ * Predicts the throughput using the harmonic average of the most recent
+ * samples.
+ *
+ * <p>The reciprocals of the samples in the window are kept in a ring, with
+ * a running sum, so each update takes constant time.
+ */
+public class HarmonicMeanPredictor implements ThroughputPredictor {
+
+    private final double[] reciprocals;
+
+    private int count;
+    private int next;
+    private double reciprocalSum;
+
+    /**
+     * Creates a harmonic mean predictor.
+     *
+     * @param window The number of recent samples to average over.
+     */
+    public HarmonicMeanPredictor(int window) {
+        reciprocals = new double[window];
+    }
+
+    @Override
+    public void onSample(SampleProcessor.ThroughputSample sample) {
+        double reciprocal = 1 / sample.bitsPerSecond();
+        if (count == reciprocals.length) {
+            reciprocalSum -= reciprocals[next];
+        } else {
+            count++;
+        }
+        reciprocals[next] = reciprocal;
+        reciprocalSum += reciprocal;
+        next = (next + 1) % reciprocals.length;
+    }
+
+    @Override
+    public void onSamplesCleared() {
+        count = 0;
+        next = 0;
+        reciprocalSum = 0;
+    }
+
+    @Override
+    public boolean hasPrediction() {
+        return count > 0;
+    }
+
+    @Override
+    public double predictedThroughput() {
+        return count / reciprocalSum;
+    }
+}
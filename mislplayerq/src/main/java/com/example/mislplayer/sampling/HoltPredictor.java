@@ -0,0 +1,64 @@
+package com.example.mislplayer.sampling;
+
+/**
+ * Predicts the throughput using Holt's double exponential smoothing, which
+ * follows both the level of the throughput and its trend.
+ */
+public class HoltPredictor implements ThroughputPredictor {
+
+    private final double levelWeight;
+    private final double trendWeight;
+
+    private int count;
+    private double level;
+    private double trend;
+
+    /**
+     * Creates a Holt predictor.
+     *
+     * @param levelWeight The smoothing factor for the level, between 0
+     *        and 1.
+     * @param trendWeight The smoothing factor for the trend, between 0
+     *        and 1.
+     */
+    public HoltPredictor(double levelWeight, double trendWeight) {
+        this.levelWeight = levelWeight;
+        this.trendWeight = trendWeight;
+    }
+
+    @Override
+    public void onSample(SampleProcessor.ThroughputSample sample) {
+        double value = sample.bitsPerSecond();
+        if (count == 0) {
+            level = value;
+            trend = 0;
+        } else if (count == 1) {
+            trend = value - level;
+            level = value;
+        } else {
+            double lastLevel = level;
+            level = levelWeight * value + (1 - levelWeight) * (level + trend);
+            trend = trendWeight * (level - lastLevel) + (1 - trendWeight) * trend;
+        }
+        count++;
+    }
+
+    @Override
+    public void onSamplesCleared() {
+        count = 0;
+    }
+
+    @Override
+    public boolean hasPrediction() {
+        return count > 0;
+    }
+
+    /**
+     * The one-step-ahead forecast of the throughput, in bps. A falling
+     * trend is not allowed to take the forecast below zero.
+     */
+    @Override
+    public double predictedThroughput() {
+        return Math.max(level + trend, 0);
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.mislplayer.sampling;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.exoplayer2.upstream.BandwidthMeter;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.TransferListener;
+import com.google.android.exoplayer2.util.SlidingPercentile;
+
+/**
+ * Estimates bandwidth from the transfers it listens to, counting only the
+ * time during which at least one transfer was active.
+ *
+ * <p>When the buffer is full, the player alternates between loading and
+ * waiting. Measuring over wall time would count the waiting as if the
+ * network had been slow. Instead, the intervals of overlapping transfers
+ * are merged, and only their union counts towards the duration. Transfers
+ * running in parallel are therefore measured together, rather than each
+ * taking the whole link's time for its own bytes.
+ *
+ * <p>A sample is taken whenever a transfer ends, covering the bytes and
+ * active time since the last one. As in ExoPlayer's
+ * {@code DefaultBandwidthMeter}, the estimate is the weighted median of
+ * recent samples, each weighted by the square root of its size, and is
+ * only given once enough data has been seen.
+ */
+public class IdleAwareBandwidthMeter implements BandwidthMeter, TransferListener<Object> {
+
+    /** The default maximum weight for the sliding window. */
+    public static final int DEFAULT_MAX_WEIGHT = 2000;
+
+    private static final String TAG = "IdleAwareBandwidthMeter";
+
+    private static final int ELAPSED_MILLIS_FOR_ESTIMATE = 2000;
+    private static final int BYTES_TRANSFERRED_FOR_ESTIMATE = 512 * 1024;
+
+    private final SlidingPercentile slidingPercentile;
+
+    private int activeTransfers;
+    private long activeSinceMs;
+    private long sampleActiveMs;
+    private long sampleBytes;
+    private long totalActiveMs;
+    private long totalBytes;
+    private long bitrateEstimate = NO_ESTIMATE;
+
+    /**
+     * Creates an IdleAwareBandwidthMeter with the default window weight.
+     */
+    public IdleAwareBandwidthMeter() {
+        this(DEFAULT_MAX_WEIGHT);
+    }
+
+    /**
+     * Creates an IdleAwareBandwidthMeter.
+     *
+     * @param maxWeight The maximum weight of the samples the estimate is
+     *                  taken from.
+     */
+    public IdleAwareBandwidthMeter(int maxWeight) {
+        this.slidingPercentile = new SlidingPercentile(maxWeight);
+    }
+
+    @Override
+    public synchronized long getBitrateEstimate() {
+        return bitrateEstimate;
+    }
+
+    // TransferListener implementation
+
+    @Override
+    public synchronized void onTransferStart(Object source, DataSpec dataSpec) {
+        if (activeTransfers++ == 0) {
+            activeSinceMs = SystemClock.elapsedRealtime();
+        }
+    }
+
+    @Override
+    public synchronized void onBytesTransferred(Object source, int bytesTransferred) {
+        sampleBytes += bytesTransferred;
+    }
+
+    @Override
+    public synchronized void onTransferEnd(Object source) {
+        if (activeTransfers == 0) {
+            return;
+        }
+
+        // close off the active time so far, which later transfers in the
+        // same merged interval carry on from
+        long nowMs = SystemClock.elapsedRealtime();
+        sampleActiveMs += nowMs - activeSinceMs;
+        activeSinceMs = nowMs;
+        activeTransfers--;
+
+        if (sampleActiveMs > 0 && sampleBytes > 0) {
+            float bitsPerSecond = sampleBytes * 8000f / sampleActiveMs;
+            slidingPercentile.addSample((int) Math.sqrt(sampleBytes), bitsPerSecond);
+            totalActiveMs += sampleActiveMs;
+            totalBytes += sampleBytes;
+            if (totalActiveMs >= ELAPSED_MILLIS_FOR_ESTIMATE
+                    || totalBytes >= BYTES_TRANSFERRED_FOR_ESTIMATE) {
+                float estimate = slidingPercentile.getPercentile(0.5f);
+                bitrateEstimate = Float.isNaN(estimate) ? NO_ESTIMATE : (long) estimate;
+            }
+            Log.d(TAG, String.format("Sample: %d bytes in %d active ms (%d kbps); estimate %d kbps",
+                    sampleBytes, sampleActiveMs, (long) bitsPerSecond / 1000,
+                    bitrateEstimate / 1000));
+            sampleBytes = 0;
+            sampleActiveMs = 0;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.mislplayer.sampling;
+
+/**
+ * Predicts the throughput using a scalar Kalman filter, which models the
+ * throughput as a random walk observed through noisy samples.
+ *
+ * <p>The filter works in Mbps, so the noise variances are given in
+ * Mbps&sup2;.
+ */
+public class KalmanPredictor implements ThroughputPredictor {
+
+    private final double processVariance;
+    private final double measurementVariance;
+
+    private boolean hasSample;
+    private double estimateMbps;
+    private double errorVariance;
+
+    /**
+     * Creates a Kalman filter predictor.
+     *
+     * @param processVariance How much the actual throughput is expected
+     *        to change between samples, as a variance in Mbps&sup2;.
+     * @param measurementVariance How noisy each sample is, as a variance in
+     *        Mbps&sup2;.
+     */
+    public KalmanPredictor(double processVariance, double measurementVariance) {
+        this.processVariance = processVariance;
+        this.measurementVariance = measurementVariance;
+    }
+
+    @Override
+    public void onSample(SampleProcessor.ThroughputSample sample) {
+        double measurementMbps = sample.bitsPerSecond() / 1E6;
+        if (!hasSample) {
+            estimateMbps = measurementMbps;
+            errorVariance = measurementVariance;
+            hasSample = true;
+            return;
+        }
+
+        double predictedVariance = errorVariance + processVariance;
+        double gain = predictedVariance / (predictedVariance + measurementVariance);
+        estimateMbps += gain * (measurementMbps - estimateMbps);
+        errorVariance = (1 - gain) * predictedVariance;
+    }
+
+    @Override
+    public void onSamplesCleared() {
+        hasSample = false;
+    }
+
+    @Override
+    public boolean hasPrediction() {
+        return hasSample;
+    }
+
+    @Override
+    public double predictedThroughput() {
+        return estimateMbps * 1E6;
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.mislplayer.sampling;
+
+/**
+ * Predicts that the throughput will be the same as in the most recent
+ * sample.
+ */
+public class LastSamplePredictor implements ThroughputPredictor {
+
+    private boolean hasSample;
+    private double lastThroughput;
+
+    @Override
+    public void onSample(SampleProcessor.ThroughputSample sample) {
+        lastThroughput = sample.bitsPerSecond();
+        hasSample = true;
+    }
+
+    @Override
+    public void onSamplesCleared() {
+        hasSample = false;
+    }
+
+    @Override
+    public boolean hasPrediction() {
+        return hasSample;
+    }
+
+    @Override
+    public double predictedThroughput() {
+        return lastThroughput;
+    }
+}
@@ -1,6 +1,7 @@
 package com.example.mislplayer.sampling;
 
 import com.example.mislplayer.trackselection.AlgorithmTrackSelection;
+import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.source.chunk.MediaChunk;
 
 import java.util.List;
@@ -32,6 +33,58 @@ public interface SampleProcessor {
 
         /** Give the sample processor the most-recently downloaded chunk. */
         void giveChunk(MediaChunk chunk);
+
+        /**
+         * Send a throughput sample taken before any media was loaded, such
+         * as for an initialization segment.
+         *
+         * @param bitsTransferred The number of bits transferred.
+         * @param durationMs The duration of the transfer, in ms.
+         */
+        void sendStartupSample(long bitsTransferred, long durationMs);
+    }
+
+    /**
+     * An interface for components which need to be told about each
+     * throughput sample as it arrives.
+     */
+    interface SampleListener {
+        /**
+         * Called when the sample processor receives a new throughput sample.
+         *
+         * @param sample The new sample.
+         */
+        void onSample(ThroughputSample sample);
+
+        /** Called when the sample processor's samples are cleared. */
+        void onSamplesCleared();
+    }
+
+    /**
+     * An interface for the sample processor to be told the buffer target
+     * when it changes during playback.
+     */
+    interface BufferTargetReceiver {
+        /**
+         * Give the receiver the maximum buffer length the player is now
+         * aiming for.
+         *
+         * @param maxBufferMs The maximum buffer length, in ms.
+         */
+        void giveMaxBufferMs(long maxBufferMs);
+    }
+
+    /**
+     * An interface for the sample processor to be told the speed a
+     * latency controller is about to play at, before the player does.
+     */
+    interface PlaybackSpeedReceiver {
+        /**
+         * Give the receiver the speed playback is about to change to.
+         *
+         * @param speed The planned playback speed, where 1 is real time.
+         */
+        void givePlannedPlaybackSpeed(float speed);
     }
 
     /** A sample of the available throughput. */
@@ -50,21 +103,67 @@ public interface SampleProcessor {
         double bitsPerSecond();
     }
 
+    /**
+     * Registers a listener to be told about each new throughput sample.
+     * Registering a listener more than once has no further effect.
+     *
+     * @param listener The listener to register.
+     */
+    void addSampleListener(SampleListener listener);
+
     /** Write to file a log of the samples recorded so far. */
     void writeSampleLog();
 
     /** Remove all existing samples from the store. */
     void clearSamples();
 
-    /** The duration of the current mpd, in ms. */
+    /**
+     * The duration of the current mpd, in ms. For a dynamic (live) mpd,
+     * this is the duration of the media it currently makes available.
+     */
     long mpdDuration();
 
+    /**
+     * The speed media is being consumed at: the faster of the speed the
+     * player is playing at and the speed it is about to play at. The
+     * throughput needed to keep up with a bitrate is multiplied by this.
+     */
+    float playbackSpeed();
+
     /** The current maximum buffer length the player is aiming for, in ms. */
     long maxBufferMs();
 
+    /**
+     * The duration of media the player needs buffered before playback can
+     * start, in ms.
+     */
+    long bufferForPlaybackMs();
+
+    /**
+     * The nominal duration of a chunk, as given by the manifest, in ms.
+     *
+     * @return The nominal chunk duration, or {@link C#TIME_UNSET} if it
+     *         isn't known.
+     */
+    long nominalChunkDurationMs();
+
     /** Indicates data is unavailable. */
     boolean dataNotAvailable();
 
+    /** Indicates no startup throughput samples are available. */
+    boolean startupDataNotAvailable();
+
+    /**
+     * An estimate of the throughput from the transfers made before any
+     * media was loaded: the manifest and initialization segments.
+     *
+     * @return The startup throughput estimate, in bps.
+     */
+    double startupThroughput();
+
+    /** Indicates no chunk has been downloaded yet. */
+    boolean chunkDataNotAvailable();
+
     /**
      * Whether the throughput is currently decreasing.
      *
@@ -0,0 +1,19 @@
+package com.example.mislplayer.sampling;
+
+/**
+ * Predicts the throughput available for the next download from the
+ * stream of throughput samples.
+ *
+ * <p>Predictors are updated incrementally as each sample arrives, so a
+ * prediction can be read without recalculating over past samples. A
+ * predictor should be registered with a {@link SampleProcessor} using
+ * {@link SampleProcessor#addSampleListener}.
+ */
+public interface ThroughputPredictor extends SampleProcessor.SampleListener {
+
+    /** Indicates whether enough samples have arrived to make a prediction. */
+    boolean hasPrediction();
+
+    /** The predicted throughput, in bps. */
+    double predictedThroughput();
+}
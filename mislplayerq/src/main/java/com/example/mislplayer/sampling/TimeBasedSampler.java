@@ -4,6 +4,7 @@ import android.os.Handler;
 import android.os.SystemClock;
 import android.util.Log;
 
+import com.google.android.exoplayer2.source.chunk.InitializationChunk;
 import com.google.android.exoplayer2.source.chunk.MediaChunk;
 import com.google.android.exoplayer2.upstream.DataSpec;
 import com.google.android.exoplayer2.upstream.TransferListener;
@@ -138,6 +139,11 @@ public class TimeBasedSampler implements TransferListener<Object>,
         sampleReceiver.giveChunk(chunk);
     }
 
+    @Override
+    public void sendStartupSample(long bitsTransferred, long durationMs) {
+        sampleReceiver.sendStartupSample(bitsTransferred, durationMs);
+    }
+
     // ChunkListener implementation
 
     /**
@@ -150,4 +156,9 @@ public class TimeBasedSampler implements TransferListener<Object>,
     public void giveLastChunk(MediaChunk lastChunk) {
         chunkSampler.giveLastChunk(lastChunk);
     }
+
+    @Override
+    public void giveInitializationChunk(InitializationChunk chunk) {
+        chunkSampler.giveInitializationChunk(chunk);
+    }
 }
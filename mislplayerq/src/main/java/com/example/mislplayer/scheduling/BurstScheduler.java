@@ -0,0 +1,54 @@
+package com.example.mislplayer.scheduling;
+
+import com.google.android.exoplayer2.trackselection.TrackSelection;
+
+/**
+ * Requests chunks in bursts (ON-OFF scheduling).
+ *
+ * <p>Once the buffer reaches a high watermark, requests stop until it
+ * drains to a low watermark, then requests continue back-to-back until the
+ * high watermark is reached again. The gap between the watermarks sets
+ * how long the radio can stay idle.
+ */
+public class BurstScheduler implements RequestScheduler {
+
+    private final long lowWatermarkMs;
+    private final long highWatermarkMs;
+
+    private boolean bursting = true;
+
+    /**
+     * @param lowWatermarkMs The buffer level at which a burst starts, in ms.
+     * @param highWatermarkMs The buffer level at which a burst stops, in ms.
+     */
+    public BurstScheduler(long lowWatermarkMs, long highWatermarkMs) {
+        if (lowWatermarkMs > highWatermarkMs) {
+            throw new IllegalArgumentException(
+                    "The low watermark must not be above the high watermark");
+        }
+        this.lowWatermarkMs = lowWatermarkMs;
+        this.highWatermarkMs = highWatermarkMs;
+    }
+
+    @Override
+    public boolean shouldStartRequest(long bufferedDurationUs, long nowMs) {
+        long bufferedDurationMs = bufferedDurationUs / 1000;
+        if (bursting && bufferedDurationMs >= highWatermarkMs) {
+            bursting = false;
+        } else if (!bursting && bufferedDurationMs <= lowWatermarkMs) {
+            bursting = true;
+        }
+        return bursting;
+    }
+
+    @Override
+    public void onRequestStarted(long nowMs) {}
+
+    @Override
+    public void onVideoTrackSelected(TrackSelection videoSelection) {}
+
+    @Override
+    public void reset() {
+        bursting = true;
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.mislplayer.scheduling;
+
+import com.example.mislplayer.sampling.SampleProcessor;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.trackselection.TrackSelection;
+
+/**
+ * Starts each request a fixed interval after the previous one.
+ *
+ * <p>The interval is either given, or is the duration of a chunk, so
+ * chunks are requested at the rate they are played.
+ */
+public class ChunkPacedScheduler implements RequestScheduler {
+
+    private final long intervalMs;
+    private final SampleProcessor sampleProcessor;
+
+    private long lastRequestMs = C.TIME_UNSET;
+
+    /**
+     * Creates a scheduler with a fixed interval.
+     *
+     * @param intervalMs The time between the starts of requests, in ms.
+     */
+    public ChunkPacedScheduler(long intervalMs) {
+        this.intervalMs = intervalMs;
+        this.sampleProcessor = null;
+    }
+
+    /**
+     * Creates a scheduler which paces requests by the chunk duration.
+     *
+     * @param sampleProcessor Provides the chunk duration.
+     */
+    public ChunkPacedScheduler(SampleProcessor sampleProcessor) {
+        this.intervalMs = C.TIME_UNSET;
+        this.sampleProcessor = sampleProcessor;
+    }
+
+    @Override
+    public boolean shouldStartRequest(long bufferedDurationUs, long nowMs) {
+        return lastRequestMs == C.TIME_UNSET || nowMs - lastRequestMs >= intervalMs();
+    }
+
+    @Override
+    public void onRequestStarted(long nowMs) {
+        lastRequestMs = nowMs;
+    }
+
+    @Override
+    public void onVideoTrackSelected(TrackSelection videoSelection) {}
+
+    @Override
+    public void reset() {
+        lastRequestMs = C.TIME_UNSET;
+    }
+
+    /** The time between the starts of requests, or 0 if it isn't known yet. */
+    private long intervalMs() {
+        if (sampleProcessor == null) {
+            return intervalMs;
+        } else if (!sampleProcessor.chunkDataNotAvailable()) {
+            return sampleProcessor.lastChunkDurationMs();
+        }
+        long nominalChunkDurationMs = sampleProcessor.nominalChunkDurationMs();
+        return nominalChunkDurationMs == C.TIME_UNSET ? 0 : nominalChunkDurationMs;
+    }
+}
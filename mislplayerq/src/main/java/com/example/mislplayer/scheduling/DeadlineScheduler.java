@@ -0,0 +1,79 @@
+package com.example.mislplayer.scheduling;
+
+import com.example.mislplayer.FutureChunkInfo;
+import com.example.mislplayer.PlayerActivity;
+import com.example.mislplayer.sampling.SampleProcessor;
+import com.example.mislplayer.sampling.ThroughputPredictor;
+import com.google.android.exoplayer2.trackselection.TrackSelection;
+
+/**
+ * Starts each request just in time for the next chunk to arrive before
+ * the buffer runs out.
+ *
+ * <p>The download time of the next chunk is estimated from its actual
+ * size in {@link FutureChunkInfo}, at the quality the video selection
+ * has chosen, and the throughput estimate. A request starts once the buffer has drained
+ * to that download time plus a safety margin.
+ */
+public class DeadlineScheduler implements RequestScheduler {
+
+    private final SampleProcessor sampleProcessor;
+    private final ThroughputPredictor throughputPredictor;
+    private final long safetyMarginMs;
+
+    private volatile TrackSelection videoSelection;
+
+    /**
+     * @param sampleProcessor Provides information about downloaded chunks.
+     * @param throughputPredictor Provides the throughput estimate. It will
+     *        be registered with the sample processor.
+     * @param safetyMarginMs The media which should still be buffered when
+     *        the next chunk arrives, in ms.
+     */
+    public DeadlineScheduler(SampleProcessor sampleProcessor,
+                             ThroughputPredictor throughputPredictor,
+                             long safetyMarginMs) {
+        this.sampleProcessor = sampleProcessor;
+        this.throughputPredictor = throughputPredictor;
+        this.safetyMarginMs = safetyMarginMs;
+        sampleProcessor.addSampleListener(throughputPredictor);
+    }
+
+    @Override
+    public boolean shouldStartRequest(long bufferedDurationUs, long nowMs) {
+        if (sampleProcessor.chunkDataNotAvailable() || !throughputPredictor.hasPrediction()) {
+            return true;
+        }
+        double downloadTimeMs = nextChunkBytes() * 8E3 / throughputPredictor.predictedThroughput();
+        return bufferedDurationUs / 1000 <= downloadTimeMs + safetyMarginMs;
+    }
+
+    @Override
+    public void onRequestStarted(long nowMs) {}
+
+    @Override
+    public void onVideoTrackSelected(TrackSelection videoSelection) {
+        this.videoSelection = videoSelection;
+    }
+
+    @Override
+    public void reset() {}
+
+    /**
+     * The size of the next video chunk at the selected quality, or the
+     * size of the last chunk if it isn't known.
+     */
+    private long nextChunkBytes() {
+        FutureChunkInfo chunkInfo = PlayerActivity.futureChunkInfo;
+        TrackSelection selection = videoSelection;
+        int nextChunkIndex = sampleProcessor.lastChunkIndex() + 1;
+        if (chunkInfo != null && selection != null
+                && chunkInfo.describes(selection.getTrackGroup())) {
+            int byteSize = chunkInfo.findByteSize(nextChunkIndex, selection.getSelectedIndex());
+            if (byteSize != FutureChunkInfo.SIZE_UNKNOWN) {
+                return byteSize;
+            }
+        }
+        return sampleProcessor.lastByteSize();
+    }
+}
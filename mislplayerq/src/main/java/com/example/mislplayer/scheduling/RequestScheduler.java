@@ -0,0 +1,42 @@
+package com.example.mislplayer.scheduling;
+
+import com.google.android.exoplayer2.trackselection.TrackSelection;
+
+/**
+ * Decides when the player should start requesting the next chunk.
+ *
+ * <p>Schedulers are consulted by a {@link ScheduledLoadControl} on the
+ * playback thread, each time the player checks whether it should continue
+ * loading, so they are driven by the time they're given rather than by
+ * timers of their own.
+ */
+public interface RequestScheduler {
+
+    /**
+     * Whether a new request should be started.
+     *
+     * @param bufferedDurationUs The duration of media currently buffered,
+     *        in microseconds.
+     * @param nowMs The current value of SystemClock#elapsedRealtime().
+     * @return true if a request may start now, false otherwise.
+     */
+    boolean shouldStartRequest(long bufferedDurationUs, long nowMs);
+
+    /**
+     * Called when the load control allows a request to start.
+     *
+     * @param nowMs The current value of SystemClock#elapsedRealtime().
+     */
+    void onRequestStarted(long nowMs);
+
+    /**
+     * Called when tracks are selected.
+     *
+     * @param videoSelection The selection of the video track, or null if
+     *        there is none.
+     */
+    void onVideoTrackSelected(TrackSelection videoSelection);
+
+    /** Clears any state, when the player is stopped or released. */
+    void reset();
+}
@@ -0,0 +1,120 @@
+package com.example.mislplayer.scheduling;
+
+import android.os.SystemClock;
+
+import com.example.mislplayer.ByteBudgetAllocator;
+import com.example.mislplayer.MislLoadControl;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Renderer;
+import com.google.android.exoplayer2.source.TrackGroupArray;
+import com.google.android.exoplayer2.trackselection.TrackSelection;
+import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
+
+/**
+ * A {@link MislLoadControl} which also asks a {@link RequestScheduler}
+ * whether loading should continue.
+ *
+ * <p>The scheduler is consulted on the playback thread, which polls the
+ * load control regularly, so no timers are needed on the main thread.
+ * Each time loading is allowed is treated as the start of a request.
+ */
+public class ScheduledLoadControl extends MislLoadControl {
+
+    private final RequestScheduler requestScheduler;
+
+    /**
+     * Creates a new ScheduledLoadControl with default buffer values.
+     *
+     * @param requestScheduler Decides when requests should start.
+     */
+    public ScheduledLoadControl(RequestScheduler requestScheduler) {
+        this(DEFAULT_MIN_BUFFER_MS,
+                DEFAULT_MAX_BUFFER_MS,
+                DEFAULT_BUFFER_FOR_PLAYBACK_MS,
+                DEFAULT_BUFFER_FOR_PLAYBACK_AFTER_REBUFFER_MS,
+                requestScheduler
+        );
+    }
+
+    /**
+     * Creates a new ScheduledLoadControl.
+     *
+     * @param minBufferMs The minimum duration of media that the player will attempt to ensure is
+     *     buffered at all times, in milliseconds.
+     * @param maxBufferMs The maximum duration of media that the player will attempt buffer, in
+     *     milliseconds.
+     * @param bufferForPlaybackMs The duration of media that must be buffered for playback to start or
+     *     resume following a user action such as a seek, in milliseconds.
+     * @param bufferForPlaybackAfterRebufferMs The default duration of media that must be buffered for
+     *     playback to resume after a rebuffer, in milliseconds. A rebuffer is defined to be caused by
+     *     buffer depletion rather than a user action.
+     * @param requestScheduler Decides when requests should start.
+     */
+    public ScheduledLoadControl(int minBufferMs, int maxBufferMs,
+                                long bufferForPlaybackMs, long bufferForPlaybackAfterRebufferMs,
+                                RequestScheduler requestScheduler) {
+        this(minBufferMs, maxBufferMs, bufferForPlaybackMs, bufferForPlaybackAfterRebufferMs,
+                requestScheduler, null);
+    }
+
+    /**
+     * Creates a new ScheduledLoadControl with a byte budget.
+     *
+     * @param minBufferMs The minimum duration of media that the player will attempt to ensure is
+     *     buffered at all times, in milliseconds.
+     * @param maxBufferMs The maximum duration of media that the player will attempt buffer, in
+     *     milliseconds.
+     * @param bufferForPlaybackMs The duration of media that must be buffered for playback to start or
+     *     resume following a user action such as a seek, in milliseconds.
+     * @param bufferForPlaybackAfterRebufferMs The default duration of media that must be buffered for
+     *     playback to resume after a rebuffer, in milliseconds. A rebuffer is defined to be caused by
+     *     buffer depletion rather than a user action.
+     * @param requestScheduler Decides when requests should start.
+     * @param byteBudgetAllocator The allocator to buffer media into, or null
+     *     for no byte budget.
+     */
+    public ScheduledLoadControl(int minBufferMs, int maxBufferMs,
+                                long bufferForPlaybackMs, long bufferForPlaybackAfterRebufferMs,
+                                RequestScheduler requestScheduler,
+                                ByteBudgetAllocator byteBudgetAllocator) {
+        super(minBufferMs, maxBufferMs, bufferForPlaybackMs, bufferForPlaybackAfterRebufferMs,
+                byteBudgetAllocator);
+        this.requestScheduler = requestScheduler;
+    }
+
+    @Override
+    public void onTracksSelected(Renderer[] renderers, TrackGroupArray trackGroups,
+                                 TrackSelectionArray trackSelections) {
+        super.onTracksSelected(renderers, trackGroups, trackSelections);
+        TrackSelection videoSelection = null;
+        for (int i = 0; i < renderers.length; i++) {
+            if (renderers[i].getTrackType() == C.TRACK_TYPE_VIDEO) {
+                videoSelection = trackSelections.get(i);
+            }
+        }
+        requestScheduler.onVideoTrackSelected(videoSelection);
+    }
+
+    @Override
+    public void onStopped() {
+        super.onStopped();
+        requestScheduler.reset();
+    }
+
+    @Override
+    public void onReleased() {
+        super.onReleased();
+        requestScheduler.reset();
+    }
+
+    @Override
+    public boolean shouldContinueLoading(long bufferedDurationUs) {
+        long nowMs = SystemClock.elapsedRealtime();
+        if (super.shouldContinueLoading(bufferedDurationUs)
+                && requestScheduler.shouldStartRequest(bufferedDurationUs, nowMs)) {
+            requestScheduler.onRequestStarted(nowMs);
+            return true;
+        }
+        return false;
+    }
+}
@@ -1,9 +1,15 @@
 package com.example.mislplayer.trackselection;
 
+import android.util.Log;
+
+import com.example.mislplayer.FutureChunkInfo;
 import com.example.mislplayer.PlayerActivity;
 import com.example.mislplayer.sampling.SampleProcessor;
+import com.example.mislplayer.sampling.ThroughputPredictor;
+import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.source.TrackGroup;
 import com.google.android.exoplayer2.trackselection.BaseTrackSelection;
+import com.google.android.exoplayer2.trackselection.TrackSelection;
 
 /**
  * A common superclass for track selections which implement an adaptation
@@ -13,12 +19,86 @@ public abstract class AlgorithmTrackSelection extends BaseTrackSelection {
 
     private final String TAG = "AlgorithmTrackSelection";
 
+    /** The index of the first chunk in a stream. */
+    protected static final int FIRST_CHUNK_INDEX = 1;
+
+    /** The chunk duration assumed when the manifest doesn't give one. */
+    private static final long DEFAULT_CHUNK_DURATION_MS = 4000;
+    /**
+     * The fraction of the startup throughput estimate the first chunks
+     * may use, to allow for the estimate being taken from small transfers.
+     */
+    private static final double STARTUP_SAFETY_FRACTION = 0.7;
+
     protected final SampleProcessor sampleProcessor;
+    protected final ThroughputPredictor throughputPredictor;
+
+    private BitrateBudget bitrateBudget;
 
     public AlgorithmTrackSelection(TrackGroup group, int[] tracks,
                                    SampleProcessor sampleProcessor) {
+        this(group, tracks, sampleProcessor, null);
+    }
+
+    /**
+     * @param group The {@link TrackGroup}.
+     * @param tracks The indices of the selected tracks within the
+     *        {@link TrackGroup}.
+     * @param sampleProcessor Provides information about throughput
+     *        samples to the algorithm.
+     * @param throughputPredictor Predicts the available throughput for
+     *        algorithms which need an estimate. May be null for algorithms
+     *        which don't.
+     */
+    public AlgorithmTrackSelection(TrackGroup group, int[] tracks,
+                                   SampleProcessor sampleProcessor,
+                                   ThroughputPredictor throughputPredictor) {
         super(group, tracks);
         this.sampleProcessor = sampleProcessor;
+        this.throughputPredictor = throughputPredictor;
+    }
+
+    /**
+     * Sets the budget this selection shares the throughput estimate
+     * through.
+     *
+     * @param bitrateBudget The budget, or null to use the whole estimate.
+     */
+    public void setBitrateBudget(BitrateBudget bitrateBudget) {
+        this.bitrateBudget = bitrateBudget;
+    }
+
+    /**
+     * Finds the part of a throughput estimate this selection may use,
+     * leaving room for other adaptation sets sharing the link, and
+     * allowing for media being played faster than real time.
+     *
+     * @param estimate The throughput estimate for the link, in bps.
+     * @param bufferedDurationUs The duration of media currently buffered
+     *        in microseconds.
+     * @return The throughput available to this selection, in bps.
+     */
+    protected double budgetedRate(double estimate, long bufferedDurationUs) {
+        double rate = bitrateBudget == null ? estimate
+                : bitrateBudget.allocate(this, estimate, bufferedDurationUs);
+        return sampleProcessor == null ? rate : rate / sampleProcessor.playbackSpeed();
+    }
+
+    /**
+     * Casts a track selection which is to be hosted or decorated by
+     * another selection.
+     *
+     * @param selection The track selection.
+     * @return The selection, as an AlgorithmTrackSelection.
+     * @throws IllegalArgumentException If the selection isn't an
+     *         AlgorithmTrackSelection.
+     */
+    static AlgorithmTrackSelection asAlgorithm(TrackSelection selection) {
+        if (!(selection instanceof AlgorithmTrackSelection)) {
+            throw new IllegalArgumentException(
+                    "Hosted track selections must be AlgorithmTrackSelections");
+        }
+        return (AlgorithmTrackSelection) selection;
     }
 
     public int lowestBitrate() {
@@ -37,6 +117,46 @@ public abstract class AlgorithmTrackSelection extends BaseTrackSelection {
         return 0;
     }
 
+    /**
+     * Finds the highest quality level at which playback can still start
+     * in time, based on the throughput of the manifest and initialization
+     * segment downloads.
+     *
+     * <p>The chunks needed to fill the playback start buffer must be
+     * downloadable within the duration of that buffer. If no startup
+     * estimate is available, the lowest quality level is used.
+     *
+     * @return The index of the quality level to start with.
+     */
+    public int initialSelectedIndex() {
+        if (sampleProcessor == null || sampleProcessor.startupDataNotAvailable()) {
+            return lowestBitrateIndex();
+        }
+
+        double usableRate = STARTUP_SAFETY_FRACTION
+                * budgetedRate(sampleProcessor.startupThroughput(), 0);
+        long deadlineMs = sampleProcessor.bufferForPlaybackMs();
+        long chunkDurationMs = sampleProcessor.nominalChunkDurationMs();
+        if (chunkDurationMs == C.TIME_UNSET || chunkDurationMs <= 0) {
+            chunkDurationMs = DEFAULT_CHUNK_DURATION_MS;
+        }
+        int chunksNeeded = (int) Math.max(1,
+                (deadlineMs + chunkDurationMs - 1) / chunkDurationMs);
+
+        for (int i = 0; i < length; i++) {
+            double startupBits = 0;
+            for (int j = 0; j < chunksNeeded; j++) {
+                startupBits += chunkSizeBits(FIRST_CHUNK_INDEX + j, i, chunkDurationMs);
+            }
+            if (startupBits * 1000 / usableRate <= deadlineMs) {
+                Log.d(TAG, String.format("Startup estimate = %g kbps, initial index = %d",
+                        sampleProcessor.startupThroughput() / 1000, i));
+                return i;
+            }
+        }
+        return lowestBitrateIndex();
+    }
+
     /**
      * Finds the index for the highest quality level below a target rate.
      *
@@ -68,13 +188,51 @@ public abstract class AlgorithmTrackSelection extends BaseTrackSelection {
                 "No track exists with that bitrate");
     }
 
-    public boolean SmartConvHelper(int qIndex, int videoWindow, double estRate) {
-        double totSegSize = 0;
-        for (int i = 0; i < videoWindow; i++)
+    /**
+     * Finds the index of the track the most recently downloaded chunk
+     * belongs to.
+     *
+     * @return The index of the track of the last chunk, or the currently
+     *         selected index if the last chunk belongs to another track.
+     */
+    public int lastChunkTrackIndex() {
+        int lastRate = sampleProcessor.lastRepLevel();
+        for (int i = 0; i < length; i++) {
+            if (getFormat(i).bitrate == lastRate) {
+                return i;
+            }
+        }
+        return getSelectedIndex();
+    }
 
-            totSegSize += PlayerActivity.futureChunkInfo.getByteSize(sampleProcessor.lastChunkIndex() + i, qIndex) * 8;
-        double actualAvgRate = totSegSize / (sampleProcessor.lastChunkDurationMs() / 1E3 * videoWindow);
+    /** The index of the next chunk to be downloaded. */
+    public int nextChunkIndex() {
+        if (sampleProcessor.chunkDataNotAvailable()) {
+            return FIRST_CHUNK_INDEX;
+        }
+        return sampleProcessor.lastChunkIndex() + 1;
+    }
 
-        return actualAvgRate <= estRate;
+    /**
+     * Finds the size of a chunk at a given quality level.
+     *
+     * <p>Uses the actual chunk size where it is known, and otherwise
+     * estimates it from the nominal bitrate of the track. Sizes are only
+     * known for the video tracks the chunk information describes.
+     *
+     * @param chunkIndex The index of the chunk within the data stream.
+     * @param trackIndex The index of the track.
+     * @param chunkDurationMs The duration of the chunk, in ms.
+     * @return The size of the chunk, in bits.
+     */
+    public double chunkSizeBits(int chunkIndex, int trackIndex, long chunkDurationMs) {
+        FutureChunkInfo chunkInfo = PlayerActivity.futureChunkInfo;
+        if (chunkInfo != null && chunkInfo.describes(getTrackGroup())) {
+            int byteSize = chunkInfo.findByteSize(chunkIndex, trackIndex);
+            if (byteSize != FutureChunkInfo.SIZE_UNKNOWN) {
+                return byteSize * 8.0;
+            }
+        }
+        return getFormat(trackIndex).bitrate * (chunkDurationMs / 1E3);
     }
 }
@@ -2,14 +2,17 @@ package com.example.mislplayer.trackselection;
 
 import android.util.Log;
 
+import com.example.mislplayer.sampling.LastSamplePredictor;
 import com.example.mislplayer.sampling.SampleProcessor;
+import com.example.mislplayer.sampling.ThroughputPredictor;
 import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.source.TrackGroup;
 import com.google.android.exoplayer2.trackselection.TrackSelection;
 
 /**
- * Selects adaptive media tracks by using the most recent throughput
- * sample as a bandwidth estimate.
+ * Selects adaptive media tracks by using a throughput prediction as a
+ * bandwidth estimate. By default, the prediction is the most recent
+ * throughput sample.
  */
 public class BasicTrackSelection extends AlgorithmTrackSelection {
 
@@ -19,26 +22,44 @@ public class BasicTrackSelection extends AlgorithmTrackSelection {
     public static final class Factory implements TrackSelection.Factory {
 
         private SampleProcessor sampleProcessor;
+        private ThroughputPredictor throughputPredictor;
 
         /**
-         * Creates a new BasicTrackSelection factory.
+         * Creates a new BasicTrackSelection factory, which uses the most
+         * recent throughput sample as a bandwidth estimate.
          *
          * @param sampleProcessor Provides information about throughput
          *        samples to the algorithm.
          */
         public Factory(SampleProcessor sampleProcessor) {
+            this(sampleProcessor, new LastSamplePredictor());
+        }
+
+        /**
+         * Creates a new BasicTrackSelection factory.
+         *
+         * @param sampleProcessor Provides information about throughput
+         *        samples to the algorithm.
+         * @param throughputPredictor Provides the bandwidth estimate. It
+         *        will be registered with the sample processor.
+         */
+        public Factory(SampleProcessor sampleProcessor,
+                       ThroughputPredictor throughputPredictor) {
             this.sampleProcessor = sampleProcessor;
+            this.throughputPredictor = throughputPredictor;
+            sampleProcessor.addSampleListener(throughputPredictor);
         }
 
         @Override
         public TrackSelection createTrackSelection(TrackGroup group, int... tracks) {
-            return new BasicTrackSelection(group, tracks, sampleProcessor);
+            return new BasicTrackSelection(group, tracks, sampleProcessor,
+                    throughputPredictor);
         }
     }
 
     private static final String TAG = "BasicTrackSelection";
 
-    private int selectedIndex = lowestBitrateIndex();
+    private int selectedIndex = initialSelectedIndex();
     private int selectionReason = C.SELECTION_REASON_INITIAL;
 
     /**
@@ -48,9 +69,11 @@ public class BasicTrackSelection extends AlgorithmTrackSelection {
      * @param tracks The indices of the selected tracks within the {@link TrackGroup}.
      * @param sampleProcessor Provides information about throughput
      *        samples to the algorithm.
+     * @param throughputPredictor Provides the bandwidth estimate.
      */
-    public BasicTrackSelection(TrackGroup group, int[] tracks, SampleProcessor sampleProcessor) {
-        super(group, tracks, sampleProcessor);
+    public BasicTrackSelection(TrackGroup group, int[] tracks, SampleProcessor sampleProcessor,
+                               ThroughputPredictor throughputPredictor) {
+        super(group, tracks, sampleProcessor, throughputPredictor);
     }
 
     @Override
@@ -70,12 +93,14 @@ public class BasicTrackSelection extends AlgorithmTrackSelection {
 
     @Override
     public void updateSelectedTrack(long bufferedDurationUs) {
-        if (sampleProcessor.dataNotAvailable()) {
+        if (!throughputPredictor.hasPrediction()) {
             Log.d(TAG, "No data available.");
+            selectedIndex = initialSelectedIndex();
         } else {
-            double throughputSample = sampleProcessor.lastSampleThroughput();
-            Log.d(TAG, String.format("Throughput sample (kbps): %g", throughputSample / 1000));
-            selectedIndex = findBestRateIndex(throughputSample);
+            double throughputEstimate = budgetedRate(
+                    throughputPredictor.predictedThroughput(), bufferedDurationUs);
+            Log.d(TAG, String.format("Throughput estimate (kbps): %g", throughputEstimate / 1000));
+            selectedIndex = findBestRateIndex(throughputEstimate);
             Log.d(TAG, String.format("Changed selected index to: %d", selectedIndex));
         }
     }
@@ -2,6 +2,7 @@ package com.example.mislplayer.trackselection;
 
 import android.util.Log;
 
+import com.example.mislplayer.FutureChunkInfo;
 import com.example.mislplayer.PlayerActivity;
 import com.example.mislplayer.sampling.SampleProcessor;
 import com.google.android.exoplayer2.C;
@@ -63,7 +64,7 @@ public class Bba2TrackSelection extends AlgorithmTrackSelection {
                               SampleProcessor sampleProcessor) {
         super(group, tracks, sampleProcessor);
 
-        selectedIndex = lowestBitrateIndex();
+        selectedIndex = initialSelectedIndex();
         Log.d(TAG, String.format("Initial selected index = %d", selectedIndex));
         reason = C.SELECTION_REASON_INITIAL;
     }
@@ -74,7 +75,7 @@ public class Bba2TrackSelection extends AlgorithmTrackSelection {
 
         int currentSelectedIndex = selectedIndex;
         if (sampleProcessor.dataNotAvailable()) {
-            selectedIndex = lowestBitrateIndex();
+            selectedIndex = initialSelectedIndex();
         } else if (lastChunkIndex != sampleProcessor.lastChunkIndex()) {
             selectedIndex = calculateSelectedIndex();
             Log.d(TAG, String.format("Selected index = %d", selectedIndex));
@@ -145,17 +146,23 @@ public class Bba2TrackSelection extends AlgorithmTrackSelection {
     }
 
     private int bba1UpdateResevoir(int lastRate, int lastRateIndex) {
-        long resvWin = min(2 * maxBufferMs / lastChunkDurationMs,
-                (sampleProcessor.mpdDuration() / lastChunkDurationMs) - lastChunkIndex);
+        FutureChunkInfo chunkInfo = PlayerActivity.futureChunkInfo;
+        long resvWin = min(2 * maxBufferMs / lastChunkDurationMs, chunksLeft(chunkInfo));
         long avgSegSize = (lastRate * lastChunkDurationMs) / 8000; //bytes
 
+        boolean sizesKnown = chunkInfo.describes(getTrackGroup());
         int largeChunks = 0;
         int smallChunks = 0;
         for (int i = 0; i < resvWin; i++) {
-            if (PlayerActivity.futureChunkInfo.getByteSize(lastChunkIndex + i, lastRateIndex) > avgSegSize)
-                largeChunks += PlayerActivity.futureChunkInfo.getByteSize(lastChunkIndex + i, lastRateIndex);
+            int byteSize = sizesKnown
+                    ? chunkInfo.findByteSize(lastChunkIndex + i, lastRateIndex)
+                    : FutureChunkInfo.SIZE_UNKNOWN;
+            if (byteSize == FutureChunkInfo.SIZE_UNKNOWN)
+                continue;
+            if (byteSize > avgSegSize)
+                largeChunks += byteSize;
             else
-                smallChunks += PlayerActivity.futureChunkInfo.getByteSize(lastChunkIndex + i, lastRateIndex);
+                smallChunks += byteSize;
 
         }
         double resevoir = 8 * ((largeChunks - smallChunks)) / (lastRate);
@@ -168,6 +175,18 @@ public class Bba2TrackSelection extends AlgorithmTrackSelection {
         return (int) resevoir;
     }
 
+    /**
+     * The number of chunks the reservoir may look ahead over: those up to
+     * the live edge for a live stream, or to the end of the media
+     * otherwise.
+     */
+    private long chunksLeft(FutureChunkInfo chunkInfo) {
+        if (chunkInfo.hasAvailableChunks()) {
+            return max(0, chunkInfo.lastAvailableChunkIndex() - lastChunkIndex);
+        }
+        return (sampleProcessor.mpdDuration() / lastChunkDurationMs) - lastChunkIndex;
+    }
+
     private int bba1VRAA(int lastRateIndex, int resevoir) {
         int rateUindex = max(lastRateIndex - 1, 0);
         int rateLindex = min(lastRateIndex + 1, tracks.length);
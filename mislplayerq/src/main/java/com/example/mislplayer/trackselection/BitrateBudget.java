@@ -0,0 +1,146 @@
+package com.example.mislplayer.trackselection;
+
+import android.util.Log;
+
+import com.example.mislplayer.sampling.SampleProcessor;
+import com.google.android.exoplayer2.source.TrackGroup;
+import com.google.android.exoplayer2.trackselection.TrackSelection;
+import com.google.android.exoplayer2.util.MimeTypes;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+/**
+ * Shares a throughput estimate between the track selections for
+ * different adaptation sets, such as audio and video.
+ *
+ * <p>{@link com.google.android.exoplayer2.trackselection.DefaultTrackSelector}
+ * creates a separate track selection for each renderer, so without
+ * coordination each one would assume it has the whole link to itself.
+ * Each track type is given a share of the estimate in proportion to its
+ * weight, boosted while its buffer is low, and no track type may use more
+ * than what's left after the bitrates the others have currently selected.
+ */
+public class BitrateBudget {
+
+    /** The weight given to track types without an explicit weight. */
+    private static final double DEFAULT_WEIGHT = 1;
+
+    private static final String TAG = "BitrateBudget";
+
+    private final SampleProcessor sampleProcessor;
+    private final Map<Integer, Double> weights = new HashMap<>();
+    private final Map<Integer, AlgorithmTrackSelection> selections = new HashMap<>();
+    private final Map<Integer, Long> bufferedDurationsUs = new HashMap<>();
+
+    /**
+     * @param sampleProcessor Provides the maximum buffer level, used to
+     *        judge how low each buffer is.
+     */
+    public BitrateBudget(SampleProcessor sampleProcessor) {
+        this.sampleProcessor = sampleProcessor;
+    }
+
+    /**
+     * Sets the weight for a track type.
+     *
+     * @param trackType The track type, one of the {@code C.TRACK_TYPE_*}
+     *        constants.
+     * @param weight The relative share of the estimate the track type
+     *        should get when buffers are equal.
+     * @return This budget, for convenience.
+     */
+    public BitrateBudget setWeight(int trackType, double weight) {
+        weights.put(trackType, weight);
+        return this;
+    }
+
+    /**
+     * Wraps a factory so the track selections it creates share this budget.
+     *
+     * @param factory The factory to wrap.
+     * @return A factory which registers the selections it creates.
+     */
+    public TrackSelection.Factory wrap(final TrackSelection.Factory factory) {
+        return new TrackSelection.Factory() {
+            @Override
+            public TrackSelection createTrackSelection(TrackGroup group, int... tracks) {
+                TrackSelection selection = factory.createTrackSelection(group, tracks);
+                if (selection instanceof AlgorithmTrackSelection) {
+                    register((AlgorithmTrackSelection) selection);
+                }
+                return selection;
+            }
+        };
+    }
+
+    /**
+     * Adds a track selection to the budget, replacing any earlier
+     * selection for the same track type.
+     *
+     * @param selection The selection to add.
+     */
+    public synchronized void register(AlgorithmTrackSelection selection) {
+        int trackType = trackType(selection);
+        selections.put(trackType, selection);
+        bufferedDurationsUs.remove(trackType);
+        selection.setBitrateBudget(this);
+        Log.d(TAG, String.format("Registered selection for track type %d", trackType));
+    }
+
+    /**
+     * Finds the part of a throughput estimate a track selection may use.
+     *
+     * @param selection The track selection asking for its allocation.
+     * @param estimate The throughput estimate for the link, in bps.
+     * @param bufferedDurationUs The duration of media currently buffered
+     *        for the selection, in microseconds.
+     * @return The throughput available to the selection, in bps.
+     */
+    public synchronized double allocate(AlgorithmTrackSelection selection,
+                                        double estimate, long bufferedDurationUs) {
+        int trackType = trackType(selection);
+        bufferedDurationsUs.put(trackType, bufferedDurationUs);
+        if (selections.size() < 2) {
+            return estimate;
+        }
+
+        double totalShare = 0;
+        double otherBitrates = 0;
+        for (Map.Entry<Integer, AlgorithmTrackSelection> entry : selections.entrySet()) {
+            totalShare += share(entry.getKey());
+            if (entry.getKey() != trackType) {
+                AlgorithmTrackSelection other = entry.getValue();
+                otherBitrates += other.getFormat(other.getSelectedIndex()).bitrate;
+            }
+        }
+
+        double weightedRate = estimate * share(trackType) / totalShare;
+        double remainingRate = max(0, estimate - otherBitrates);
+        return min(weightedRate, remainingRate);
+    }
+
+    /**
+     * The unnormalised share for a track type: its weight, boosted by up
+     * to double as its buffer empties.
+     */
+    private double share(int trackType) {
+        Double weight = weights.get(trackType);
+        double share = weight == null ? DEFAULT_WEIGHT : weight;
+
+        Long bufferedDurationUs = bufferedDurationsUs.get(trackType);
+        long maxBufferMs = sampleProcessor.maxBufferMs();
+        if (bufferedDurationUs != null && maxBufferMs > 0) {
+            double bufferFraction = min(1, bufferedDurationUs / 1E3 / maxBufferMs);
+            share *= 2 - bufferFraction;
+        }
+        return share;
+    }
+
+    private static int trackType(AlgorithmTrackSelection selection) {
+        return MimeTypes.getTrackType(selection.getFormat(0).sampleMimeType);
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.mislplayer.trackselection;
+
+import android.util.Log;
+
+import com.example.mislplayer.sampling.SampleProcessor;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.source.TrackGroup;
+import com.google.android.exoplayer2.trackselection.TrackSelection;
+
+import static java.lang.Math.max;
+
+/**
+ * Selects adaptive media tracks using the BOLA algorithm.
+ *
+ * <p>BOLA is buffer-based: for each chunk it selects the track which
+ * maximises (V * (utility + gp) - buffer level) / chunk size, so it
+ * doesn't need a throughput estimate once playback is under way. The actual size of the next chunk
+ * is used for each track where it is known, rather than its nominal
+ * bitrate.
+ */
+public class BolaTrackSelection extends AlgorithmTrackSelection {
+
+    /**
+     * Creates BolaTrackSelection instances.
+     */
+    public static final class Factory implements TrackSelection.Factory {
+
+        private final SampleProcessor sampleProcessor;
+
+        /**
+         * Creates a BolaTrackSelection factory.
+         *
+         * @param sampleProcessor Provides information about downloaded
+         *        chunks to the algorithm.
+         */
+        public Factory(SampleProcessor sampleProcessor) {
+            this.sampleProcessor = sampleProcessor;
+        }
+
+        @Override
+        public BolaTrackSelection createTrackSelection(TrackGroup group, int... tracks) {
+            return new BolaTrackSelection(group, tracks, sampleProcessor);
+        }
+    }
+
+    /** The buffer level BOLA aims to keep above, in seconds. */
+    private static final double MINIMUM_BUFFER_S = 10;
+    /** The extra buffer target needed for each quality level, in seconds. */
+    private static final double MINIMUM_BUFFER_PER_LEVEL_S = 2;
+
+    private static final String TAG = "BOLA";
+
+    /** The log-utility of each track, where the lowest track has utility 1. */
+    private final double[] utilities;
+
+    private int selectedIndex;
+    private int reason;
+
+    /**
+     * Creates a BolaTrackSelection.
+     *
+     * @param group The {@link TrackGroup}.
+     * @param tracks The indices of the selected tracks within the {@link TrackGroup}.
+     * @param sampleProcessor Provides information about downloaded chunks
+     *        to the algorithm.
+     */
+    public BolaTrackSelection(TrackGroup group, int[] tracks,
+                              SampleProcessor sampleProcessor) {
+        super(group, tracks, sampleProcessor);
+
+        utilities = new double[length];
+        double lowestBitrate = lowestBitrate();
+        for (int i = 0; i < length; i++) {
+            utilities[i] = Math.log(getFormat(i).bitrate / lowestBitrate) + 1;
+        }
+
+        selectedIndex = initialSelectedIndex();
+        Log.d(TAG, String.format("Initial selected index = %d", selectedIndex));
+        reason = C.SELECTION_REASON_INITIAL;
+    }
+
+    @Override
+    public void updateSelectedTrack(long bufferedDurationUs) {
+        int currentSelectedIndex = selectedIndex;
+        selectedIndex = calculateSelectedIndex(bufferedDurationUs);
+
+        if (selectedIndex != currentSelectedIndex) {
+            Log.d(TAG, String.format("Selected index = %d", selectedIndex));
+            reason = C.SELECTION_REASON_ADAPTIVE;
+        }
+    }
+
+    /**
+     * Uses the BOLA adaptation algorithm to find which track should be
+     * selected.
+     *
+     * @param bufferedDurationUs The duration of media currently buffered
+     *        in microseconds.
+     * @return The index of the track which should be selected.
+     */
+    private int calculateSelectedIndex(long bufferedDurationUs) {
+        if (length == 1) {
+            return 0;
+        } else if (sampleProcessor.chunkDataNotAvailable()) {
+            return initialSelectedIndex();
+        }
+
+        double bufferTargetS = max(sampleProcessor.maxBufferMs() / 1E3,
+                MINIMUM_BUFFER_S + MINIMUM_BUFFER_PER_LEVEL_S * length);
+        double gp = (utilities[highestBitrateIndex()] - 1)
+                / (bufferTargetS / MINIMUM_BUFFER_S - 1);
+        double vp = MINIMUM_BUFFER_S / gp;
+        double bufferedDurationS = bufferedDurationUs / 1E6;
+
+        long chunkDurationMs = sampleProcessor.lastChunkDurationMs();
+        int chunkIndex = nextChunkIndex();
+
+        int bestIndex = lowestBitrateIndex();
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < length; i++) {
+            double sizeBits = chunkSizeBits(chunkIndex, i, chunkDurationMs);
+            double score = (vp * (utilities[i] + gp) - bufferedDurationS) / sizeBits;
+            if (score > bestScore) {
+                bestScore = score;
+                bestIndex = i;
+            }
+        }
+        return bestIndex;
+    }
+
+    @Override
+    public int getSelectedIndex() {
+        return selectedIndex;
+    }
+
+    @Override
+    public int getSelectionReason() {
+        return reason;
+    }
+
+    @Override
+    public Object getSelectionData() {
+        return null;
+    }
+}
@@ -2,6 +2,8 @@ package com.example.mislplayer.trackselection;
 
 import android.util.Log;
 
+import com.example.mislplayer.sampling.SampleProcessor;
+import com.example.mislplayer.sampling.ThroughputPredictor;
 import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.source.TrackGroup;
 import com.google.android.exoplayer2.trackselection.TrackSelection;
@@ -11,6 +13,10 @@ import static com.google.android.exoplayer2.upstream.BandwidthMeter.NO_ESTIMATE;
 
 /**
  * Selects adaptive media tracks using the conventional algorithm.
+ *
+ * <p>The throughput estimate is taken either from a {@link BandwidthMeter},
+ * smoothed with an exponential average, or directly from a
+ * {@link ThroughputPredictor}.
  */
 public class DashTrackSelection extends AlgorithmTrackSelection {
 
@@ -20,6 +26,8 @@ public class DashTrackSelection extends AlgorithmTrackSelection {
     public static final class Factory implements TrackSelection.Factory {
 
         private final BandwidthMeter bandwidthMeter;
+        private final SampleProcessor sampleProcessor;
+        private final ThroughputPredictor throughputPredictor;
         private final double bandwidthFraction;
 
         /**
@@ -37,11 +45,34 @@ public class DashTrackSelection extends AlgorithmTrackSelection {
         public Factory(BandwidthMeter bandwidthMeter,
                        double bandwidthFraction) {
             this.bandwidthMeter = bandwidthMeter;
+            this.sampleProcessor = null;
+            this.throughputPredictor = null;
             this.bandwidthFraction = bandwidthFraction;
         }
 
+        /**
+         * @param sampleProcessor Provides throughput samples to the predictor.
+         * @param throughputPredictor Provides the throughput estimate. It
+         *        will be registered with the sample processor.
+         * @param bandwidthFraction The fraction of the available bandwidth
+         *        that the selection should consider available for use.
+         */
+        public Factory(SampleProcessor sampleProcessor,
+                       ThroughputPredictor throughputPredictor,
+                       double bandwidthFraction) {
+            this.bandwidthMeter = null;
+            this.sampleProcessor = sampleProcessor;
+            this.throughputPredictor = throughputPredictor;
+            this.bandwidthFraction = bandwidthFraction;
+            sampleProcessor.addSampleListener(throughputPredictor);
+        }
+
         @Override
         public DashTrackSelection createTrackSelection(TrackGroup group, int... tracks) {
+            if (throughputPredictor != null) {
+                return new DashTrackSelection(group, tracks, sampleProcessor,
+                        throughputPredictor, bandwidthFraction);
+            }
             return new DashTrackSelection(group, tracks, bandwidthMeter, bandwidthFraction);
         }
     }
@@ -71,7 +102,32 @@ public class DashTrackSelection extends AlgorithmTrackSelection {
         this.bandwidthMeter = bandwidthMeter;
         this.bandwidthFraction = bandwidthFraction;
 
-        selectedIndex = lowestBitrateIndex();
+        selectedIndex = initialSelectedIndex();
+        Log.d(TAG, String.format("Initial selected index = %d", selectedIndex));
+        reason = C.SELECTION_REASON_INITIAL;
+    }
+
+    /**
+     * Creates a new DashTrackSelection which uses a throughput predictor.
+     *
+     * @param group The {@link TrackGroup}.
+     * @param tracks The indices of the selected tracks within the {@link TrackGroup}. Must not be
+     *        empty. May be in any order.
+     * @param sampleProcessor Provides throughput samples to the predictor.
+     * @param throughputPredictor Provides the throughput estimate.
+     * @param bandwidthFraction The fraction of the available bandwidth
+     *        that the selection should consider available for use.
+     */
+    public DashTrackSelection(TrackGroup group, int[] tracks,
+                              SampleProcessor sampleProcessor,
+                              ThroughputPredictor throughputPredictor,
+                              double bandwidthFraction) {
+        super(group, tracks, sampleProcessor, throughputPredictor);
+
+        this.bandwidthMeter = null;
+        this.bandwidthFraction = bandwidthFraction;
+
+        selectedIndex = initialSelectedIndex();
         Log.d(TAG, String.format("Initial selected index = %d", selectedIndex));
         reason = C.SELECTION_REASON_INITIAL;
     }
@@ -79,7 +135,7 @@ public class DashTrackSelection extends AlgorithmTrackSelection {
     @Override
     public void updateSelectedTrack(long bufferedDurationUs) {
         int currentSelectedIndex = selectedIndex;
-        selectedIndex = calculateSelectedIndex();
+        selectedIndex = calculateSelectedIndex(bufferedDurationUs);
         Log.d(TAG, String.format("Selected index = %d", selectedIndex));
 
         if (selectedIndex != currentSelectedIndex) {
@@ -107,16 +163,27 @@ public class DashTrackSelection extends AlgorithmTrackSelection {
      * Uses a conventional algorithm to find which track should be
      * selected.
      *
+     * @param bufferedDurationUs The duration of media currently buffered
+     *        in microseconds.
      * @return The index of the track which should be selected.
      */
-    private int calculateSelectedIndex() {
+    private int calculateSelectedIndex(long bufferedDurationUs) {
+        if (throughputPredictor != null) {
+            if (!throughputPredictor.hasPrediction()) {
+                return initialSelectedIndex();
+            }
+            return findBestRateIndex(bandwidthFraction * budgetedRate(
+                    throughputPredictor.predictedThroughput(), bufferedDurationUs));
+        }
+
         long bitrateEstimate = bandwidthMeter.getBitrateEstimate();
 
         if (bitrateEstimate == NO_ESTIMATE) {
-            return lowestBitrateIndex();
+            return initialSelectedIndex();
         }
         networkRate = 0.2 * bitrateEstimate + 0.8 * networkRate;
-        double effectiveNetworkRate = bandwidthFraction * networkRate;
+        double effectiveNetworkRate = bandwidthFraction
+                * budgetedRate(networkRate, bufferedDurationUs);
 
         return findBestRateIndex(effectiveNetworkRate);
     }
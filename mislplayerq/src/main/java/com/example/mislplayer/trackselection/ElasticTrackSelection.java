@@ -2,7 +2,9 @@ package com.example.mislplayer.trackselection;
 
 import android.util.Log;
 
+import com.example.mislplayer.sampling.HarmonicMeanPredictor;
 import com.example.mislplayer.sampling.SampleProcessor;
+import com.example.mislplayer.sampling.ThroughputPredictor;
 import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.source.TrackGroup;
 import com.google.android.exoplayer2.trackselection.TrackSelection;
@@ -18,7 +20,7 @@ public class ElasticTrackSelection extends AlgorithmTrackSelection {
     public static final class Factory implements TrackSelection.Factory {
 
         private final SampleProcessor algorithmListener;
-        private final int elasticAverageWindow;
+        private final ThroughputPredictor throughputPredictor;
         private final double k_p;
         private final double k_i;
 
@@ -46,16 +48,35 @@ public class ElasticTrackSelection extends AlgorithmTrackSelection {
         public Factory(SampleProcessor sampleProcessor,
                        final int elasticAverageWindow, final double k_p,
                        final double k_i) {
+            this(sampleProcessor, new HarmonicMeanPredictor(elasticAverageWindow),
+                    k_p, k_i);
+        }
+
+        /**
+         * Creates an ElasticTrackSelection factory using a specific
+         * throughput predictor.
+         *
+         * @param sampleProcessor Provides information about throughput
+         *        samples to the algorithm.
+         * @param throughputPredictor Provides the throughput estimate. It
+         *        will be registered with the sample processor.
+         * @param k_p An algorithm constant.
+         * @param k_i An algorithm constant.
+         */
+        public Factory(SampleProcessor sampleProcessor,
+                       ThroughputPredictor throughputPredictor,
+                       final double k_p, final double k_i) {
             this.algorithmListener = sampleProcessor;
-            this.elasticAverageWindow = elasticAverageWindow;
+            this.throughputPredictor = throughputPredictor;
             this.k_p = k_p;
             this.k_i = k_i;
+            sampleProcessor.addSampleListener(throughputPredictor);
         }
 
         @Override
         public ElasticTrackSelection createTrackSelection(TrackGroup group, int... tracks) {
             return new ElasticTrackSelection(group, tracks, algorithmListener,
-                    elasticAverageWindow, k_p, k_i);
+                    throughputPredictor, k_p, k_i);
         }
 
     }
@@ -66,7 +87,6 @@ public class ElasticTrackSelection extends AlgorithmTrackSelection {
 
     private static final String TAG = "Elastic";
 
-    private final int elasticAverageWindow;
     private final double k_p;
     private final double k_i;
 
@@ -85,22 +105,20 @@ public class ElasticTrackSelection extends AlgorithmTrackSelection {
      *        {@link TrackGroup}. Must not be null or empty. May be in any order.
      * @param sampleProcessor Provides information about throughput
      *        samples to the algorithm.
-     * @param elasticAverageWindow The number of past throughput
-     *        samples to consider.
+     * @param throughputPredictor Provides the throughput estimate.
      * @param k_p An algorithm constant.
      * @param k_i An algorithm constant.
      */
     public ElasticTrackSelection(TrackGroup group, int[] tracks,
                                  SampleProcessor
                                          sampleProcessor,
-                                 int elasticAverageWindow, double k_p,
-                                 double k_i) {
-        super(group, tracks, sampleProcessor);
-        this.elasticAverageWindow = elasticAverageWindow;
+                                 ThroughputPredictor throughputPredictor,
+                                 double k_p, double k_i) {
+        super(group, tracks, sampleProcessor, throughputPredictor);
         this.k_p = k_p;
         this.k_i = k_i;
 
-        selectedIndex = lowestBitrateIndex();
+        selectedIndex = initialSelectedIndex();
         Log.d(TAG, String.format("Initial selected index = %d", selectedIndex));
         selectionReason = C.SELECTION_REASON_INITIAL;
     }
@@ -122,8 +140,8 @@ public class ElasticTrackSelection extends AlgorithmTrackSelection {
 
     @Override
     public void updateSelectedTrack(long bufferedDurationUs) {
-        if (sampleProcessor.dataNotAvailable()) {
-            selectedIndex = lowestBitrateIndex();
+        if (sampleProcessor.dataNotAvailable() || !throughputPredictor.hasPrediction()) {
+            selectedIndex = initialSelectedIndex();
         } else if (lastChunkIndex != sampleProcessor.lastChunkIndex()) {
             lastChunkIndex = sampleProcessor.lastChunkIndex();
             selectedIndex = calculateSelectedIndex(bufferedDurationUs);
@@ -141,7 +159,8 @@ public class ElasticTrackSelection extends AlgorithmTrackSelection {
      * @return The index of the track which should be selected.
      */
     private int calculateSelectedIndex(long bufferedDurationUs) {
-        double averageRateEstimate = sampleProcessor.sampleHarmonicAverage(elasticAverageWindow);
+        double averageRateEstimate = budgetedRate(
+                throughputPredictor.predictedThroughput(), bufferedDurationUs);
 
         final double downloadTimeS = sampleProcessor.lastSampleDurationMs() / 1E3;
         final double maxBufferS = sampleProcessor.maxBufferMs() / 1E3;
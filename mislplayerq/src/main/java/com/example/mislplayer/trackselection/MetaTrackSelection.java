@@ -0,0 +1,255 @@
+package com.example.mislplayer.trackselection;
+
+import android.util.Log;
+
+import com.example.mislplayer.sampling.SampleProcessor;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.source.TrackGroup;
+import com.google.android.exoplayer2.trackselection.TrackSelection;
+
+/**
+ * Selects adaptive media tracks by handing control to one of two hosted
+ * adaptation algorithms, depending on how volatile the throughput is.
+ *
+ * <p>Both algorithms see every update, so each keeps its own state and
+ * its shadow decision can be logged for comparison. When throughput has
+ * been volatile (its coefficient of variation is above a threshold) for a
+ * number of consecutive chunks, control passes to the volatile-regime
+ * algorithm, and likewise back to the stable-regime algorithm.
+ *
+ * <p>On a handover, a lower quality chosen by the new algorithm is
+ * applied at once, but a higher quality is approached one level per
+ * chunk, so a switch of algorithm can't by itself drain the buffer.
+ */
+public class MetaTrackSelection extends AlgorithmTrackSelection {
+
+    /**
+     * Creates MetaTrackSelection instances.
+     */
+    public static final class Factory implements TrackSelection.Factory {
+
+        private final SampleProcessor sampleProcessor;
+        private final TrackSelection.Factory stableFactory;
+        private final TrackSelection.Factory volatileFactory;
+        private final double cvThreshold;
+        private final int cvWindow;
+        private final int hysteresisChunks;
+
+        /**
+         * Creates a MetaTrackSelection factory which uses Elastic when
+         * throughput is stable and BBA2 when it is volatile.
+         *
+         * @param sampleProcessor Provides information about throughput
+         *        samples to the algorithm.
+         */
+        public Factory(SampleProcessor sampleProcessor) {
+            this(sampleProcessor, new ElasticTrackSelection.Factory(sampleProcessor),
+                    new Bba2TrackSelection.Factory(sampleProcessor));
+        }
+
+        /**
+         * Creates a MetaTrackSelection factory using default values.
+         *
+         * @param sampleProcessor Provides information about throughput
+         *        samples to the algorithm.
+         * @param stableFactory Creates the algorithm used while throughput
+         *        is stable.
+         * @param volatileFactory Creates the algorithm used while
+         *        throughput is volatile.
+         */
+        public Factory(SampleProcessor sampleProcessor,
+                       TrackSelection.Factory stableFactory,
+                       TrackSelection.Factory volatileFactory) {
+            this(sampleProcessor, stableFactory, volatileFactory,
+                    DEFAULT_CV_THRESHOLD, DEFAULT_CV_WINDOW,
+                    DEFAULT_HYSTERESIS_CHUNKS);
+        }
+
+        /**
+         * Creates a MetaTrackSelection factory by specifying the algorithm
+         * parameters.
+         *
+         * @param sampleProcessor Provides information about throughput
+         *        samples to the algorithm.
+         * @param stableFactory Creates the algorithm used while throughput
+         *        is stable. Must create {@link AlgorithmTrackSelection}s.
+         * @param volatileFactory Creates the algorithm used while
+         *        throughput is volatile. Must create
+         *        {@link AlgorithmTrackSelection}s.
+         * @param cvThreshold The coefficient of variation above which
+         *        throughput is considered volatile.
+         * @param cvWindow The number of past throughput samples to consider.
+         * @param hysteresisChunks The number of consecutive chunks a regime
+         *        must persist for before control is handed over.
+         */
+        public Factory(SampleProcessor sampleProcessor,
+                       TrackSelection.Factory stableFactory,
+                       TrackSelection.Factory volatileFactory,
+                       double cvThreshold, int cvWindow, int hysteresisChunks) {
+            this.sampleProcessor = sampleProcessor;
+            this.stableFactory = stableFactory;
+            this.volatileFactory = volatileFactory;
+            this.cvThreshold = cvThreshold;
+            this.cvWindow = cvWindow;
+            this.hysteresisChunks = hysteresisChunks;
+        }
+
+        @Override
+        public MetaTrackSelection createTrackSelection(TrackGroup group, int... tracks) {
+            return new MetaTrackSelection(group, tracks, sampleProcessor,
+                    asAlgorithm(stableFactory.createTrackSelection(group, tracks)),
+                    asAlgorithm(volatileFactory.createTrackSelection(group, tracks)),
+                    cvThreshold, cvWindow, hysteresisChunks);
+        }
+    }
+
+    private static final double DEFAULT_CV_THRESHOLD = 0.3;
+    private static final int DEFAULT_CV_WINDOW = 5;
+    private static final int DEFAULT_HYSTERESIS_CHUNKS = 3;
+
+    private static final String TAG = "MetaTrackSelection";
+
+    private final AlgorithmTrackSelection stableSelection;
+    private final AlgorithmTrackSelection volatileSelection;
+    private final double cvThreshold;
+    private final int cvWindow;
+    private final int hysteresisChunks;
+
+    private AlgorithmTrackSelection activeSelection;
+    private int lastChunkIndex;
+    private int regimeChunks;
+    private boolean handingOver;
+
+    private int selectedIndex;
+    private int reason;
+
+    /**
+     * Creates a MetaTrackSelection.
+     *
+     * @param group The {@link TrackGroup}.
+     * @param tracks The indices of the selected tracks within the {@link TrackGroup}.
+     * @param sampleProcessor Provides information about throughput
+     *        samples to the algorithm.
+     * @param stableSelection The algorithm used while throughput is stable.
+     * @param volatileSelection The algorithm used while throughput is
+     *        volatile.
+     * @param cvThreshold The coefficient of variation above which
+     *        throughput is considered volatile.
+     * @param cvWindow The number of past throughput samples to consider.
+     * @param hysteresisChunks The number of consecutive chunks a regime
+     *        must persist for before control is handed over.
+     */
+    public MetaTrackSelection(TrackGroup group, int[] tracks,
+                              SampleProcessor sampleProcessor,
+                              AlgorithmTrackSelection stableSelection,
+                              AlgorithmTrackSelection volatileSelection,
+                              double cvThreshold, int cvWindow,
+                              int hysteresisChunks) {
+        super(group, tracks, sampleProcessor);
+        this.stableSelection = stableSelection;
+        this.volatileSelection = volatileSelection;
+        this.cvThreshold = cvThreshold;
+        this.cvWindow = cvWindow;
+        this.hysteresisChunks = hysteresisChunks;
+
+        activeSelection = stableSelection;
+        selectedIndex = activeSelection.getSelectedIndex();
+        Log.d(TAG, String.format("Initial selected index = %d", selectedIndex));
+        reason = C.SELECTION_REASON_INITIAL;
+    }
+
+    @Override
+    public void setBitrateBudget(BitrateBudget bitrateBudget) {
+        super.setBitrateBudget(bitrateBudget);
+        stableSelection.setBitrateBudget(bitrateBudget);
+        volatileSelection.setBitrateBudget(bitrateBudget);
+    }
+
+    @Override
+    public void updateSelectedTrack(long bufferedDurationUs) {
+        stableSelection.updateSelectedTrack(bufferedDurationUs);
+        volatileSelection.updateSelectedTrack(bufferedDurationUs);
+
+        if (sampleProcessor.dataNotAvailable()
+                || lastChunkIndex == sampleProcessor.lastChunkIndex()) {
+            if (!handingOver && activeSelection.getSelectedIndex() != selectedIndex) {
+                selectedIndex = activeSelection.getSelectedIndex();
+                reason = C.SELECTION_REASON_ADAPTIVE;
+            }
+            return;
+        }
+        lastChunkIndex = sampleProcessor.lastChunkIndex();
+
+        Log.d(TAG, String.format("Shadow decisions: stable = %d, volatile = %d",
+                stableSelection.getSelectedIndex(),
+                volatileSelection.getSelectedIndex()));
+
+        updateRegime();
+
+        int currentSelectedIndex = selectedIndex;
+        selectedIndex = handOver(activeSelection.getSelectedIndex());
+
+        if (selectedIndex != currentSelectedIndex) {
+            Log.d(TAG, String.format("Selected index = %d", selectedIndex));
+            reason = C.SELECTION_REASON_ADAPTIVE;
+        }
+    }
+
+    /**
+     * Hands control to the other algorithm if the throughput regime has
+     * changed for long enough.
+     */
+    private void updateRegime() {
+        boolean isVolatile = sampleProcessor.sampleCV(cvWindow) > cvThreshold;
+        AlgorithmTrackSelection regimeSelection = isVolatile
+                ? volatileSelection : stableSelection;
+
+        if (regimeSelection == activeSelection) {
+            regimeChunks = 0;
+            return;
+        }
+
+        regimeChunks++;
+        if (regimeChunks >= hysteresisChunks) {
+            activeSelection = regimeSelection;
+            regimeChunks = 0;
+            handingOver = true;
+            Log.d(TAG, String.format("Throughput is %s, handing over to %s",
+                    isVolatile ? "volatile" : "stable",
+                    activeSelection.getClass().getSimpleName()));
+        }
+    }
+
+    /**
+     * Limits how quickly quality can increase after a handover.
+     *
+     * @param targetIndex The index chosen by the active algorithm.
+     * @return The index which should be selected.
+     */
+    private int handOver(int targetIndex) {
+        if (!handingOver || targetIndex >= selectedIndex) {
+            handingOver = false;
+            return targetIndex;
+        }
+        int nextIndex = selectedIndex - 1;
+        if (nextIndex == targetIndex) {
+            handingOver = false;
+        }
+        return nextIndex;
+    }
+
+    @Override
+    public int getSelectedIndex() {
+        return selectedIndex;
+    }
+
+    @Override
+    public int getSelectionReason() {
+        return reason;
+    }
+
+    @Override
+    public Object getSelectionData() {
+        return null;
+    }
+}
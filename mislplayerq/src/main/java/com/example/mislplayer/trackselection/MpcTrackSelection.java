@@ -0,0 +1,525 @@
+package com.example.mislplayer.trackselection;
+
+import android.util.Log;
+
+import com.example.mislplayer.sampling.HarmonicMeanPredictor;
+import com.example.mislplayer.sampling.SampleProcessor;
+import com.example.mislplayer.sampling.ThroughputPredictor;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.source.TrackGroup;
+import com.google.android.exoplayer2.trackselection.TrackSelection;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import static java.lang.Math.abs;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+/**
+ * Selects adaptive media tracks using model predictive control (MPC).
+ *
+ * <p>Each time a chunk is downloaded, the algorithm plans the qualities of
+ * the next few chunks, using their actual sizes and a throughput
+ * prediction (by default, a harmonic average of recent throughput
+ * samples), and selects the first step of the plan with
+ * the best predicted quality of experience.
+ *
+ * <p>The plan is found by a depth-first search over quality sequences,
+ * memoised on (step, buffer level bucket, last quality) and pruned with
+ * an upper bound on the utility still available. If a search overruns
+ * its CPU budget, the decision is taken from an optional precomputed
+ * {@link DecisionTable} instead, or failing that from the throughput
+ * estimate alone.
+ */
+public class MpcTrackSelection extends AlgorithmTrackSelection {
+
+    /**
+     * Creates MpcTrackSelection instances.
+     */
+    public static final class Factory implements TrackSelection.Factory {
+
+        private final SampleProcessor sampleProcessor;
+        private final ThroughputPredictor throughputPredictor;
+        private final int horizon;
+        private final long decisionBudgetUs;
+        private final DecisionTable decisionTable;
+
+        /**
+         * Creates an MpcTrackSelection factory using default values.
+         *
+         * @param sampleProcessor Provides information about throughput
+         *        samples to the algorithm.
+         */
+        public Factory(SampleProcessor sampleProcessor) {
+            this(sampleProcessor, DEFAULT_HORIZON, DEFAULT_THROUGHPUT_WINDOW,
+                    DEFAULT_DECISION_BUDGET_US, null);
+        }
+
+        /**
+         * Creates an MpcTrackSelection factory by specifying the algorithm
+         * parameters.
+         *
+         * @param sampleProcessor Provides information about throughput
+         *        samples to the algorithm.
+         * @param horizon The number of future chunks to plan for.
+         * @param throughputWindow The number of past throughput samples
+         *        to consider.
+         * @param decisionBudgetUs The maximum time a single decision may
+         *        spend searching, in microseconds.
+         * @param decisionTable A table of precomputed decisions to fall
+         *        back on if a search overruns its budget. May be null.
+         */
+        public Factory(SampleProcessor sampleProcessor, int horizon,
+                       int throughputWindow, long decisionBudgetUs,
+                       DecisionTable decisionTable) {
+            this(sampleProcessor, new HarmonicMeanPredictor(throughputWindow),
+                    horizon, decisionBudgetUs, decisionTable);
+        }
+
+        /**
+         * Creates an MpcTrackSelection factory using a specific throughput
+         * predictor.
+         *
+         * @param sampleProcessor Provides information about throughput
+         *        samples to the algorithm.
+         * @param throughputPredictor Provides the throughput estimate. It
+         *        will be registered with the sample processor.
+         * @param horizon The number of future chunks to plan for.
+         * @param decisionBudgetUs The maximum time a single decision may
+         *        spend searching, in microseconds.
+         * @param decisionTable A table of precomputed decisions to fall
+         *        back on if a search overruns its budget. May be null.
+         */
+        public Factory(SampleProcessor sampleProcessor,
+                       ThroughputPredictor throughputPredictor, int horizon,
+                       long decisionBudgetUs, DecisionTable decisionTable) {
+            this.sampleProcessor = sampleProcessor;
+            this.throughputPredictor = throughputPredictor;
+            this.horizon = horizon;
+            this.decisionBudgetUs = decisionBudgetUs;
+            this.decisionTable = decisionTable;
+            sampleProcessor.addSampleListener(throughputPredictor);
+        }
+
+        @Override
+        public MpcTrackSelection createTrackSelection(TrackGroup group, int... tracks) {
+            return new MpcTrackSelection(group, tracks, sampleProcessor,
+                    throughputPredictor, horizon, decisionBudgetUs, decisionTable);
+        }
+    }
+
+    /**
+     * A table of decisions precomputed offline, indexed by throughput,
+     * buffer level and last quality.
+     *
+     * <p>The table is built from nominal bitrates, so it can't account
+     * for variations in chunk size, but a decision can be looked up in
+     * constant time.
+     */
+    public static final class DecisionTable {
+
+        private static final int MAGIC = 0x4d504354; // "MPCT"
+
+        private final double throughputStepBps;
+        private final int throughputBuckets;
+        private final long bufferStepMs;
+        private final int bufferBuckets;
+        private final int qualities;
+        private final byte[] decisions;
+
+        /**
+         * Creates a decision table from existing decisions.
+         *
+         * @param throughputStepBps The width of a throughput bucket, in bps.
+         * @param throughputBuckets The number of throughput buckets.
+         * @param bufferStepMs The width of a buffer level bucket, in ms.
+         * @param bufferBuckets The number of buffer level buckets.
+         * @param qualities The number of quality levels.
+         * @param decisions The decisions, indexed by throughput bucket,
+         *        then buffer level bucket, then last quality.
+         */
+        public DecisionTable(double throughputStepBps, int throughputBuckets,
+                             long bufferStepMs, int bufferBuckets,
+                             int qualities, byte[] decisions) {
+            if (decisions.length != throughputBuckets * bufferBuckets * qualities) {
+                throw new IllegalArgumentException(
+                        "Decision table has the wrong number of entries");
+            }
+            this.throughputStepBps = throughputStepBps;
+            this.throughputBuckets = throughputBuckets;
+            this.bufferStepMs = bufferStepMs;
+            this.bufferBuckets = bufferBuckets;
+            this.qualities = qualities;
+            this.decisions = decisions;
+        }
+
+        /**
+         * Computes a decision table for a quality ladder. This is too slow
+         * to do while streaming, and is intended to be run offline.
+         *
+         * @param bitrates The bitrates of the quality levels in bps, from
+         *        highest to lowest.
+         * @param chunkDurationMs The duration of a chunk, in ms.
+         * @param maxBufferMs The maximum buffer level, in ms.
+         * @param horizon The number of future chunks to plan for.
+         * @param throughputStepBps The width of a throughput bucket, in bps.
+         * @param throughputBuckets The number of throughput buckets.
+         * @param bufferStepMs The width of a buffer level bucket, in ms.
+         * @return The computed decision table.
+         */
+        public static DecisionTable compute(int[] bitrates, long chunkDurationMs,
+                                            long maxBufferMs, int horizon,
+                                            double throughputStepBps,
+                                            int throughputBuckets,
+                                            long bufferStepMs) {
+            int bufferBuckets = (int) (maxBufferMs / bufferStepMs) + 1;
+            int qualities = bitrates.length;
+            byte[] decisions = new byte[throughputBuckets * bufferBuckets * qualities];
+            Planner planner = new Planner(bitrates, horizon, maxBufferMs);
+
+            for (int step = 0; step < horizon; step++) {
+                for (int q = 0; q < qualities; q++) {
+                    planner.setChunkSize(step, q, bitrates[q] * (chunkDurationMs / 1E3));
+                }
+            }
+
+            int entry = 0;
+            for (int t = 0; t < throughputBuckets; t++) {
+                double throughputBps = (t + 0.5) * throughputStepBps;
+                for (int b = 0; b < bufferBuckets; b++) {
+                    for (int last = 0; last < qualities; last++) {
+                        decisions[entry++] = (byte) planner.plan(throughputBps,
+                                b * bufferStepMs, last, chunkDurationMs,
+                                maxBufferMs, Long.MAX_VALUE);
+                    }
+                }
+            }
+            return new DecisionTable(throughputStepBps, throughputBuckets,
+                    bufferStepMs, bufferBuckets, qualities, decisions);
+        }
+
+        /**
+         * Reads a decision table previously written by {@link #write}.
+         *
+         * @param input The stream to read from.
+         * @return The decision table.
+         * @throws IOException If the table couldn't be read.
+         */
+        public static DecisionTable read(InputStream input) throws IOException {
+            DataInputStream in = new DataInputStream(input);
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not an MPC decision table");
+            }
+            double throughputStepBps = in.readDouble();
+            int throughputBuckets = in.readInt();
+            long bufferStepMs = in.readLong();
+            int bufferBuckets = in.readInt();
+            int qualities = in.readInt();
+            byte[] decisions = new byte[throughputBuckets * bufferBuckets * qualities];
+            in.readFully(decisions);
+            return new DecisionTable(throughputStepBps, throughputBuckets,
+                    bufferStepMs, bufferBuckets, qualities, decisions);
+        }
+
+        /**
+         * Writes the decision table to a stream.
+         *
+         * @param output The stream to write to.
+         * @throws IOException If the table couldn't be written.
+         */
+        public void write(OutputStream output) throws IOException {
+            DataOutputStream out = new DataOutputStream(output);
+            out.writeInt(MAGIC);
+            out.writeDouble(throughputStepBps);
+            out.writeInt(throughputBuckets);
+            out.writeLong(bufferStepMs);
+            out.writeInt(bufferBuckets);
+            out.writeInt(qualities);
+            out.write(decisions);
+            out.flush();
+        }
+
+        /**
+         * Looks up a decision.
+         *
+         * @param throughputBps The throughput estimate, in bps.
+         * @param bufferMs The buffer level, in ms.
+         * @param lastQuality The index of the last quality level.
+         * @return The index of the quality level to select.
+         */
+        public int lookup(double throughputBps, long bufferMs, int lastQuality) {
+            int t = min((int) (throughputBps / throughputStepBps), throughputBuckets - 1);
+            int b = min((int) (bufferMs / bufferStepMs), bufferBuckets - 1);
+            int last = min(max(lastQuality, 0), qualities - 1);
+            return decisions[(t * bufferBuckets + b) * qualities + last];
+        }
+    }
+
+    /**
+     * Searches for the best plan over a horizon of future chunks.
+     *
+     * <p>All working storage is allocated up front, so a search doesn't
+     * allocate. It is sized for buffer levels up to a capacity, and each
+     * search may use any maximum buffer level within it.
+     */
+    private static final class Planner {
+
+        private static final long BUFFER_STEP_MS = 500;
+        private static final double SWITCH_PENALTY = 1;
+
+        private final int horizon;
+        private final int qualities;
+        private final int bufferBuckets;
+        private final long bufferCapacityMs;
+
+        /** The utility of each quality level, in Mbps. */
+        private final double[] utilities;
+        private final double topUtility;
+        private final double rebufferPenaltyPerS;
+
+        private final double[][] sizeBits;
+        private final double[] memoValues;
+        private final int[] memoStamps;
+        private int stamp;
+
+        private double throughputBps;
+        private long chunkDurationMs;
+        private long maxBufferMs;
+        private long deadlineNs;
+        private int nodesVisited;
+        private boolean timedOut;
+        private int bestFirstQuality;
+
+        private Planner(int[] bitrates, int horizon, long bufferCapacityMs) {
+            this.horizon = horizon;
+            this.qualities = bitrates.length;
+            this.bufferCapacityMs = bufferCapacityMs;
+            this.bufferBuckets = (int) (bufferCapacityMs / BUFFER_STEP_MS) + 1;
+
+            utilities = new double[qualities];
+            double highest = 0;
+            for (int i = 0; i < qualities; i++) {
+                utilities[i] = bitrates[i] / 1E6;
+                highest = max(highest, utilities[i]);
+            }
+            topUtility = highest;
+            // a second of stalling costs as much as a chunk at the top quality
+            rebufferPenaltyPerS = highest;
+
+            sizeBits = new double[horizon][qualities];
+            memoValues = new double[horizon * bufferBuckets * qualities];
+            memoStamps = new int[memoValues.length];
+        }
+
+        private void setChunkSize(int step, int quality, double bits) {
+            sizeBits[step][quality] = bits;
+        }
+
+        /**
+         * Finds the first step of the best plan.
+         *
+         * @param maxBufferMs The maximum buffer level, in ms. Must be no
+         *        more than the planner's capacity.
+         * @return The index of the quality level to select, or
+         *         {@link C#INDEX_UNSET} if the search overran its deadline.
+         */
+        private int plan(double throughputBps, long bufferMs, int lastQuality,
+                         long chunkDurationMs, long maxBufferMs, long deadlineNs) {
+            this.throughputBps = throughputBps;
+            this.chunkDurationMs = chunkDurationMs;
+            this.maxBufferMs = maxBufferMs;
+            this.deadlineNs = deadlineNs;
+            nodesVisited = 0;
+            timedOut = false;
+            bestFirstQuality = qualities - 1;
+            if (++stamp == 0) {
+                Arrays.fill(memoStamps, 0);
+                stamp = 1;
+            }
+
+            search(0, bufferMs, lastQuality);
+            return timedOut ? C.INDEX_UNSET : bestFirstQuality;
+        }
+
+        private double search(int step, double bufferMs, int lastQuality) {
+            if (step == horizon) {
+                return 0;
+            }
+
+            int bucket = min((int) (bufferMs / BUFFER_STEP_MS), bufferBuckets - 1);
+            int memoIndex = (step * bufferBuckets + bucket) * qualities + lastQuality;
+            if (step > 0 && memoStamps[memoIndex] == stamp) {
+                return memoValues[memoIndex];
+            }
+
+            if ((++nodesVisited & 0x3f) == 0 && System.nanoTime() > deadlineNs) {
+                timedOut = true;
+            }
+            if (timedOut) {
+                return 0;
+            }
+
+            double best = Double.NEGATIVE_INFINITY;
+            int remainingSteps = horizon - step - 1;
+            for (int q = 0; q < qualities; q++) {
+                double downloadMs = sizeBits[step][q] * 1000 / throughputBps;
+                double rebufferMs = max(downloadMs - bufferMs, 0);
+                double nextBufferMs = min(max(bufferMs - downloadMs, 0) + chunkDurationMs,
+                        maxBufferMs);
+                double reward = utilities[q]
+                        - rebufferPenaltyPerS * rebufferMs / 1000
+                        - SWITCH_PENALTY * abs(utilities[q] - utilities[lastQuality]);
+
+                // the remaining steps can't earn more than the top utility each
+                if (reward + remainingSteps * topUtility <= best) {
+                    continue;
+                }
+
+                double value = reward + search(step + 1, nextBufferMs, q);
+                if (value > best) {
+                    best = value;
+                    if (step == 0) {
+                        bestFirstQuality = q;
+                    }
+                }
+            }
+
+            memoValues[memoIndex] = best;
+            memoStamps[memoIndex] = stamp;
+            return best;
+        }
+    }
+
+    private static final int DEFAULT_HORIZON = 5;
+    private static final int DEFAULT_THROUGHPUT_WINDOW = 5;
+    private static final long DEFAULT_DECISION_BUDGET_US = 2000;
+
+    private static final String TAG = "MPC";
+
+    private final int horizon;
+    private final long decisionBudgetUs;
+    private final DecisionTable decisionTable;
+    private final int[] bitrates;
+    private Planner planner;
+
+    private int lastChunkIndex;
+    private int selectedIndex;
+    private int reason;
+
+    /**
+     * Creates a new MpcTrackSelection.
+     *
+     * @param group The {@link TrackGroup}.
+     * @param tracks The indices of the selected tracks within the {@link TrackGroup}.
+     * @param sampleProcessor Provides information about throughput
+     *        samples to the algorithm.
+     * @param throughputPredictor Provides the throughput estimate.
+     * @param horizon The number of future chunks to plan for.
+     * @param decisionBudgetUs The maximum time a single decision may spend
+     *        searching, in microseconds.
+     * @param decisionTable A table of precomputed decisions to fall back on
+     *        if a search overruns its budget. May be null.
+     */
+    public MpcTrackSelection(TrackGroup group, int[] tracks,
+                             SampleProcessor sampleProcessor,
+                             ThroughputPredictor throughputPredictor, int horizon,
+                             long decisionBudgetUs, DecisionTable decisionTable) {
+        super(group, tracks, sampleProcessor, throughputPredictor);
+        this.horizon = horizon;
+        this.decisionBudgetUs = decisionBudgetUs;
+        this.decisionTable = decisionTable;
+
+        bitrates = new int[length];
+        for (int i = 0; i < length; i++) {
+            bitrates[i] = getFormat(i).bitrate;
+        }
+        planner = new Planner(bitrates, horizon, sampleProcessor.maxBufferMs());
+
+        selectedIndex = initialSelectedIndex();
+        Log.d(TAG, String.format("Initial selected index = %d", selectedIndex));
+        reason = C.SELECTION_REASON_INITIAL;
+    }
+
+    @Override
+    public void updateSelectedTrack(long bufferedDurationUs) {
+        int currentSelectedIndex = selectedIndex;
+        if (!throughputPredictor.hasPrediction() || sampleProcessor.chunkDataNotAvailable()) {
+            selectedIndex = initialSelectedIndex();
+        } else if (lastChunkIndex != sampleProcessor.lastChunkIndex()) {
+            lastChunkIndex = sampleProcessor.lastChunkIndex();
+            selectedIndex = calculateSelectedIndex(bufferedDurationUs);
+            Log.d(TAG, String.format("Selected index = %d", selectedIndex));
+        }
+
+        if (selectedIndex != currentSelectedIndex) {
+            reason = C.SELECTION_REASON_ADAPTIVE;
+        }
+    }
+
+    /**
+     * Uses model predictive control to find which track should be
+     * selected.
+     *
+     * @param bufferedDurationUs The duration of media currently buffered
+     *        in microseconds.
+     * @return The index of the track which should be selected.
+     */
+    private int calculateSelectedIndex(long bufferedDurationUs) {
+        double throughputEstimate = budgetedRate(
+                throughputPredictor.predictedThroughput(), bufferedDurationUs);
+        long chunkDurationMs = sampleProcessor.lastChunkDurationMs();
+        long bufferedDurationMs = bufferedDurationUs / 1000;
+        int lastIndex = lastChunkTrackIndex();
+
+        // the maximum buffer level can move with the load control's target
+        long maxBufferMs = sampleProcessor.maxBufferMs();
+        if (maxBufferMs > planner.bufferCapacityMs) {
+            planner = new Planner(bitrates, horizon, maxBufferMs);
+        }
+
+        int firstChunkIndex = nextChunkIndex();
+        for (int step = 0; step < horizon; step++) {
+            for (int q = 0; q < length; q++) {
+                planner.setChunkSize(step, q,
+                        chunkSizeBits(firstChunkIndex + step, q, chunkDurationMs));
+            }
+        }
+
+        long startNs = System.nanoTime();
+        int plannedIndex = planner.plan(throughputEstimate, bufferedDurationMs,
+                lastIndex, chunkDurationMs, maxBufferMs, startNs + decisionBudgetUs * 1000);
+        Log.d(TAG, String.format("Search took %d us, throughput estimate = %f kbps",
+                (System.nanoTime() - startNs) / 1000, throughputEstimate / 1000));
+
+        if (plannedIndex != C.INDEX_UNSET) {
+            return plannedIndex;
+        } else if (decisionTable != null) {
+            Log.d(TAG, "Search overran its budget, using decision table.");
+            return min(decisionTable.lookup(throughputEstimate, bufferedDurationMs, lastIndex),
+                    lowestBitrateIndex());
+        } else {
+            Log.d(TAG, "Search overran its budget, using throughput estimate.");
+            return findBestRateIndex(throughputEstimate);
+        }
+    }
+
+    @Override
+    public int getSelectedIndex() {
+        return selectedIndex;
+    }
+
+    @Override
+    public int getSelectionReason() {
+        return reason;
+    }
+
+    @Override
+    public Object getSelectionData() {
+        return null;
+    }
+}
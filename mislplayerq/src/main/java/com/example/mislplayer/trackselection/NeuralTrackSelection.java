@@ -0,0 +1,256 @@
+package com.example.mislplayer.trackselection;
+
+import android.util.Log;
+
+import com.example.mislplayer.sampling.SampleProcessor;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.source.TrackGroup;
+import com.google.android.exoplayer2.trackselection.TrackSelection;
+import com.google.android.exoplayer2.util.MimeTypes;
+
+/**
+ * Selects adaptive media tracks using a neural policy trained offline.
+ *
+ * <p>For each chunk, the {@link PolicyNetwork} is given:
+ * <ol>
+ *     <li>the most recent throughput samples, newest first, in Mbps (0
+ *     where there are fewer samples than the history length);</li>
+ *     <li>the buffer level, in units of 10 s;</li>
+ *     <li>the bitrate of the last chunk's track, as a fraction of the
+ *     highest bitrate;</li>
+ *     <li>the size of the next chunk for each track, highest bitrate
+ *     first, in MB.</li>
+ * </ol>
+ * It must have one output per track, highest bitrate first, and the track
+ * with the largest output is selected.
+ *
+ * <p>A policy is trained for one video quality ladder, so the factory only
+ * uses it for video groups it fits. Other groups, such as audio, are
+ * given a fallback selection.
+ */
+public class NeuralTrackSelection extends AlgorithmTrackSelection {
+
+    /**
+     * Creates NeuralTrackSelection instances.
+     */
+    public static final class Factory implements TrackSelection.Factory {
+
+        private final SampleProcessor sampleProcessor;
+        private final PolicyNetwork network;
+        private final ThroughputHistory throughputHistory;
+        private final TrackSelection.Factory fallbackFactory;
+
+        /**
+         * Creates a NeuralTrackSelection factory using the default history
+         * length, and a {@link BasicTrackSelection} as the fallback.
+         *
+         * @param sampleProcessor Provides information about throughput
+         *        samples to the algorithm.
+         * @param network The trained policy.
+         */
+        public Factory(SampleProcessor sampleProcessor, PolicyNetwork network) {
+            this(sampleProcessor, network, DEFAULT_HISTORY_LENGTH,
+                    new BasicTrackSelection.Factory(sampleProcessor));
+        }
+
+        /**
+         * Creates a NeuralTrackSelection factory.
+         *
+         * @param sampleProcessor Provides information about throughput
+         *        samples to the algorithm.
+         * @param network The trained policy.
+         * @param historyLength The number of past throughput samples the
+         *        policy was trained with.
+         * @param fallbackFactory Creates the selections for groups the
+         *        policy doesn't fit.
+         */
+        public Factory(SampleProcessor sampleProcessor, PolicyNetwork network,
+                       int historyLength, TrackSelection.Factory fallbackFactory) {
+            this.sampleProcessor = sampleProcessor;
+            this.network = network;
+            this.throughputHistory = new ThroughputHistory(historyLength);
+            this.fallbackFactory = fallbackFactory;
+            sampleProcessor.addSampleListener(throughputHistory);
+        }
+
+        @Override
+        public TrackSelection createTrackSelection(TrackGroup group, int... tracks) {
+            if (!MimeTypes.isVideo(group.getFormat(0).sampleMimeType)
+                    || network.inputSize() != throughputHistory.length() + 2 + tracks.length
+                    || network.outputSize() != tracks.length) {
+                Log.d(TAG, String.format("Policy doesn't fit a group of %d tracks; using the fallback",
+                        tracks.length));
+                return fallbackFactory.createTrackSelection(group, tracks);
+            }
+            return new NeuralTrackSelection(group, tracks, sampleProcessor,
+                    network, throughputHistory);
+        }
+    }
+
+    /**
+     * Keeps the most recent throughput samples in a fixed-size ring, so
+     * they can be copied into the network's input without allocating.
+     */
+    public static final class ThroughputHistory implements SampleProcessor.SampleListener {
+
+        private final float[] samplesMbps;
+        private int count;
+        private int next;
+
+        /**
+         * @param length The number of samples to keep.
+         */
+        public ThroughputHistory(int length) {
+            samplesMbps = new float[length];
+        }
+
+        /** The number of samples kept. */
+        public int length() {
+            return samplesMbps.length;
+        }
+
+        /**
+         * Copies the samples into an array, newest first, padding with 0
+         * if there aren't enough samples.
+         *
+         * @param destination The array to copy into.
+         * @param offset The position in the array to start at.
+         */
+        public void copyTo(float[] destination, int offset) {
+            for (int i = 0; i < samplesMbps.length; i++) {
+                if (i < count) {
+                    int index = (next - 1 - i + samplesMbps.length) % samplesMbps.length;
+                    destination[offset + i] = samplesMbps[index];
+                } else {
+                    destination[offset + i] = 0;
+                }
+            }
+        }
+
+        @Override
+        public void onSample(SampleProcessor.ThroughputSample sample) {
+            samplesMbps[next] = (float) (sample.bitsPerSecond() / 1E6);
+            next = (next + 1) % samplesMbps.length;
+            if (count < samplesMbps.length) {
+                count++;
+            }
+        }
+
+        @Override
+        public void onSamplesCleared() {
+            count = 0;
+            next = 0;
+        }
+    }
+
+    private static final int DEFAULT_HISTORY_LENGTH = 8;
+    /** The buffer level which is given to the policy as 1, in seconds. */
+    private static final double BUFFER_SCALE_S = 10;
+    /** The inference time above which a warning is logged, in ns. */
+    private static final long INFERENCE_BUDGET_NS = 100_000;
+
+    private static final String TAG = "NeuralTrackSelection";
+
+    private final PolicyNetwork network;
+    private final ThroughputHistory throughputHistory;
+    private final float[] input;
+
+    private int lastChunkIndex;
+    private int selectedIndex;
+    private int reason;
+
+    /**
+     * Creates a NeuralTrackSelection.
+     *
+     * @param group The {@link TrackGroup}.
+     * @param tracks The indices of the selected tracks within the {@link TrackGroup}.
+     * @param sampleProcessor Provides information about throughput
+     *        samples to the algorithm.
+     * @param network The trained policy.
+     * @param throughputHistory Keeps the recent throughput samples. Must be
+     *        registered with the sample processor.
+     */
+    public NeuralTrackSelection(TrackGroup group, int[] tracks,
+                                SampleProcessor sampleProcessor,
+                                PolicyNetwork network,
+                                ThroughputHistory throughputHistory) {
+        super(group, tracks, sampleProcessor);
+        this.network = network;
+        this.throughputHistory = throughputHistory;
+
+        int inputSize = throughputHistory.length() + 2 + length;
+        if (network.inputSize() != inputSize || network.outputSize() != length) {
+            throw new IllegalArgumentException(String.format(
+                    "Policy network has %d inputs and %d outputs, but %d and %d are needed",
+                    network.inputSize(), network.outputSize(), inputSize, length));
+        }
+        input = new float[inputSize];
+
+        selectedIndex = initialSelectedIndex();
+        Log.d(TAG, String.format("Initial selected index = %d", selectedIndex));
+        reason = C.SELECTION_REASON_INITIAL;
+    }
+
+    @Override
+    public void updateSelectedTrack(long bufferedDurationUs) {
+        int currentSelectedIndex = selectedIndex;
+        if (sampleProcessor.dataNotAvailable() || sampleProcessor.chunkDataNotAvailable()) {
+            selectedIndex = initialSelectedIndex();
+        } else if (lastChunkIndex != sampleProcessor.lastChunkIndex()) {
+            lastChunkIndex = sampleProcessor.lastChunkIndex();
+
+            long startNs = System.nanoTime();
+            selectedIndex = calculateSelectedIndex(bufferedDurationUs);
+            long inferenceNs = System.nanoTime() - startNs;
+
+            Log.d(TAG, String.format("Selected index = %d (%d us)",
+                    selectedIndex, inferenceNs / 1000));
+            if (inferenceNs > INFERENCE_BUDGET_NS) {
+                Log.w(TAG, "Inference took longer than its budget.");
+            }
+        }
+
+        if (selectedIndex != currentSelectedIndex) {
+            reason = C.SELECTION_REASON_ADAPTIVE;
+        }
+    }
+
+    /**
+     * Fills in the policy's input and evaluates it.
+     *
+     * @param bufferedDurationUs The duration of media currently buffered
+     *        in microseconds.
+     * @return The index of the track which should be selected.
+     */
+    private int calculateSelectedIndex(long bufferedDurationUs) {
+        int position = 0;
+        throughputHistory.copyTo(input, position);
+        position += throughputHistory.length();
+
+        input[position++] = (float) (bufferedDurationUs / 1E6 / BUFFER_SCALE_S);
+        input[position++] = (float) getFormat(lastChunkTrackIndex()).bitrate / highestBitrate();
+
+        int chunkIndex = nextChunkIndex();
+        long chunkDurationMs = sampleProcessor.lastChunkDurationMs();
+        for (int i = 0; i < length; i++) {
+            input[position++] = (float) (chunkSizeBits(chunkIndex, i, chunkDurationMs) / 8E6);
+        }
+
+        return network.evaluateArgMax(input);
+    }
+
+    @Override
+    public int getSelectedIndex() {
+        return selectedIndex;
+    }
+
+    @Override
+    public int getSelectionReason() {
+        return reason;
+    }
+
+    @Override
+    public Object getSelectionData() {
+        return null;
+    }
+}
@@ -0,0 +1,141 @@
+package com.example.mislplayer.trackselection;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A small fully-connected neural network, evaluated on the CPU.
+ *
+ * <p>Hidden layers use ReLU activations and the output layer is linear.
+ * All buffers are allocated when the network is loaded, so evaluating it
+ * doesn't allocate.
+ *
+ * <p>Networks are read from a binary format, in big-endian order: the
+ * magic number {@code 0x4d4c5031} ("MLP1"), the number of layers, then
+ * for each layer its number of inputs and outputs, its weights (one row
+ * of inputs per output) and its biases, all as 32-bit values.
+ */
+public final class PolicyNetwork {
+
+    private static final int MAGIC = 0x4d4c5031; // "MLP1"
+    private static final int MAX_LAYER_SIZE = 4096;
+
+    private final int[] inputSizes;
+    private final int[] outputSizes;
+    private final float[][] weights;
+    private final float[][] biases;
+    private final float[][] activations;
+
+    private PolicyNetwork(int[] inputSizes, int[] outputSizes,
+                          float[][] weights, float[][] biases) {
+        this.inputSizes = inputSizes;
+        this.outputSizes = outputSizes;
+        this.weights = weights;
+        this.biases = biases;
+
+        activations = new float[outputSizes.length][];
+        for (int i = 0; i < outputSizes.length; i++) {
+            activations[i] = new float[outputSizes[i]];
+        }
+    }
+
+    /**
+     * Reads a network from a stream.
+     *
+     * @param inputStream The stream to read. It isn't closed.
+     * @return The network.
+     * @throws IOException If the stream can't be read, or doesn't hold a
+     *         valid network.
+     */
+    public static PolicyNetwork read(InputStream inputStream) throws IOException {
+        DataInputStream input = new DataInputStream(inputStream);
+        if (input.readInt() != MAGIC) {
+            throw new IOException("Not a policy network");
+        }
+        int layerCount = input.readInt();
+        if (layerCount < 1) {
+            throw new IOException("Policy network has no layers");
+        }
+
+        int[] inputSizes = new int[layerCount];
+        int[] outputSizes = new int[layerCount];
+        float[][] weights = new float[layerCount][];
+        float[][] biases = new float[layerCount][];
+        for (int layer = 0; layer < layerCount; layer++) {
+            inputSizes[layer] = input.readInt();
+            outputSizes[layer] = input.readInt();
+            if (inputSizes[layer] < 1 || inputSizes[layer] > MAX_LAYER_SIZE
+                    || outputSizes[layer] < 1 || outputSizes[layer] > MAX_LAYER_SIZE) {
+                throw new IOException("Policy network layer has an invalid size");
+            }
+            if (layer > 0 && inputSizes[layer] != outputSizes[layer - 1]) {
+                throw new IOException("Policy network layers don't match");
+            }
+
+            weights[layer] = new float[inputSizes[layer] * outputSizes[layer]];
+            for (int i = 0; i < weights[layer].length; i++) {
+                weights[layer][i] = input.readFloat();
+            }
+            biases[layer] = new float[outputSizes[layer]];
+            for (int i = 0; i < biases[layer].length; i++) {
+                biases[layer][i] = input.readFloat();
+            }
+        }
+        return new PolicyNetwork(inputSizes, outputSizes, weights, biases);
+    }
+
+    /** The number of inputs the network takes. */
+    public int inputSize() {
+        return inputSizes[0];
+    }
+
+    /** The number of outputs the network gives. */
+    public int outputSize() {
+        return outputSizes[outputSizes.length - 1];
+    }
+
+    /**
+     * Evaluates the network.
+     *
+     * @param input The input values. Must have {@link #inputSize()} values.
+     * @return The output values. The array belongs to the network, and is
+     *         overwritten by the next evaluation.
+     */
+    public float[] evaluate(float[] input) {
+        float[] layerInput = input;
+        int lastLayer = outputSizes.length - 1;
+        for (int layer = 0; layer <= lastLayer; layer++) {
+            float[] layerWeights = weights[layer];
+            float[] layerOutput = activations[layer];
+            int inputs = inputSizes[layer];
+
+            for (int out = 0, row = 0; out < layerOutput.length; out++, row += inputs) {
+                float sum = biases[layer][out];
+                for (int in = 0; in < inputs; in++) {
+                    sum += layerWeights[row + in] * layerInput[in];
+                }
+                layerOutput[out] = layer == lastLayer || sum > 0 ? sum : 0;
+            }
+            layerInput = layerOutput;
+        }
+        return layerInput;
+    }
+
+    /**
+     * Evaluates the network and finds its largest output.
+     *
+     * @param input The input values. Must have {@link #inputSize()} values.
+     * @return The index of the largest output.
+     */
+    public int evaluateArgMax(float[] input) {
+        float[] output = evaluate(input);
+        int best = 0;
+        for (int i = 1; i < output.length; i++) {
+            if (output[i] > output[best]) {
+                best = i;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.mislplayer.trackselection;
+
+import android.util.Log;
+
+import com.example.mislplayer.FutureChunkInfo;
+import com.example.mislplayer.PlayerActivity;
+import com.google.android.exoplayer2.source.TrackGroup;
+import com.google.android.exoplayer2.trackselection.TrackSelection;
+
+/**
+ * Adjusts the decisions of another adaptation algorithm using per-chunk
+ * quality scores.
+ *
+ * <p>If stepping down from the selected quality level would lose less than
+ * a minimum quality gain, averaged over the next few chunks, the lower
+ * level is used instead. For static or simple scenes, where the higher
+ * levels look no better, this saves bytes without visibly lowering
+ * quality. Chunks without quality scores are left as they are.
+ *
+ * <p>By default, the minimum gain depends on the metric the scores are
+ * given in, since a gain which is negligible in PSNR or VMAF is larger
+ * than the whole range of SSIM. If the metric isn't known, the decisions
+ * aren't adjusted.
+ */
+public class QualityAwareTrackSelection extends TrackSelectionDecorator {
+
+    /**
+     * Creates QualityAwareTrackSelection instances.
+     */
+    public static final class Factory implements TrackSelection.Factory {
+
+        private final TrackSelection.Factory trackSelectionFactory;
+        private final double minQualityGain;
+        private final int qualityWindow;
+
+        /**
+         * Creates a QualityAwareTrackSelection factory using default values,
+         * with the minimum quality gain chosen for the scores' metric.
+         *
+         * @param trackSelectionFactory Creates the selections to decorate.
+         */
+        public Factory(TrackSelection.Factory trackSelectionFactory) {
+            this(trackSelectionFactory, MIN_QUALITY_GAIN_FOR_METRIC,
+                    DEFAULT_QUALITY_WINDOW);
+        }
+
+        /**
+         * Creates a QualityAwareTrackSelection factory by specifying the
+         * algorithm parameters.
+         *
+         * @param trackSelectionFactory Creates the selections to decorate.
+         *        Must create {@link AlgorithmTrackSelection}s.
+         * @param minQualityGain The smallest average quality gain, in the
+         *        units of the quality scores, which justifies a higher
+         *        quality level, or
+         *        {@link QualityAwareTrackSelection#MIN_QUALITY_GAIN_FOR_METRIC}.
+         * @param qualityWindow The number of upcoming chunks to consider.
+         */
+        public Factory(TrackSelection.Factory trackSelectionFactory,
+                       double minQualityGain, int qualityWindow) {
+            this.trackSelectionFactory = trackSelectionFactory;
+            this.minQualityGain = minQualityGain;
+            this.qualityWindow = qualityWindow;
+        }
+
+        @Override
+        public QualityAwareTrackSelection createTrackSelection(TrackGroup group, int... tracks) {
+            return new QualityAwareTrackSelection(group, tracks,
+                    asAlgorithm(trackSelectionFactory.createTrackSelection(group, tracks)),
+                    minQualityGain, qualityWindow);
+        }
+    }
+
+    /** Chooses the minimum quality gain for the metric of the scores. */
+    public static final double MIN_QUALITY_GAIN_FOR_METRIC = Double.NaN;
+
+    /** The default minimum gains, in dB of PSNR, SSIM and VMAF points. */
+    private static final double DEFAULT_MIN_PSNR_GAIN = 1;
+    private static final double DEFAULT_MIN_SSIM_GAIN = 0.002;
+    private static final double DEFAULT_MIN_VMAF_GAIN = 2;
+    private static final int DEFAULT_QUALITY_WINDOW = 3;
+
+    private static final String TAG = "QualityAware";
+
+    private final double minQualityGain;
+    private final int qualityWindow;
+
+    /**
+     * Creates a QualityAwareTrackSelection.
+     *
+     * @param group The {@link TrackGroup}.
+     * @param tracks The indices of the selected tracks within the {@link TrackGroup}.
+     * @param trackSelection The track selection to decorate.
+     * @param minQualityGain The smallest average quality gain, in the
+     *        units of the quality scores, which justifies a higher quality
+     *        level, or {@link #MIN_QUALITY_GAIN_FOR_METRIC}.
+     * @param qualityWindow The number of upcoming chunks to consider.
+     */
+    public QualityAwareTrackSelection(TrackGroup group, int[] tracks,
+                                      AlgorithmTrackSelection trackSelection,
+                                      double minQualityGain, int qualityWindow) {
+        super(group, tracks, trackSelection);
+        this.minQualityGain = minQualityGain;
+        this.qualityWindow = qualityWindow;
+    }
+
+    @Override
+    protected int adjustSelectedIndex(int targetIndex, long bufferedDurationUs) {
+        FutureChunkInfo chunkInfo = PlayerActivity.futureChunkInfo;
+        if (chunkInfo == null || !chunkInfo.describes(getTrackGroup())) {
+            return targetIndex;
+        }
+        double minQualityGain = Double.isNaN(this.minQualityGain)
+                ? defaultMinQualityGain(chunkInfo.qualityMetric()) : this.minQualityGain;
+        if (Double.isNaN(minQualityGain)) {
+            return targetIndex;
+        }
+
+        int firstChunkIndex = nextChunkIndex();
+        int index = targetIndex;
+        while (index < lowestBitrateIndex()) {
+            double totalGain = 0;
+            int scoredChunks = 0;
+            for (int i = firstChunkIndex; i < firstChunkIndex + qualityWindow; i++) {
+                double gain = chunkInfo.findQualityScore(i, index)
+                        - chunkInfo.findQualityScore(i, index + 1);
+                if (!Double.isNaN(gain)) {
+                    totalGain += gain;
+                    scoredChunks++;
+                }
+            }
+            if (scoredChunks == 0 || totalGain / scoredChunks >= minQualityGain) {
+                break;
+            }
+            index++;
+        }
+
+        if (index != targetIndex) {
+            Log.d(TAG, String.format("Stepped down from index %d to %d", targetIndex, index));
+        }
+        return index;
+    }
+
+    /**
+     * Finds the default minimum quality gain for a quality metric.
+     *
+     * @param qualityMetric The name of the metric, or null.
+     * @return The minimum gain, or NaN if the metric isn't recognised.
+     */
+    private static double defaultMinQualityGain(String qualityMetric) {
+        if ("PSNR".equalsIgnoreCase(qualityMetric)) {
+            return DEFAULT_MIN_PSNR_GAIN;
+        } else if ("SSIM".equalsIgnoreCase(qualityMetric)) {
+            return DEFAULT_MIN_SSIM_GAIN;
+        } else if ("VMAF".equalsIgnoreCase(qualityMetric)) {
+            return DEFAULT_MIN_VMAF_GAIN;
+        }
+        return Double.NaN;
+    }
+}
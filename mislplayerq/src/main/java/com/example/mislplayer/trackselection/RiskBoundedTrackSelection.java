@@ -0,0 +1,213 @@
+package com.example.mislplayer.trackselection;
+
+import android.util.Log;
+
+import com.example.mislplayer.sampling.EwmaPredictor;
+import com.example.mislplayer.sampling.SampleProcessor;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.source.TrackGroup;
+import com.google.android.exoplayer2.trackselection.TrackSelection;
+
+import static java.lang.Math.max;
+import static java.lang.Math.sqrt;
+
+/**
+ * Selects adaptive media tracks by bounding the risk of a stall.
+ *
+ * <p>Throughput is treated as normally distributed, with the exponential
+ * average and variance of the samples. The newest sample weighs the
+ * most, so that drops show up at once. Both are kept up to date as
+ * samples arrive, so a decision only has to look at each track. The next chunk stalls playback if
+ * it takes longer to download than the media already buffered, so the
+ * algorithm selects the highest track whose next chunk, at its actual
+ * size, has a probability of stalling below epsilon.
+ */
+public class RiskBoundedTrackSelection extends AlgorithmTrackSelection {
+
+    /**
+     * Creates RiskBoundedTrackSelection instances.
+     */
+    public static final class Factory implements TrackSelection.Factory {
+
+        private final SampleProcessor sampleProcessor;
+        private final double stallProbability;
+        private final EwmaPredictor throughputPredictor;
+
+        /**
+         * Creates a RiskBoundedTrackSelection factory using default values.
+         *
+         * @param sampleProcessor Provides information about throughput
+         *        samples to the algorithm.
+         */
+        public Factory(SampleProcessor sampleProcessor) {
+            this(sampleProcessor, DEFAULT_STALL_PROBABILITY, DEFAULT_EXPONENTIAL_RATIO);
+        }
+
+        /**
+         * Creates a RiskBoundedTrackSelection factory by specifying the
+         * algorithm parameters.
+         *
+         * @param sampleProcessor Provides information about throughput
+         *        samples to the algorithm.
+         * @param stallProbability The highest acceptable probability of the
+         *        next chunk causing a stall (epsilon).
+         * @param exponentialRatio The weight given to each new sample in
+         *        the exponential average and variance.
+         */
+        public Factory(SampleProcessor sampleProcessor, double stallProbability,
+                       double exponentialRatio) {
+            this.sampleProcessor = sampleProcessor;
+            this.stallProbability = stallProbability;
+            this.throughputPredictor = new EwmaPredictor(exponentialRatio);
+            sampleProcessor.addSampleListener(throughputPredictor);
+        }
+
+        @Override
+        public RiskBoundedTrackSelection createTrackSelection(TrackGroup group, int... tracks) {
+            return new RiskBoundedTrackSelection(group, tracks, sampleProcessor,
+                    throughputPredictor, stallProbability);
+        }
+    }
+
+    private static final double DEFAULT_STALL_PROBABILITY = 0.05;
+    private static final double DEFAULT_EXPONENTIAL_RATIO = 0.3;
+
+    private static final String TAG = "RiskBounded";
+
+    private final EwmaPredictor ewmaPredictor;
+    /** The epsilon-quantile of the standard normal distribution. */
+    private final double stallQuantile;
+
+    private int lastChunkIndex;
+    private int selectedIndex;
+    private int reason;
+
+    /**
+     * Creates a RiskBoundedTrackSelection.
+     *
+     * @param group The {@link TrackGroup}.
+     * @param tracks The indices of the selected tracks within the {@link TrackGroup}.
+     * @param sampleProcessor Provides information about throughput
+     *        samples to the algorithm.
+     * @param throughputPredictor Provides the exponential average and
+     *        variance of the throughput samples.
+     * @param stallProbability The highest acceptable probability of the
+     *        next chunk causing a stall (epsilon).
+     */
+    public RiskBoundedTrackSelection(TrackGroup group, int[] tracks,
+                                     SampleProcessor sampleProcessor,
+                                     EwmaPredictor throughputPredictor,
+                                     double stallProbability) {
+        super(group, tracks, sampleProcessor, throughputPredictor);
+        if (stallProbability <= 0 || stallProbability >= 1) {
+            throw new IllegalArgumentException(
+                    "Stall probability must be between 0 and 1");
+        }
+        this.ewmaPredictor = throughputPredictor;
+        this.stallQuantile = inverseNormal(stallProbability);
+
+        selectedIndex = initialSelectedIndex();
+        Log.d(TAG, String.format("Initial selected index = %d", selectedIndex));
+        reason = C.SELECTION_REASON_INITIAL;
+    }
+
+    @Override
+    public void updateSelectedTrack(long bufferedDurationUs) {
+        int currentSelectedIndex = selectedIndex;
+        if (sampleProcessor.dataNotAvailable() || !ewmaPredictor.hasPrediction()) {
+            selectedIndex = initialSelectedIndex();
+        } else if (lastChunkIndex != sampleProcessor.lastChunkIndex()) {
+            lastChunkIndex = sampleProcessor.lastChunkIndex();
+            selectedIndex = calculateSelectedIndex(bufferedDurationUs);
+            Log.d(TAG, String.format("Selected index = %d", selectedIndex));
+        }
+
+        if (selectedIndex != currentSelectedIndex) {
+            reason = C.SELECTION_REASON_ADAPTIVE;
+        }
+    }
+
+    /**
+     * Finds the highest track whose next chunk can be downloaded within
+     * the current buffer with a probability of at least 1 - epsilon.
+     *
+     * @param bufferedDurationUs The duration of media currently buffered
+     *        in microseconds.
+     * @return The index of the track which should be selected.
+     */
+    private int calculateSelectedIndex(long bufferedDurationUs) {
+        double mean = ewmaPredictor.predictedThroughput();
+        double deviation = sqrt(ewmaPredictor.variance());
+
+        double budgetedMean = budgetedRate(mean, bufferedDurationUs);
+        if (mean > 0) {
+            deviation *= budgetedMean / mean;
+        }
+        double safeRate = max(0, budgetedMean + stallQuantile * deviation);
+        double bufferedDurationS = bufferedDurationUs / 1E6;
+        double maxChunkBits = safeRate * bufferedDurationS;
+
+        Log.d(TAG, String.format("mean = %g kbps, deviation = %g kbps, safe rate = %g kbps",
+                budgetedMean / 1000, deviation / 1000, safeRate / 1000));
+
+        int chunkIndex = nextChunkIndex();
+        long chunkDurationMs = sampleProcessor.lastChunkDurationMs();
+        for (int i = 0; i < length; i++) {
+            if (chunkSizeBits(chunkIndex, i, chunkDurationMs) <= maxChunkBits) {
+                return i;
+            }
+        }
+        return lowestBitrateIndex();
+    }
+
+    /**
+     * Approximates the inverse of the standard normal cumulative
+     * distribution function, using Acklam's rational approximation
+     * (relative error below 1.2e-9).
+     *
+     * @param p A probability, between 0 and 1 exclusive.
+     * @return The value below which a standard normal variable falls with
+     *         probability p.
+     */
+    static double inverseNormal(double p) {
+        final double[] a = {-3.969683028665376e+01, 2.209460984245205e+02,
+                -2.759285104469687e+02, 1.383577518672690e+02,
+                -3.066479806614716e+01, 2.506628277459239e+00};
+        final double[] b = {-5.447609879822406e+01, 1.615858368580409e+02,
+                -1.556989798598866e+02, 6.680131188771972e+01,
+                -1.328068155288572e+01};
+        final double[] c = {-7.784894002430293e-03, -3.223964580411365e-01,
+                -2.400758277161838e+00, -2.549732539343734e+00,
+                4.374664141464968e+00, 2.938163982698783e+00};
+        final double[] d = {7.784695709041462e-03, 3.224671290700398e-01,
+                2.445134137142996e+00, 3.754408661907416e+00};
+        final double pLow = 0.02425;
+
+        if (p < pLow) {
+            double q = sqrt(-2 * Math.log(p));
+            return (((((c[0] * q + c[1]) * q + c[2]) * q + c[3]) * q + c[4]) * q + c[5])
+                    / ((((d[0] * q + d[1]) * q + d[2]) * q + d[3]) * q + 1);
+        } else if (p > 1 - pLow) {
+            return -inverseNormal(1 - p);
+        }
+        double q = p - 0.5;
+        double r = q * q;
+        return (((((a[0] * r + a[1]) * r + a[2]) * r + a[3]) * r + a[4]) * r + a[5]) * q
+                / (((((b[0] * r + b[1]) * r + b[2]) * r + b[3]) * r + b[4]) * r + 1);
+    }
+
+    @Override
+    public int getSelectedIndex() {
+        return selectedIndex;
+    }
+
+    @Override
+    public int getSelectionReason() {
+        return reason;
+    }
+
+    @Override
+    public Object getSelectionData() {
+        return null;
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.mislplayer.trackselection;
+
+import android.util.Log;
+
+import com.example.mislplayer.FutureChunkInfo;
+import com.example.mislplayer.PlayerActivity;
+import com.example.mislplayer.sampling.HarmonicMeanPredictor;
+import com.example.mislplayer.sampling.SampleProcessor;
+import com.example.mislplayer.sampling.ThroughputPredictor;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.source.TrackGroup;
+import com.google.android.exoplayer2.trackselection.TrackSelection;
+
+/**
+ * Caps the decisions of another adaptation algorithm so the actual
+ * bitrate of the upcoming chunks is sustainable.
+ *
+ * <p>With variable bitrate encoding, a window of chunks can be much larger
+ * than the nominal bitrate suggests. The filter finds the average bitrate
+ * of the next few chunks at the selected quality level from their actual
+ * sizes, and steps down until it fits within the throughput estimate.
+ */
+public class SustainabilityFilter extends TrackSelectionDecorator {
+
+    /**
+     * Creates SustainabilityFilter instances.
+     */
+    public static final class Factory implements TrackSelection.Factory {
+
+        private final TrackSelection.Factory trackSelectionFactory;
+        private final ThroughputPredictor throughputPredictor;
+        private final int lookaheadWindow;
+
+        /**
+         * Creates a SustainabilityFilter factory using default values.
+         *
+         * @param trackSelectionFactory Creates the selections to filter.
+         * @param sampleProcessor Provides throughput samples to the
+         *        estimate.
+         */
+        public Factory(TrackSelection.Factory trackSelectionFactory,
+                       SampleProcessor sampleProcessor) {
+            this(trackSelectionFactory, sampleProcessor,
+                    new HarmonicMeanPredictor(DEFAULT_THROUGHPUT_WINDOW),
+                    DEFAULT_LOOKAHEAD_WINDOW);
+        }
+
+        /**
+         * Creates a SustainabilityFilter factory by specifying the
+         * algorithm parameters.
+         *
+         * @param trackSelectionFactory Creates the selections to filter.
+         *        Must create {@link AlgorithmTrackSelection}s.
+         * @param sampleProcessor Provides throughput samples to the
+         *        estimate.
+         * @param throughputPredictor Provides the throughput estimate. It
+         *        will be registered with the sample processor.
+         * @param lookaheadWindow The number of upcoming chunks to consider.
+         */
+        public Factory(TrackSelection.Factory trackSelectionFactory,
+                       SampleProcessor sampleProcessor,
+                       ThroughputPredictor throughputPredictor,
+                       int lookaheadWindow) {
+            this.trackSelectionFactory = trackSelectionFactory;
+            this.throughputPredictor = throughputPredictor;
+            this.lookaheadWindow = lookaheadWindow;
+            sampleProcessor.addSampleListener(throughputPredictor);
+        }
+
+        @Override
+        public SustainabilityFilter createTrackSelection(TrackGroup group, int... tracks) {
+            return new SustainabilityFilter(group, tracks,
+                    asAlgorithm(trackSelectionFactory.createTrackSelection(group, tracks)),
+                    throughputPredictor, lookaheadWindow);
+        }
+    }
+
+    private static final int DEFAULT_THROUGHPUT_WINDOW = 5;
+    private static final int DEFAULT_LOOKAHEAD_WINDOW = 5;
+
+    private static final String TAG = "SustainabilityFilter";
+
+    private final ThroughputPredictor estimatePredictor;
+    private final int lookaheadWindow;
+
+    /**
+     * Creates a SustainabilityFilter.
+     *
+     * @param group The {@link TrackGroup}.
+     * @param tracks The indices of the selected tracks within the {@link TrackGroup}.
+     * @param trackSelection The track selection to filter.
+     * @param throughputPredictor Provides the throughput estimate.
+     * @param lookaheadWindow The number of upcoming chunks to consider.
+     */
+    public SustainabilityFilter(TrackGroup group, int[] tracks,
+                                AlgorithmTrackSelection trackSelection,
+                                ThroughputPredictor throughputPredictor,
+                                int lookaheadWindow) {
+        super(group, tracks, trackSelection);
+        this.estimatePredictor = throughputPredictor;
+        this.lookaheadWindow = lookaheadWindow;
+    }
+
+    @Override
+    protected int adjustSelectedIndex(int targetIndex, long bufferedDurationUs) {
+        FutureChunkInfo chunkInfo = PlayerActivity.futureChunkInfo;
+        long chunkDurationMs = chunkDurationMs();
+        if (chunkInfo == null || !chunkInfo.describes(getTrackGroup())
+                || !estimatePredictor.hasPrediction()
+                || chunkDurationMs == C.TIME_UNSET) {
+            return targetIndex;
+        }
+
+        double estimate = budgetedRate(estimatePredictor.predictedThroughput(),
+                bufferedDurationUs);
+        int firstChunkIndex = nextChunkIndex();
+        for (int i = targetIndex; i < length; i++) {
+            int chunkCount = chunkInfo.getWindowChunkCount(firstChunkIndex, lookaheadWindow, i);
+            if (chunkCount == 0) {
+                return i;
+            }
+            double windowBitrate = chunkInfo.getWindowByteSize(firstChunkIndex, lookaheadWindow, i)
+                    * 8E3 / (chunkCount * chunkDurationMs);
+            if (windowBitrate <= estimate) {
+                if (i != targetIndex) {
+                    Log.d(TAG, String.format("Capped index %d to %d (%g kbps window)",
+                            targetIndex, i, windowBitrate / 1000));
+                }
+                return i;
+            }
+        }
+        return lowestBitrateIndex();
+    }
+
+    /** The duration of a chunk, or {@link C#TIME_UNSET} if it isn't known. */
+    private long chunkDurationMs() {
+        if (!sampleProcessor.chunkDataNotAvailable()) {
+            return sampleProcessor.lastChunkDurationMs();
+        }
+        return sampleProcessor.nominalChunkDurationMs();
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.mislplayer.trackselection;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.source.TrackGroup;
+
+/**
+ * A common superclass for track selections which adjust the decisions of
+ * another {@link AlgorithmTrackSelection}.
+ *
+ * <p>The wrapped selection is updated as normal, and its selected index is
+ * then passed to {@link #adjustSelectedIndex}.
+ */
+public abstract class TrackSelectionDecorator extends AlgorithmTrackSelection {
+
+    protected final AlgorithmTrackSelection trackSelection;
+
+    private int selectedIndex;
+    private int reason;
+
+    /**
+     * @param group The {@link TrackGroup}.
+     * @param tracks The indices of the selected tracks within the
+     *        {@link TrackGroup}.
+     * @param trackSelection The track selection to decorate.
+     */
+    public TrackSelectionDecorator(TrackGroup group, int[] tracks,
+                                   AlgorithmTrackSelection trackSelection) {
+        super(group, tracks, trackSelection.sampleProcessor,
+                trackSelection.throughputPredictor);
+        this.trackSelection = trackSelection;
+
+        selectedIndex = trackSelection.getSelectedIndex();
+        reason = C.SELECTION_REASON_INITIAL;
+    }
+
+    /**
+     * Adjusts the index selected by the decorated track selection.
+     *
+     * @param targetIndex The index selected by the decorated selection.
+     * @param bufferedDurationUs The duration of media currently buffered
+     *        in microseconds.
+     * @return The index which should be selected.
+     */
+    protected abstract int adjustSelectedIndex(int targetIndex, long bufferedDurationUs);
+
+    @Override
+    public void setBitrateBudget(BitrateBudget bitrateBudget) {
+        super.setBitrateBudget(bitrateBudget);
+        trackSelection.setBitrateBudget(bitrateBudget);
+    }
+
+    @Override
+    public void updateSelectedTrack(long bufferedDurationUs) {
+        trackSelection.updateSelectedTrack(bufferedDurationUs);
+
+        int currentSelectedIndex = selectedIndex;
+        selectedIndex = adjustSelectedIndex(trackSelection.getSelectedIndex(),
+                bufferedDurationUs);
+
+        if (selectedIndex != currentSelectedIndex) {
+            reason = C.SELECTION_REASON_ADAPTIVE;
+        }
+    }
+
+    @Override
+    public int getSelectedIndex() {
+        return selectedIndex;
+    }
+
+    @Override
+    public int getSelectionReason() {
+        return reason;
+    }
+
+    @Override
+    public Object getSelectionData() {
+        return trackSelection.getSelectionData();
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.mislplayer.upstream;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Keeps idle persistent HTTP connections, by origin, so they can be reused
+ * by later requests.
+ *
+ * <p>Connections which have been idle longer than the keep-alive time are
+ * closed rather than reused, and at most a fixed number are kept per
+ * origin. The pool can be shared between several
+ * {@link PooledHttpDataSource}s.
+ */
+public final class ConnectionPool {
+
+    /** A socket, and the streams a {@link PooledHttpDataSource} uses on it. */
+    static final class Connection {
+
+        final String origin;
+        final Socket socket;
+        final InputStream inputStream;
+        final OutputStream outputStream;
+        long idleSinceMs;
+
+        Connection(String origin, Socket socket) throws IOException {
+            this.origin = origin;
+            this.socket = socket;
+            this.inputStream = new BufferedInputStream(socket.getInputStream());
+            this.outputStream = socket.getOutputStream();
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Couldn't close connection to " + origin, e);
+            }
+        }
+    }
+
+    /** The default number of idle connections kept per origin. */
+    public static final int DEFAULT_MAX_IDLE_PER_ORIGIN = 4;
+    /** The default time an idle connection is kept, in ms. */
+    public static final long DEFAULT_KEEP_ALIVE_MS = 15_000;
+
+    private static final String TAG = "ConnectionPool";
+
+    private final int maxIdlePerOrigin;
+    private final long keepAliveMs;
+    private final Map<String, ArrayDeque<Connection>> idleConnections = new HashMap<>();
+
+    private int connectCount;
+    private int reuseCount;
+
+    /**
+     * Creates a ConnectionPool with default values.
+     */
+    public ConnectionPool() {
+        this(DEFAULT_MAX_IDLE_PER_ORIGIN, DEFAULT_KEEP_ALIVE_MS);
+    }
+
+    /**
+     * Creates a ConnectionPool.
+     *
+     * @param maxIdlePerOrigin The most idle connections to keep per origin.
+     * @param keepAliveMs How long to keep an idle connection, in ms.
+     */
+    public ConnectionPool(int maxIdlePerOrigin, long keepAliveMs) {
+        this.maxIdlePerOrigin = maxIdlePerOrigin;
+        this.keepAliveMs = keepAliveMs;
+    }
+
+    /**
+     * Takes the most recently used idle connection to an origin.
+     *
+     * @param origin The origin, as scheme://host:port.
+     * @param nowMs The current time, in ms.
+     * @return The connection, or null if there are none.
+     */
+    synchronized Connection take(String origin, long nowMs) {
+        ArrayDeque<Connection> connections = idleConnections.get(origin);
+        if (connections == null) {
+            return null;
+        }
+        Connection connection;
+        while ((connection = connections.pollLast()) != null) {
+            if (nowMs - connection.idleSinceMs < keepAliveMs && !connection.socket.isClosed()) {
+                reuseCount++;
+                return connection;
+            }
+            connection.close();
+        }
+        return null;
+    }
+
+    /**
+     * Returns a connection to the pool once its response has been read.
+     *
+     * @param connection The connection.
+     * @param nowMs The current time, in ms.
+     */
+    synchronized void give(Connection connection, long nowMs) {
+        ArrayDeque<Connection> connections = idleConnections.get(connection.origin);
+        if (connections == null) {
+            connections = new ArrayDeque<>(maxIdlePerOrigin);
+            idleConnections.put(connection.origin, connections);
+        }
+        connection.idleSinceMs = nowMs;
+        connections.addLast(connection);
+        while (connections.size() > maxIdlePerOrigin) {
+            connections.pollFirst().close();
+        }
+    }
+
+    /** Records that a new connection has been opened. */
+    synchronized void onConnected() {
+        connectCount++;
+    }
+
+    /** Closes all the idle connections. */
+    public synchronized void evictAll() {
+        Iterator<ArrayDeque<Connection>> iterator = idleConnections.values().iterator();
+        while (iterator.hasNext()) {
+            for (Connection connection : iterator.next()) {
+                connection.close();
+            }
+            iterator.remove();
+        }
+    }
+
+    /** The number of connections which have been opened. */
+    public synchronized int getConnectCount() {
+        return connectCount;
+    }
+
+    /** The number of requests which reused an idle connection. */
+    public synchronized int getReuseCount() {
+        return reuseCount;
+    }
+}
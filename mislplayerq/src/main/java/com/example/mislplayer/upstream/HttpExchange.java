@@ -0,0 +1,431 @@
+package com.example.mislplayer.upstream;
+
+import com.google.android.exoplayer2.C;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Makes HTTP/1.1 GET requests, one at a time, over connections kept in a
+ * {@link ConnectionPool}, and reads their responses.
+ *
+ * <p>Bodies delimited by Content-Length or chunked transfer coding leave
+ * the connection reusable; a connection is only returned to the pool once
+ * its response body has been read in full. A request on a reused
+ * connection which fails before any response is retried once on a new
+ * connection, since the server may have closed it while it was idle.
+ * Redirects are followed.
+ *
+ * <p>An {@code SSLSocket} checks the server's certificate chain but not
+ * that it was issued for the host, so HTTPS connections are also checked
+ * with the default {@link javax.net.ssl.HostnameVerifier}, as
+ * {@link HttpsURLConnection} would.
+ *
+ * <p>This is the protocol side of {@link PooledHttpDataSource}. It works
+ * on {@link URL}s and needs nothing from Android, so it can be tested on
+ * the JVM against a local server.
+ */
+final class HttpExchange {
+
+    private static final int MAX_REDIRECTS = 20;
+    private static final int MAX_LINE_LENGTH = 8192;
+    private static final int HTTP_PORT = 80;
+    private static final int HTTPS_PORT = 443;
+
+    private final ConnectionPool connectionPool;
+    private final String userAgent;
+    private final int connectTimeoutMs;
+    private final int readTimeoutMs;
+
+    private URL url;
+    private volatile ConnectionPool.Connection connection;
+    private Map<String, List<String>> responseHeaders;
+    private boolean keepAlive;
+    private boolean connectionReused;
+    private long connectTimeMs;
+
+    private long bodyBytesRemaining;
+    private boolean chunked;
+    private boolean bodyFinished;
+
+    /**
+     * @param connectionPool The pool to keep connections in.
+     * @param userAgent The User-Agent to send.
+     * @param connectTimeoutMs The connect timeout, in ms.
+     * @param readTimeoutMs The read timeout, in ms.
+     */
+    HttpExchange(ConnectionPool connectionPool, String userAgent,
+                 int connectTimeoutMs, int readTimeoutMs) {
+        this.connectionPool = connectionPool;
+        this.userAgent = userAgent;
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.readTimeoutMs = readTimeoutMs;
+    }
+
+    /**
+     * Sends a request, following redirects, and reads the response's
+     * status line and headers. The connection is closed if it fails.
+     *
+     * @param url The URL to request.
+     * @param position The position of the first byte wanted.
+     * @param length The number of bytes wanted, or {@link C#LENGTH_UNSET}
+     *        for the rest of the resource.
+     * @param requestProperties Extra headers to send.
+     * @return The response code.
+     */
+    int open(URL url, long position, long length, Map<String, String> requestProperties)
+            throws IOException {
+        this.url = url;
+        this.connectTimeMs = 0;
+        try {
+            int responseCode = makeRequest(position, length, requestProperties);
+            for (int redirects = 0; isRedirect(responseCode); redirects++) {
+                String location = headerValue("Location");
+                close(false);
+                if (location == null || redirects == MAX_REDIRECTS) {
+                    throw new IOException("Bad redirect");
+                }
+                this.url = new URL(this.url, location);
+                responseCode = makeRequest(position, length, requestProperties);
+            }
+            return responseCode;
+        } catch (IOException e) {
+            close(false);
+            throw e;
+        }
+    }
+
+    /** The URL of the last request, after any redirects. */
+    URL getUrl() {
+        return url;
+    }
+
+    /** The headers of the last response. */
+    Map<String, List<String>> getResponseHeaders() {
+        return responseHeaders;
+    }
+
+    /**
+     * The length of the last response's body, or {@link C#LENGTH_UNSET} if
+     * it isn't given up front.
+     */
+    long getContentLength() {
+        return chunked ? C.LENGTH_UNSET : bodyBytesRemaining;
+    }
+
+    /** Whether the last request reused an idle connection. */
+    boolean isConnectionReused() {
+        return connectionReused;
+    }
+
+    /** The time the last request took to open a new connection, or 0 if it reused one. */
+    long getConnectTimeMs() {
+        return connectTimeMs;
+    }
+
+    /**
+     * Reads from the response body, undoing chunked transfer coding.
+     *
+     * @return The number of bytes read, or {@link C#RESULT_END_OF_INPUT}.
+     */
+    int read(byte[] buffer, int offset, int length) throws IOException {
+        if (bodyFinished) {
+            return C.RESULT_END_OF_INPUT;
+        }
+        ConnectionPool.Connection connection = this.connection;
+        if (connection == null) {
+            throw new IOException("Connection closed");
+        }
+        InputStream inputStream = connection.inputStream;
+        if (chunked && bodyBytesRemaining == 0) {
+            bodyBytesRemaining = readChunkSize(inputStream);
+            if (bodyBytesRemaining == 0) {
+                // skip any trailers
+                String line;
+                while ((line = readLine(inputStream)) != null && !line.isEmpty()) {}
+                bodyFinished = true;
+                return C.RESULT_END_OF_INPUT;
+            }
+        }
+
+        if (bodyBytesRemaining != C.LENGTH_UNSET) {
+            length = (int) Math.min(length, bodyBytesRemaining);
+        }
+        int read = inputStream.read(buffer, offset, length);
+        if (read == -1) {
+            if (bodyBytesRemaining != C.LENGTH_UNSET) {
+                throw new EOFException("Connection closed during body");
+            }
+            bodyFinished = true;
+            return C.RESULT_END_OF_INPUT;
+        }
+        if (bodyBytesRemaining != C.LENGTH_UNSET) {
+            bodyBytesRemaining -= read;
+            if (bodyBytesRemaining == 0 && chunked) {
+                readLine(inputStream);
+            }
+            bodyFinished = bodyBytesRemaining == 0 && !chunked;
+        }
+        return read;
+    }
+
+    /**
+     * Returns the connection to the pool if its response has been read in
+     * full and the server will keep it open, or closes it otherwise.
+     *
+     * @param dataFinished Whether all the data wanted has been read. If
+     *        so, the end of a chunked body is read, so the connection can
+     *        be reused.
+     */
+    void close(boolean dataFinished) {
+        ConnectionPool.Connection connection = this.connection;
+        if (connection == null) {
+            return;
+        }
+        this.connection = null;
+        if (dataFinished && keepAlive && !bodyFinished && chunked && bodyBytesRemaining == 0) {
+            try {
+                this.connection = connection;
+                read(new byte[1], 0, 1);
+            } catch (IOException e) {
+                keepAlive = false;
+            } finally {
+                this.connection = null;
+            }
+        }
+        if (bodyFinished && keepAlive) {
+            connectionPool.give(connection, nowMs());
+        } else {
+            connection.close();
+        }
+    }
+
+    /**
+     * Sends a request and reads the response's status line and headers,
+     * retrying once if a reused connection turns out to be closed.
+     *
+     * @return The response code.
+     */
+    private int makeRequest(long position, long length, Map<String, String> requestProperties)
+            throws IOException {
+        String origin = origin(url);
+        connection = connectionPool.take(origin, nowMs());
+        connectionReused = connection != null;
+        if (connectionReused) {
+            try {
+                writeRequest(position, length, requestProperties);
+                return readResponseHead();
+            } catch (IOException e) {
+                close(false);
+            }
+        }
+
+        long startMs = nowMs();
+        connection = connect(origin);
+        connectTimeMs = nowMs() - startMs;
+        connectionReused = false;
+        connectionPool.onConnected();
+        writeRequest(position, length, requestProperties);
+        return readResponseHead();
+    }
+
+    private ConnectionPool.Connection connect(String origin) throws IOException {
+        boolean secure = "https".equalsIgnoreCase(url.getProtocol());
+        int port = url.getPort() != -1 ? url.getPort() : secure ? HTTPS_PORT : HTTP_PORT;
+
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(url.getHost(), port), connectTimeoutMs);
+            socket.setSoTimeout(readTimeoutMs);
+            if (secure) {
+                SSLSocketFactory sslSocketFactory = (SSLSocketFactory) SSLSocketFactory.getDefault();
+                SSLSocket sslSocket = (SSLSocket) sslSocketFactory.createSocket(
+                        socket, url.getHost(), port, true);
+                sslSocket.startHandshake();
+                socket = sslSocket;
+                if (!HttpsURLConnection.getDefaultHostnameVerifier().verify(
+                        url.getHost(), sslSocket.getSession())) {
+                    throw new SSLPeerUnverifiedException(
+                            "Certificate not valid for " + url.getHost());
+                }
+            }
+            return new ConnectionPool.Connection(origin, socket);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    private void writeRequest(long position, long length, Map<String, String> requestProperties)
+            throws IOException {
+        StringBuilder request = new StringBuilder();
+        String path = url.getFile().isEmpty() ? "/" : url.getFile();
+        request.append("GET ").append(path).append(" HTTP/1.1\r\n");
+        request.append("Host: ").append(url.getAuthority()).append("\r\n");
+        request.append("User-Agent: ").append(userAgent).append("\r\n");
+        request.append("Connection: keep-alive\r\n");
+        if (position != 0 || length != C.LENGTH_UNSET) {
+            request.append("Range: bytes=").append(position).append('-');
+            if (length != C.LENGTH_UNSET) {
+                request.append(position + length - 1);
+            }
+            request.append("\r\n");
+        }
+        request.append("Accept-Encoding: identity\r\n");
+        for (Map.Entry<String, String> property : requestProperties.entrySet()) {
+            request.append(property.getKey()).append(": ").append(property.getValue()).append("\r\n");
+        }
+        request.append("\r\n");
+
+        OutputStream outputStream = connection.outputStream;
+        outputStream.write(request.toString().getBytes("ISO-8859-1"));
+        outputStream.flush();
+    }
+
+    /**
+     * Reads the response's status line and headers, and works out how its
+     * body is delimited.
+     *
+     * @return The response code.
+     */
+    private int readResponseHead() throws IOException {
+        String statusLine = readLine(connection.inputStream);
+        if (statusLine == null) {
+            throw new EOFException("Connection closed before response");
+        }
+        String[] status = statusLine.split(" ", 3);
+        if (status.length < 2 || !status[0].startsWith("HTTP/")) {
+            throw new IOException("Bad status line: " + statusLine);
+        }
+        int responseCode;
+        try {
+            responseCode = Integer.parseInt(status[1]);
+        } catch (NumberFormatException e) {
+            throw new IOException("Bad status line: " + statusLine);
+        }
+
+        TreeMap<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        String line;
+        while ((line = readLine(connection.inputStream)) != null && !line.isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                String name = line.substring(0, colon).trim();
+                List<String> values = headers.get(name);
+                if (values == null) {
+                    values = new ArrayList<>(1);
+                    headers.put(name, values);
+                }
+                values.add(line.substring(colon + 1).trim());
+            }
+        }
+        if (line == null) {
+            throw new EOFException("Connection closed during headers");
+        }
+        responseHeaders = Collections.unmodifiableMap(headers);
+
+        String connectionHeader = headerValue("Connection");
+        if (status[0].equals("HTTP/1.0")) {
+            keepAlive = "keep-alive".equalsIgnoreCase(connectionHeader);
+        } else {
+            keepAlive = !"close".equalsIgnoreCase(connectionHeader);
+        }
+
+        String transferEncoding = headerValue("Transfer-Encoding");
+        String contentLength = headerValue("Content-Length");
+        chunked = transferEncoding != null
+                && transferEncoding.toLowerCase(Locale.US).contains("chunked");
+        bodyBytesRemaining = C.LENGTH_UNSET;
+        if (responseCode == 204 || responseCode == 304) {
+            bodyBytesRemaining = 0;
+        } else if (chunked) {
+            bodyBytesRemaining = 0;
+        } else if (contentLength != null) {
+            try {
+                bodyBytesRemaining = Long.parseLong(contentLength);
+            } catch (NumberFormatException e) {
+                throw new IOException("Bad Content-Length: " + contentLength);
+            }
+        } else {
+            // the body runs until the server closes the connection
+            keepAlive = false;
+        }
+        bodyFinished = !chunked && bodyBytesRemaining == 0;
+        return responseCode;
+    }
+
+    private long readChunkSize(InputStream inputStream) throws IOException {
+        String line = readLine(inputStream);
+        if (line == null) {
+            throw new EOFException("Connection closed before chunk");
+        }
+        int extension = line.indexOf(';');
+        String size = (extension == -1 ? line : line.substring(0, extension)).trim();
+        try {
+            return Long.parseLong(size, 16);
+        } catch (NumberFormatException e) {
+            throw new IOException("Bad chunk size: " + line);
+        }
+    }
+
+    private String headerValue(String name) {
+        List<String> values = responseHeaders == null ? null : responseHeaders.get(name);
+        return values == null || values.isEmpty() ? null : values.get(values.size() - 1);
+    }
+
+    private static boolean isRedirect(int responseCode) {
+        return responseCode == 300 || responseCode == 301 || responseCode == 302
+                || responseCode == 303 || responseCode == 307 || responseCode == 308;
+    }
+
+    private static String origin(URL url) {
+        return url.getProtocol().toLowerCase(Locale.US) + "://"
+                + url.getHost().toLowerCase(Locale.US) + ":" + url.getPort();
+    }
+
+    /** A monotonic clock for the pool's idle times, in ms. */
+    private static long nowMs() {
+        return System.nanoTime() / 1000000;
+    }
+
+    /**
+     * Reads a CRLF- or LF-terminated line.
+     *
+     * @return The line, without its terminator, or null if the stream ended
+     *         first.
+     */
+    private static String readLine(InputStream inputStream) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = inputStream.read()) != -1) {
+            if (b == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            if (line.length() == MAX_LINE_LENGTH) {
+                throw new IOException("Line too long");
+            }
+            line.append((char) b);
+        }
+        return line.length() == 0 ? null : line.toString();
+    }
+}
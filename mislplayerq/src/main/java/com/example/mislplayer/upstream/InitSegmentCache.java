@@ -0,0 +1,177 @@
+package com.example.mislplayer.upstream;
+
+import android.util.Log;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps initialization segments in memory, so switching back to a
+ * representation, or playing the media again, doesn't load its
+ * initialization segment again.
+ *
+ * <p>Segments are keyed by the request's cache key, which holds the
+ * representation ID, and by its URL and byte range. The least recently
+ * used segments are dropped once the cache is full. The cache can be
+ * shared between several {@link InitSegmentDataSource}s, and can prefetch
+ * segments in the background before they're needed.
+ */
+public final class InitSegmentCache {
+
+    /** The default most bytes to keep. */
+    public static final int DEFAULT_MAX_BYTES = 2 * 1024 * 1024;
+    /** The largest segment which will be kept, in bytes. */
+    static final int MAX_SEGMENT_BYTES = 256 * 1024;
+
+    private static final long IDLE_THREAD_TIMEOUT_S = 10;
+
+    private static final String TAG = "InitSegmentCache";
+
+    private final DataSource.Factory prefetchSourceFactory;
+    private final int maxBytes;
+    private final LinkedHashMap<String, byte[]> segments = new LinkedHashMap<>(16, 0.75f, true);
+    private final Set<String> pendingPrefetches = new HashSet<>();
+    private final ThreadPoolExecutor executor;
+
+    private int bytesCached;
+    private int hitCount;
+    private int prefetchCount;
+
+    /**
+     * Creates an InitSegmentCache with the default size.
+     *
+     * @param prefetchSourceFactory Creates the data sources to prefetch
+     *                              segments from.
+     */
+    public InitSegmentCache(DataSource.Factory prefetchSourceFactory) {
+        this(prefetchSourceFactory, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Creates an InitSegmentCache.
+     *
+     * @param prefetchSourceFactory Creates the data sources to prefetch
+     *                              segments from.
+     * @param maxBytes The most bytes to keep.
+     */
+    public InitSegmentCache(DataSource.Factory prefetchSourceFactory, int maxBytes) {
+        this.prefetchSourceFactory = prefetchSourceFactory;
+        this.maxBytes = maxBytes;
+        this.executor = new ThreadPoolExecutor(1, 1, IDLE_THREAD_TIMEOUT_S, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Gets a cached segment.
+     *
+     * @param dataSpec The segment's request.
+     * @return The segment's data, or null if it isn't cached.
+     */
+    public synchronized byte[] get(DataSpec dataSpec) {
+        byte[] data = segments.get(keyOf(dataSpec));
+        if (data != null) {
+            hitCount++;
+        }
+        return data;
+    }
+
+    /**
+     * Caches a segment, dropping the least recently used ones if the cache
+     * is full.
+     *
+     * @param dataSpec The segment's request.
+     * @param data The segment's data.
+     */
+    public synchronized void put(DataSpec dataSpec, byte[] data) {
+        if (data.length > MAX_SEGMENT_BYTES || data.length > maxBytes) {
+            return;
+        }
+        byte[] previous = segments.put(keyOf(dataSpec), data);
+        bytesCached += data.length - (previous == null ? 0 : previous.length);
+
+        Iterator<Map.Entry<String, byte[]>> iterator = segments.entrySet().iterator();
+        while (bytesCached > maxBytes && iterator.hasNext()) {
+            bytesCached -= iterator.next().getValue().length;
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Loads a segment into the cache in the background, unless it's cached
+     * or already being loaded.
+     *
+     * @param dataSpec The segment's request.
+     */
+    public void prefetch(final DataSpec dataSpec) {
+        final String key = keyOf(dataSpec);
+        synchronized (this) {
+            if (segments.containsKey(key) || !pendingPrefetches.add(key)) {
+                return;
+            }
+            prefetchCount++;
+        }
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    put(dataSpec, load(dataSpec));
+                    Log.d(TAG, "Prefetched " + key);
+                } catch (IOException e) {
+                    Log.w(TAG, "Couldn't prefetch " + key, e);
+                } finally {
+                    synchronized (InitSegmentCache.this) {
+                        pendingPrefetches.remove(key);
+                    }
+                }
+            }
+        });
+    }
+
+    /** The number of requests which were served from the cache. */
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    /** The number of segments which have been prefetched. */
+    public synchronized int getPrefetchCount() {
+        return prefetchCount;
+    }
+
+    private byte[] load(DataSpec dataSpec) throws IOException {
+        DataSource source = prefetchSourceFactory.createDataSource();
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        try {
+            source.open(dataSpec);
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = source.read(buffer, 0, buffer.length)) != C.RESULT_END_OF_INPUT) {
+                data.write(buffer, 0, read);
+                if (data.size() > MAX_SEGMENT_BYTES) {
+                    throw new IOException("Initialization segment is too large to cache");
+                }
+            }
+        } finally {
+            source.close();
+        }
+        return data.toByteArray();
+    }
+
+    private static String keyOf(DataSpec dataSpec) {
+        return dataSpec.key + '|' + dataSpec.uri + '|' + dataSpec.absoluteStreamPosition
+                + '|' + dataSpec.length;
+    }
+}
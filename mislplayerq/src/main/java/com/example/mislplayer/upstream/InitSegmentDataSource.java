@@ -0,0 +1,103 @@
+package com.example.mislplayer.upstream;
+
+import android.net.Uri;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * A {@link DataSource} which serves initialization segments from an
+ * {@link InitSegmentCache} when it has them.
+ *
+ * <p>Any request the cache holds is served from memory, without touching
+ * the upstream source. Otherwise the request is passed upstream, and if
+ * {@link #setCaching} says it's for an initialization segment, what is
+ * read is added to the cache once the whole segment has been read.
+ */
+public final class InitSegmentDataSource implements DataSource {
+
+    private final DataSource upstream;
+    private final InitSegmentCache cache;
+
+    private boolean caching;
+    private DataSpec dataSpec;
+    private byte[] cachedData;
+    private int cachedDataRead;
+    private ByteArrayOutputStream loadedData;
+
+    /**
+     * @param upstream The data source to use for anything not cached.
+     * @param cache The cache of initialization segments.
+     */
+    public InitSegmentDataSource(DataSource upstream, InitSegmentCache cache) {
+        this.upstream = upstream;
+        this.cache = cache;
+    }
+
+    /**
+     * Sets whether the requests which follow are for initialization
+     * segments, which should be cached.
+     */
+    public void setCaching(boolean caching) {
+        this.caching = caching;
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+        this.dataSpec = dataSpec;
+        cachedData = cache.get(dataSpec);
+        cachedDataRead = 0;
+        if (cachedData != null) {
+            return cachedData.length;
+        }
+
+        loadedData = caching ? new ByteArrayOutputStream() : null;
+        return upstream.open(dataSpec);
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+        if (cachedData != null) {
+            if (cachedDataRead == cachedData.length) {
+                return C.RESULT_END_OF_INPUT;
+            }
+            int length = Math.min(readLength, cachedData.length - cachedDataRead);
+            System.arraycopy(cachedData, cachedDataRead, buffer, offset, length);
+            cachedDataRead += length;
+            return length;
+        }
+
+        int read = upstream.read(buffer, offset, readLength);
+        if (loadedData != null) {
+            if (read == C.RESULT_END_OF_INPUT) {
+                cache.put(dataSpec, loadedData.toByteArray());
+                loadedData = null;
+            } else if (loadedData.size() + read > InitSegmentCache.MAX_SEGMENT_BYTES) {
+                loadedData = null;
+            } else {
+                loadedData.write(buffer, offset, read);
+            }
+        }
+        return read;
+    }
+
+    @Override
+    public Uri getUri() {
+        return cachedData != null ? dataSpec.uri : upstream.getUri();
+    }
+
+    @Override
+    public void close() throws IOException {
+        loadedData = null;
+        dataSpec = null;
+        if (cachedData != null) {
+            cachedData = null;
+        } else {
+            upstream.close();
+        }
+    }
+}
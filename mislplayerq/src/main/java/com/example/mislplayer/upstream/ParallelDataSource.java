@@ -0,0 +1,367 @@
+package com.example.mislplayer.upstream;
+
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.HttpDataSource;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link DataSource} which loads each request as several byte ranges
+ * over parallel connections, and reassembles them in order.
+ *
+ * <p>The request is split into parts of a fixed length, and up to
+ * {@code connectionCount} parts are loaded at once, each from its own
+ * upstream {@link DataSource}. Data is returned as soon as the part it
+ * belongs to has it, so the reader never waits on a later part. When the
+ * request's length isn't known, parts are requested until one comes back
+ * short or the server reports the range as unsatisfiable.
+ *
+ * <p>The first part is opened before {@link #open} returns, so a request
+ * which fails outright fails there, as with any other source. Closing the
+ * source, or reaching the end early, closes the upstream sources of the
+ * parts still loading, so abandoned requests stop downloading at once.
+ *
+ * <p>Each part is a separate transfer, so a {@code TransferListener} given
+ * to the upstream factory sees one transfer per connection. Requests for
+ * several segments at once (see {@code maxSegmentsPerLoad}) are split the
+ * same way, which loads the segments in parallel.
+ *
+ * <p>The server must support range requests. If it ignores them, the
+ * result is still correct, but each connection downloads everything
+ * before its part.
+ */
+public final class ParallelDataSource implements DataSource {
+
+    /**
+     * Creates ParallelDataSource instances.
+     */
+    public static final class Factory implements DataSource.Factory {
+
+        private final DataSource.Factory upstreamFactory;
+        private final int connectionCount;
+        private final int partLength;
+
+        /**
+         * Creates a ParallelDataSource factory with the default part length.
+         *
+         * @param upstreamFactory Creates the data sources for each part.
+         * @param connectionCount The number of parts to load at once.
+         */
+        public Factory(DataSource.Factory upstreamFactory, int connectionCount) {
+            this(upstreamFactory, connectionCount, DEFAULT_PART_LENGTH);
+        }
+
+        /**
+         * Creates a ParallelDataSource factory.
+         *
+         * @param upstreamFactory Creates the data sources for each part.
+         * @param connectionCount The number of parts to load at once.
+         * @param partLength The length of each part, in bytes.
+         */
+        public Factory(DataSource.Factory upstreamFactory, int connectionCount, int partLength) {
+            this.upstreamFactory = upstreamFactory;
+            this.connectionCount = connectionCount;
+            this.partLength = partLength;
+        }
+
+        @Override
+        public ParallelDataSource createDataSource() {
+            return new ParallelDataSource(upstreamFactory, connectionCount, partLength);
+        }
+    }
+
+    /** The default length of each part, in bytes. */
+    public static final int DEFAULT_PART_LENGTH = 256 * 1024;
+
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+    private static final long IDLE_THREAD_TIMEOUT_S = 10;
+
+    private static final String TAG = "ParallelDataSource";
+
+    /** A byte range of the request, and the data loaded for it so far. */
+    private final class Part implements Runnable {
+
+        private final DataSpec partSpec;
+        private final DataSource source;
+        private final boolean isFirst;
+        private final boolean requestLengthKnown;
+        private final byte[] data;
+        private int bytesLoaded;
+        private int bytesRead;
+        private boolean finished;
+        private IOException error;
+        private boolean opened;
+        private volatile boolean started;
+        private volatile boolean canceled;
+
+        private Part(DataSpec requestSpec, long position, int length) {
+            this.partSpec = new DataSpec(requestSpec.uri, requestSpec.postBody,
+                    position, position, length, requestSpec.key, requestSpec.flags);
+            this.source = upstreamFactory.createDataSource();
+            this.isFirst = position == requestSpec.position;
+            this.requestLengthKnown = requestSpec.length != C.LENGTH_UNSET;
+            this.data = new byte[length];
+        }
+
+        /** Whether the part ended before its requested length. */
+        private boolean isShort() {
+            return finished && error == null && bytesLoaded < data.length;
+        }
+
+        /**
+         * Opens the part's upstream source. If not called before the part
+         * is run, the part opens it itself.
+         */
+        private void openSource() throws IOException {
+            started = true;
+            source.open(partSpec);
+            opened = true;
+        }
+
+        @Override
+        public void run() {
+            started = true;
+            long startMs = SystemClock.elapsedRealtime();
+            try {
+                if (!opened && !canceled) {
+                    openSource();
+                }
+                int read = 0;
+                while (read != C.RESULT_END_OF_INPUT && bytesLoaded < data.length && !canceled) {
+                    read = source.read(data, bytesLoaded, data.length - bytesLoaded);
+                    if (read > 0) {
+                        synchronized (ParallelDataSource.this) {
+                            bytesLoaded += read;
+                            ParallelDataSource.this.notifyAll();
+                        }
+                    }
+                }
+            } catch (HttpDataSource.InvalidResponseCodeException e) {
+                if (!canceled && (e.responseCode != HTTP_RANGE_NOT_SATISFIABLE || isFirst)) {
+                    setError(e);
+                }
+            } catch (IOException e) {
+                // a part running past the end of a request of unknown length
+                // may end early, which some sources report as an error, and a
+                // canceled part fails when its source is closed under it
+                boolean endedEarly = e instanceof EOFException || e.getCause() instanceof EOFException;
+                if (!canceled && (requestLengthKnown || !endedEarly)) {
+                    setError(e);
+                }
+            } finally {
+                closeSource();
+                logPartThroughput(SystemClock.elapsedRealtime() - startMs);
+                synchronized (ParallelDataSource.this) {
+                    finished = true;
+                    ParallelDataSource.this.notifyAll();
+                }
+            }
+        }
+
+        /**
+         * Stops the part loading. Its source is closed, which makes a read
+         * blocked on the network return at once.
+         */
+        private void cancel() {
+            canceled = true;
+            if (started) {
+                closeSource();
+            }
+        }
+
+        /** Closes the part's source, which is safe to do more than once. */
+        private void closeSource() {
+            synchronized (this) {
+                try {
+                    source.close();
+                } catch (IOException e) {
+                    Log.w(TAG, "Couldn't close part source", e);
+                }
+            }
+        }
+
+        private void setError(IOException e) {
+            synchronized (ParallelDataSource.this) {
+                error = e;
+            }
+        }
+
+        private void logPartThroughput(long durationMs) {
+            if (bytesLoaded > 0 && durationMs > 0) {
+                Log.d(TAG, String.format("Part at %d: %d B in %d ms (%d kbps)",
+                        partSpec.position, bytesLoaded, durationMs, bytesLoaded * 8L / durationMs));
+            }
+        }
+    }
+
+    private final DataSource.Factory upstreamFactory;
+    private final int connectionCount;
+    private final int partLength;
+    private final ThreadPoolExecutor executor;
+    private final ArrayDeque<Part> parts;
+
+    private DataSpec dataSpec;
+    private long nextPartPosition;
+    private long endPosition;
+    private boolean endReached;
+
+    /**
+     * Creates a ParallelDataSource.
+     *
+     * @param upstreamFactory Creates the data sources for each part.
+     * @param connectionCount The number of parts to load at once.
+     * @param partLength The length of each part, in bytes.
+     */
+    public ParallelDataSource(DataSource.Factory upstreamFactory,
+                              int connectionCount, int partLength) {
+        if (connectionCount < 1 || partLength < 1) {
+            throw new IllegalArgumentException("Need at least one connection and a positive part length");
+        }
+        this.upstreamFactory = upstreamFactory;
+        this.connectionCount = connectionCount;
+        this.partLength = partLength;
+        this.parts = new ArrayDeque<>(connectionCount);
+        this.executor = new ThreadPoolExecutor(connectionCount, connectionCount,
+                IDLE_THREAD_TIMEOUT_S, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+        this.dataSpec = dataSpec;
+        endReached = false;
+        nextPartPosition = dataSpec.position;
+        endPosition = dataSpec.length == C.LENGTH_UNSET
+                ? Long.MAX_VALUE : dataSpec.position + dataSpec.length;
+
+        if (nextPartPosition >= endPosition) {
+            return dataSpec.length;
+        }
+
+        // open the first part here, so that a failed request fails to open
+        Part first = new Part(dataSpec, nextPartPosition,
+                (int) Math.min(partLength, endPosition - nextPartPosition));
+        try {
+            first.openSource();
+        } catch (IOException e) {
+            first.closeSource();
+            throw e;
+        }
+
+        synchronized (this) {
+            startPart(first);
+            while (parts.size() < connectionCount && nextPartPosition < endPosition) {
+                startNextPart();
+            }
+        }
+        return dataSpec.length;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+        if (readLength == 0) {
+            return 0;
+        }
+
+        List<Part> canceledParts;
+        synchronized (this) {
+            while (true) {
+                Part part = parts.peekFirst();
+                if (part == null) {
+                    return C.RESULT_END_OF_INPUT;
+                }
+                while (part.bytesRead == part.bytesLoaded && !part.finished) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException();
+                    }
+                }
+                if (part.error != null) {
+                    throw part.error;
+                }
+
+                int available = part.bytesLoaded - part.bytesRead;
+                if (available > 0) {
+                    int length = Math.min(available, readLength);
+                    System.arraycopy(part.data, part.bytesRead, buffer, offset, length);
+                    part.bytesRead += length;
+                    return length;
+                }
+
+                // the part is finished and fully read
+                parts.removeFirst();
+                if (part.isShort()) {
+                    endReached = true;
+                    canceledParts = removeParts();
+                    break;
+                }
+                if (!endReached && nextPartPosition < endPosition) {
+                    startNextPart();
+                }
+            }
+        }
+        cancel(canceledParts);
+        return C.RESULT_END_OF_INPUT;
+    }
+
+    @Override
+    public Uri getUri() {
+        return dataSpec == null ? null : dataSpec.uri;
+    }
+
+    @Override
+    public void close() throws IOException {
+        List<Part> canceledParts;
+        synchronized (this) {
+            canceledParts = removeParts();
+        }
+        cancel(canceledParts);
+        dataSpec = null;
+    }
+
+    /** Queues the next part of the request for loading. */
+    private void startNextPart() {
+        int length = (int) Math.min(partLength, endPosition - nextPartPosition);
+        startPart(new Part(dataSpec, nextPartPosition, length));
+    }
+
+    private void startPart(Part part) {
+        nextPartPosition += part.data.length;
+        parts.addLast(part);
+        executor.execute(part);
+    }
+
+    /** Discards the queued parts, returning them to be canceled. */
+    private List<Part> removeParts() {
+        List<Part> removed = new ArrayList<>(parts);
+        parts.clear();
+        executor.getQueue().clear();
+        return removed;
+    }
+
+    /**
+     * Cancels parts, closing the sources of those already loading. Called
+     * without holding the lock, since closing may block on the network.
+     */
+    private static void cancel(List<Part> parts) {
+        for (Part part : parts) {
+            part.cancel();
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package com.example.mislplayer.upstream;
+
+import android.net.Uri;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.HttpDataSource;
+import com.google.android.exoplayer2.upstream.TransferListener;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An {@link HttpDataSource} which speaks HTTP/1.1 over its own sockets, and
+ * keeps them open in a {@link ConnectionPool} between requests.
+ *
+ * <p>Consecutive chunk requests to the same server then skip the TCP (and
+ * TLS) handshakes. The requests and responses are handled by an
+ * {@link HttpExchange}, which describes when a connection is reused; this
+ * class turns data specs into requests, and skips to the requested
+ * position if a server ignores the range.
+ *
+ * <p>If the transfer listener is also a {@link ConnectionListener}, it is
+ * told whether each request's connection was reused and how long a new one
+ * took to set up.
+ */
+public final class PooledHttpDataSource implements HttpDataSource {
+
+    /**
+     * Creates PooledHttpDataSource instances sharing a connection pool.
+     */
+    public static final class Factory implements HttpDataSource.Factory {
+
+        private final String userAgent;
+        private final TransferListener<? super PooledHttpDataSource> listener;
+        private final ConnectionPool connectionPool;
+
+        /**
+         * @param userAgent The User-Agent to send.
+         * @param listener Is told about transfers, or null.
+         * @param connectionPool The pool to keep connections in.
+         */
+        public Factory(String userAgent, TransferListener<? super PooledHttpDataSource> listener,
+                       ConnectionPool connectionPool) {
+            this.userAgent = userAgent;
+            this.listener = listener;
+            this.connectionPool = connectionPool;
+        }
+
+        @Override
+        public PooledHttpDataSource createDataSource() {
+            return new PooledHttpDataSource(userAgent, listener, connectionPool,
+                    DEFAULT_CONNECT_TIMEOUT_MS, DEFAULT_READ_TIMEOUT_MS);
+        }
+    }
+
+    /**
+     * Is told how each request's connection was obtained.
+     */
+    public interface ConnectionListener {
+
+        /**
+         * Called when a request has been given a connection, before its
+         * transfer starts.
+         *
+         * @param source The data source making the request.
+         * @param reused Whether an idle connection was reused.
+         * @param connectTimeMs The time taken to open a new connection, or
+         *        0 if one was reused.
+         */
+        void onConnection(PooledHttpDataSource source, boolean reused, long connectTimeMs);
+    }
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_MS = 8000;
+    public static final int DEFAULT_READ_TIMEOUT_MS = 8000;
+
+    private final TransferListener<? super PooledHttpDataSource> listener;
+    private final HttpExchange exchange;
+    private final Map<String, String> requestProperties = new HashMap<>();
+
+    private DataSpec dataSpec;
+    private Uri uri;
+    private Map<String, List<String>> responseHeaders;
+    private boolean opened;
+
+    private long bytesToSkip;
+    private long bytesToRead;
+    private long bytesRead;
+
+    /**
+     * Creates a PooledHttpDataSource.
+     *
+     * @param userAgent The User-Agent to send.
+     * @param listener Is told about transfers, or null.
+     * @param connectionPool The pool to keep connections in.
+     * @param connectTimeoutMs The connect timeout, in ms.
+     * @param readTimeoutMs The read timeout, in ms.
+     */
+    public PooledHttpDataSource(String userAgent,
+                                TransferListener<? super PooledHttpDataSource> listener,
+                                ConnectionPool connectionPool,
+                                int connectTimeoutMs, int readTimeoutMs) {
+        this.listener = listener;
+        this.exchange = new HttpExchange(connectionPool, userAgent,
+                connectTimeoutMs, readTimeoutMs);
+    }
+
+    /** Whether the last request reused an idle connection. */
+    public boolean isConnectionReused() {
+        return exchange.isConnectionReused();
+    }
+
+    /** The time the last request took to open a new connection, or 0 if it reused one. */
+    public long getConnectTimeMs() {
+        return exchange.getConnectTimeMs();
+    }
+
+    @Override
+    public void setRequestProperty(String name, String value) {
+        requestProperties.put(name, value);
+    }
+
+    @Override
+    public void clearRequestProperty(String name) {
+        requestProperties.remove(name);
+    }
+
+    @Override
+    public void clearAllRequestProperties() {
+        requestProperties.clear();
+    }
+
+    @Override
+    public Map<String, List<String>> getResponseHeaders() {
+        return responseHeaders;
+    }
+
+    @Override
+    public Uri getUri() {
+        return uri;
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws HttpDataSourceException {
+        this.dataSpec = dataSpec;
+        this.uri = dataSpec.uri;
+        this.bytesRead = 0;
+
+        int responseCode;
+        try {
+            responseCode = exchange.open(new URL(dataSpec.uri.toString()),
+                    dataSpec.absoluteStreamPosition, dataSpec.length, requestProperties);
+        } catch (IOException e) {
+            throw new HttpDataSourceException("Unable to connect to " + dataSpec.uri, e,
+                    dataSpec, HttpDataSourceException.TYPE_OPEN);
+        }
+        uri = Uri.parse(exchange.getUrl().toString());
+        responseHeaders = exchange.getResponseHeaders();
+
+        if (responseCode < 200 || responseCode > 299) {
+            exchange.close(false);
+            throw new InvalidResponseCodeException(responseCode, responseHeaders, dataSpec);
+        }
+
+        // a server which ignores the range sends the whole resource
+        bytesToSkip = responseCode == 200 && dataSpec.position != 0 ? dataSpec.position : 0;
+        long contentLength = exchange.getContentLength();
+        if (dataSpec.length != C.LENGTH_UNSET) {
+            bytesToRead = dataSpec.length;
+        } else if (contentLength != C.LENGTH_UNSET) {
+            bytesToRead = contentLength - bytesToSkip;
+        } else {
+            bytesToRead = C.LENGTH_UNSET;
+        }
+
+        opened = true;
+        if (listener instanceof ConnectionListener) {
+            ((ConnectionListener) listener).onConnection(this, exchange.isConnectionReused(),
+                    exchange.getConnectTimeMs());
+        }
+        if (listener != null) {
+            listener.onTransferStart(this, dataSpec);
+        }
+        return bytesToRead;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws HttpDataSourceException {
+        try {
+            skipBytes();
+            if (readLength == 0) {
+                return 0;
+            }
+            if (bytesToRead != C.LENGTH_UNSET) {
+                long bytesRemaining = bytesToRead - bytesRead;
+                if (bytesRemaining == 0) {
+                    return C.RESULT_END_OF_INPUT;
+                }
+                readLength = (int) Math.min(readLength, bytesRemaining);
+            }
+
+            int read = exchange.read(buffer, offset, readLength);
+            if (read == C.RESULT_END_OF_INPUT) {
+                if (bytesToRead != C.LENGTH_UNSET) {
+                    throw new EOFException();
+                }
+                return C.RESULT_END_OF_INPUT;
+            }
+            bytesRead += read;
+            if (listener != null) {
+                listener.onBytesTransferred(this, read);
+            }
+            return read;
+        } catch (IOException e) {
+            throw new HttpDataSourceException(e, dataSpec, HttpDataSourceException.TYPE_READ);
+        }
+    }
+
+    @Override
+    public void close() throws HttpDataSourceException {
+        exchange.close(bytesToRead != C.LENGTH_UNSET && bytesRead == bytesToRead);
+        if (opened) {
+            opened = false;
+            if (listener != null) {
+                listener.onTransferEnd(this);
+            }
+        }
+        uri = null;
+    }
+
+    /** Skips the part of a whole-resource response before the requested position. */
+    private void skipBytes() throws IOException {
+        byte[] skipBuffer = null;
+        while (bytesToSkip > 0) {
+            if (skipBuffer == null) {
+                skipBuffer = new byte[4096];
+            }
+            int read = exchange.read(skipBuffer, 0, (int) Math.min(bytesToSkip, skipBuffer.length));
+            if (read == C.RESULT_END_OF_INPUT) {
+                throw new EOFException();
+            }
+            bytesToSkip -= read;
+            if (listener != null) {
+                listener.onBytesTransferred(this, read);
+            }
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package com.example.mislplayer.upstream;
+
+import android.net.Uri;
+import android.util.Log;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.HttpDataSource;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link DataSource} which loads each segment as a series of byte-range
+ * requests, one per subsegment.
+ *
+ * <p>The start of the segment is loaded first. If it holds a segment index
+ * ({@code sidx} box), the rest of the segment is requested one referenced
+ * subsegment at a time, so each request ends on a {@code moof} boundary.
+ * Otherwise the rest is requested in one go. The data returned is the same
+ * either way.
+ *
+ * <p>Every request is a separate transfer, so a {@code TransferListener}
+ * given to the upstream source sees the throughput of each subsegment,
+ * rather than only of the whole segment.
+ */
+public final class SubsegmentDataSource implements DataSource {
+
+    /**
+     * Creates SubsegmentDataSource instances.
+     */
+    public static final class Factory implements DataSource.Factory {
+
+        private final DataSource.Factory upstreamFactory;
+
+        /**
+         * @param upstreamFactory Creates the data sources to request the
+         *        byte ranges from.
+         */
+        public Factory(DataSource.Factory upstreamFactory) {
+            this.upstreamFactory = upstreamFactory;
+        }
+
+        @Override
+        public SubsegmentDataSource createDataSource() {
+            return new SubsegmentDataSource(upstreamFactory.createDataSource());
+        }
+    }
+
+    /** The number of bytes loaded to look for a segment index. */
+    private static final int PROBE_LENGTH = 4096;
+    private static final int TYPE_SIDX = 0x73696478; // "sidx"
+    private static final int TYPE_STYP = 0x73747970; // "styp"
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+    private static final String TAG = "SubsegmentDataSource";
+
+    private final DataSource upstream;
+    private final byte[] probe = new byte[PROBE_LENGTH];
+    private final List<long[]> ranges = new ArrayList<>();
+
+    private DataSpec dataSpec;
+    private int probeLength;
+    private int probeRead;
+    private int rangeIndex;
+    private boolean upstreamOpened;
+
+    /**
+     * @param upstream The data source to request the byte ranges from.
+     */
+    public SubsegmentDataSource(DataSource upstream) {
+        this.upstream = upstream;
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+        this.dataSpec = dataSpec;
+        this.probeRead = 0;
+        this.rangeIndex = 0;
+        ranges.clear();
+
+        long start = dataSpec.absoluteStreamPosition;
+        long end = dataSpec.length == C.LENGTH_UNSET ? C.LENGTH_UNSET : start + dataSpec.length;
+        probeLength = loadProbe(start, end);
+        long probeEnd = start + probeLength;
+
+        if (probeLength < PROBE_LENGTH && end == C.LENGTH_UNSET) {
+            // the whole segment fitted in the probe
+            return probeLength;
+        }
+
+        findSubsegments(start, probeEnd, end);
+        if (ranges.isEmpty() && (end == C.LENGTH_UNSET || probeEnd < end)) {
+            ranges.add(new long[] {probeEnd, end});
+        }
+
+        if (end != C.LENGTH_UNSET) {
+            return end - start;
+        }
+        long[] lastRange = ranges.get(ranges.size() - 1);
+        return lastRange[1] == C.LENGTH_UNSET ? C.LENGTH_UNSET : lastRange[1] - start;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+        if (probeRead < probeLength) {
+            int length = Math.min(readLength, probeLength - probeRead);
+            System.arraycopy(probe, probeRead, buffer, offset, length);
+            probeRead += length;
+            return length;
+        }
+
+        while (rangeIndex < ranges.size()) {
+            if (!upstreamOpened) {
+                long[] range = ranges.get(rangeIndex);
+                long length = range[1] == C.LENGTH_UNSET ? C.LENGTH_UNSET : range[1] - range[0];
+                try {
+                    upstream.open(subrange(range[0], length));
+                } catch (HttpDataSource.InvalidResponseCodeException e) {
+                    // a segment of unknown length may have ended with the probe
+                    if (length != C.LENGTH_UNSET || e.responseCode != HTTP_RANGE_NOT_SATISFIABLE) {
+                        throw e;
+                    }
+                    upstream.close();
+                    return C.RESULT_END_OF_INPUT;
+                }
+                upstreamOpened = true;
+            }
+            int read = upstream.read(buffer, offset, readLength);
+            if (read != C.RESULT_END_OF_INPUT) {
+                return read;
+            }
+            upstream.close();
+            upstreamOpened = false;
+            rangeIndex++;
+        }
+        return C.RESULT_END_OF_INPUT;
+    }
+
+    @Override
+    public Uri getUri() {
+        return dataSpec == null ? null : dataSpec.uri;
+    }
+
+    @Override
+    public void close() throws IOException {
+        dataSpec = null;
+        if (upstreamOpened) {
+            upstreamOpened = false;
+            upstream.close();
+        }
+    }
+
+    /**
+     * Loads the start of the segment.
+     *
+     * @return The number of bytes loaded.
+     */
+    private int loadProbe(long start, long end) throws IOException {
+        int length = end == C.LENGTH_UNSET ? PROBE_LENGTH : (int) Math.min(PROBE_LENGTH, end - start);
+        int loaded = 0;
+        try {
+            upstream.open(subrange(start, length));
+            int read = 0;
+            while (read != C.RESULT_END_OF_INPUT && loaded < length) {
+                read = upstream.read(probe, loaded, length - loaded);
+                if (read > 0) {
+                    loaded += read;
+                }
+            }
+        } catch (IOException e) {
+            // a segment of unknown length may be shorter than the probe,
+            // which some sources report as an error
+            boolean endedEarly = e instanceof EOFException || e.getCause() instanceof EOFException;
+            if (end != C.LENGTH_UNSET || !endedEarly) {
+                throw e;
+            }
+        } finally {
+            upstream.close();
+        }
+        return loaded;
+    }
+
+    /**
+     * Looks for a segment index at the start of the probe, and splits the
+     * rest of the segment into its subsegments. Nothing is found if the
+     * request doesn't start at a segment boundary.
+     *
+     * @param start The position of the segment.
+     * @param probeEnd The position the probe ended at.
+     * @param end The position of the end of the request, or
+     *            {@link C#LENGTH_UNSET} if it isn't known.
+     */
+    private void findSubsegments(long start, long probeEnd, long end) {
+        int position = 0;
+        while (position + 8 <= probeLength) {
+            long size = readUnsignedInt(position);
+            int type = (int) readUnsignedInt(position + 4);
+            if (size < 8 || (position == 0 && type != TYPE_STYP && type != TYPE_SIDX)) {
+                return;
+            }
+            if (type == TYPE_SIDX) {
+                if (position + size > probeLength) {
+                    Log.d(TAG, "Segment index is larger than the probe");
+                    return;
+                }
+                parseSidx(position, (int) size, start, probeEnd, end);
+                return;
+            }
+            position += size;
+        }
+    }
+
+    private void parseSidx(int boxStart, int boxSize, long start, long probeEnd, long end) {
+        int position = boxStart + 8;
+        int version = probe[position] & 0xFF;
+        position += 4 + 4 + 4; // version and flags, reference ID, timescale
+        long firstOffset;
+        if (version == 0) {
+            firstOffset = readUnsignedInt(position + 4);
+            position += 8;
+        } else {
+            firstOffset = readUnsignedInt(position + 8) << 32 | readUnsignedInt(position + 12);
+            position += 16;
+        }
+        int referenceCount = ((probe[position + 2] & 0xFF) << 8) | (probe[position + 3] & 0xFF);
+        position += 4;
+        if (position + referenceCount * 12 > boxStart + boxSize) {
+            return;
+        }
+
+        // each range runs from the end of the last one, so any bytes
+        // between the probe and the first subsegment are included
+        long loadedEnd = probeEnd;
+        long subsegmentEnd = start + boxStart + boxSize + firstOffset;
+        for (int i = 0; i < referenceCount; i++) {
+            subsegmentEnd += readUnsignedInt(position) & 0x7FFFFFFF;
+            position += 12;
+            long rangeEnd = end == C.LENGTH_UNSET ? subsegmentEnd : Math.min(subsegmentEnd, end);
+            if (rangeEnd > loadedEnd) {
+                ranges.add(new long[] {loadedEnd, rangeEnd});
+                loadedEnd = rangeEnd;
+            }
+        }
+        if (end != C.LENGTH_UNSET && loadedEnd < end) {
+            ranges.add(new long[] {loadedEnd, end});
+        }
+        Log.d(TAG, String.format("Loading segment as %d subsegment ranges", ranges.size()));
+    }
+
+    private DataSpec subrange(long position, long length) {
+        return new DataSpec(dataSpec.uri, dataSpec.postBody, position,
+                position - dataSpec.absoluteStreamPosition + dataSpec.position, length,
+                dataSpec.key, dataSpec.flags);
+    }
+
+    private long readUnsignedInt(int position) {
+        return ((probe[position] & 0xFFL) << 24) | ((probe[position + 1] & 0xFFL) << 16)
+                | ((probe[position + 2] & 0xFFL) << 8) | (probe[position + 3] & 0xFFL);
+    }
+}
@@ -0,0 +1,281 @@
+package com.example.mislplayer;
+
+import com.example.mislplayer.sampling.SampleProcessor;
+import com.google.android.exoplayer2.ExoPlayer;
+import com.google.android.exoplayer2.PlaybackParameters;
+import com.google.android.exoplayer2.Timeline;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests {@link LiveLatencyController#update()} against a fake player
+ * playing a live window whose start is known by the server's clock.
+ */
+public class LiveLatencyControllerTest {
+
+    private static final long TARGET_LATENCY_MS = 6000;
+    private static final long POSITION_MS = 100000;
+    private static final float DELTA = 0.0001f;
+
+    private FakePlayer player;
+    private FakeSampleProcessor sampleProcessor;
+    private float plannedSpeed;
+    private long nowUnixTimeMs;
+    private LiveLatencyController controller;
+
+    @Before
+    public void setUp() {
+        player = new FakePlayer();
+        sampleProcessor = new FakeSampleProcessor();
+        plannedSpeed = Float.NaN;
+        SampleProcessor.PlaybackSpeedReceiver speedReceiver =
+                new SampleProcessor.PlaybackSpeedReceiver() {
+                    @Override
+                    public void givePlannedPlaybackSpeed(float speed) {
+                        plannedSpeed = speed;
+                    }
+                };
+        LiveLatencyController.ServerClock serverClock = new LiveLatencyController.ServerClock() {
+            @Override
+            public long nowUnixTimeMs() {
+                return nowUnixTimeMs;
+            }
+        };
+        controller = new LiveLatencyController(player.asExoPlayer(), sampleProcessor.asSampleProcessor(),
+                speedReceiver, null, serverClock, TARGET_LATENCY_MS);
+    }
+
+    @Test
+    public void speedsUpWhenBehindTarget() {
+        setLatencyMs(10000);
+        player.bufferedMs = 10000;
+
+        controller.update();
+
+        assertEquals(1.05f, plannedSpeed, DELTA);
+        assertEquals(1.05f, player.playbackParameters.speed, DELTA);
+    }
+
+    @Test
+    public void slowsDownWhenAheadOfTarget() {
+        setLatencyMs(3000);
+        player.bufferedMs = 10000;
+
+        controller.update();
+
+        assertEquals(1f, plannedSpeed, DELTA);
+        assertEquals(0.9625f, player.playbackParameters.speed, DELTA);
+    }
+
+    @Test
+    public void keepsSpeedWithinTolerance() {
+        setLatencyMs(TARGET_LATENCY_MS + 400);
+        player.bufferedMs = 10000;
+
+        controller.update();
+
+        assertEquals(1f, plannedSpeed, DELTA);
+        assertNull(player.playbackParameters);
+    }
+
+    @Test
+    public void lowBufferVetoesSpeedUp() {
+        setLatencyMs(10000);
+        player.bufferedMs = 1000;
+
+        controller.update();
+
+        // quality is still told to drop, so the speed-up can follow later
+        assertEquals(1.05f, plannedSpeed, DELTA);
+        assertNull(player.playbackParameters);
+    }
+
+    @Test
+    public void unsustainableRateVetoesSpeedUp() {
+        setLatencyMs(10000);
+        player.bufferedMs = 10000;
+        sampleProcessor.lastRepLevel = 5000000;
+        sampleProcessor.lastSampleThroughput = 5000000;
+
+        controller.update();
+
+        assertEquals(1.05f, plannedSpeed, DELTA);
+        assertNull(player.playbackParameters);
+    }
+
+    @Test
+    public void lowBufferReturnsSpeedUpToRealTime() {
+        setLatencyMs(10000);
+        player.bufferedMs = 10000;
+        controller.update();
+        assertEquals(1.05f, player.playbackParameters.speed, DELTA);
+
+        player.bufferedMs = 1000;
+        controller.update();
+
+        assertEquals(1f, player.playbackParameters.speed, DELTA);
+    }
+
+    @Test
+    public void latencyIsMeasuredByServerClock() {
+        // by the device clock, the window started years ago
+        setLatencyMs(TARGET_LATENCY_MS);
+        player.bufferedMs = 10000;
+
+        controller.update();
+
+        assertNull(player.playbackParameters);
+    }
+
+    @Test
+    public void doesNothingForStaticMedia() {
+        setLatencyMs(10000);
+        player.bufferedMs = 10000;
+        player.timeline.dynamic = false;
+
+        controller.update();
+
+        assertEquals(1f, plannedSpeed, DELTA);
+        assertNull(player.playbackParameters);
+    }
+
+    /** Sets the server time so playback is a given distance behind the live edge. */
+    private void setLatencyMs(long latencyMs) {
+        nowUnixTimeMs = player.timeline.windowStartTimeMs + POSITION_MS + latencyMs;
+    }
+
+    /**
+     * Answers a fake's interface methods from the fake's own methods of the
+     * same name, and with defaults for the rest.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, final Object fake) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        try {
+                            Method own = fake.getClass().getDeclaredMethod(method.getName(),
+                                    method.getParameterTypes());
+                            own.setAccessible(true);
+                            return own.invoke(fake, args);
+                        } catch (NoSuchMethodException e) {
+                            Class<?> returnType = method.getReturnType();
+                            if (returnType == boolean.class) {
+                                return false;
+                            } else if (returnType == float.class) {
+                                return 0f;
+                            } else if (returnType == double.class) {
+                                return 0d;
+                            } else if (returnType == long.class) {
+                                return 0L;
+                            } else if (returnType == int.class) {
+                                return 0;
+                            }
+                            return null;
+                        }
+                    }
+                });
+    }
+
+    private static final class FakePlayer {
+
+        final FakeTimeline timeline = new FakeTimeline();
+        long bufferedMs;
+        PlaybackParameters playbackParameters;
+
+        ExoPlayer asExoPlayer() {
+            return proxy(ExoPlayer.class, this);
+        }
+
+        boolean getPlayWhenReady() {
+            return true;
+        }
+
+        int getPlaybackState() {
+            return ExoPlayer.STATE_READY;
+        }
+
+        Timeline getCurrentTimeline() {
+            return timeline;
+        }
+
+        int getCurrentWindowIndex() {
+            return 0;
+        }
+
+        long getCurrentPosition() {
+            return POSITION_MS;
+        }
+
+        long getBufferedPosition() {
+            return POSITION_MS + bufferedMs;
+        }
+
+        void setPlaybackParameters(PlaybackParameters playbackParameters) {
+            this.playbackParameters = playbackParameters;
+        }
+    }
+
+    private static final class FakeSampleProcessor {
+
+        int lastRepLevel = 1000000;
+        double lastSampleThroughput = 5000000;
+
+        SampleProcessor asSampleProcessor() {
+            return proxy(SampleProcessor.class, this);
+        }
+
+        int lastRepLevel() {
+            return lastRepLevel;
+        }
+
+        double lastSampleThroughput() {
+            return lastSampleThroughput;
+        }
+    }
+
+    /** A single live window, which started at a fixed server time. */
+    private static final class FakeTimeline extends Timeline {
+
+        final long windowStartTimeMs = 1500000000000L;
+        boolean dynamic = true;
+
+        @Override
+        public int getWindowCount() {
+            return 1;
+        }
+
+        @Override
+        public Window getWindow(int windowIndex, Window window, boolean setIds,
+                                long defaultPositionProjectionUs) {
+            window.windowStartTimeMs = windowStartTimeMs;
+            window.isDynamic = dynamic;
+            window.isSeekable = true;
+            return window;
+        }
+
+        @Override
+        public int getPeriodCount() {
+            return 1;
+        }
+
+        @Override
+        public Period getPeriod(int periodIndex, Period period, boolean setIds) {
+            return period;
+        }
+
+        @Override
+        public int getIndexOfPeriod(Object uid) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package com.example.mislplayer.upstream;
+
+import com.google.android.exoplayer2.C;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link HttpExchange} and its {@link ConnectionPool} against a
+ * local server, which answers each request with the next of a list of
+ * canned responses.
+ */
+public class HttpExchangeTest {
+
+    private static final int TIMEOUT_MS = 5000;
+    private static final Map<String, String> NO_PROPERTIES = Collections.emptyMap();
+
+    private LocalServer server;
+    private ConnectionPool connectionPool;
+    private HttpExchange exchange;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new LocalServer();
+        connectionPool = new ConnectionPool();
+        exchange = new HttpExchange(connectionPool, "test", TIMEOUT_MS, TIMEOUT_MS);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        exchange.close(false);
+        connectionPool.evictAll();
+        server.close();
+    }
+
+    @Test
+    public void readsContentLengthBody() throws Exception {
+        server.respond("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nhello", false);
+
+        assertEquals(200, exchange.open(server.url(), 0, C.LENGTH_UNSET, NO_PROPERTIES));
+        assertEquals(5, exchange.getContentLength());
+        assertEquals("hello", readAll(exchange));
+        assertEquals("GET /media HTTP/1.1", server.takeRequest().get(0));
+    }
+
+    @Test
+    public void readsChunkedBody() throws Exception {
+        server.respond("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n"
+                + "5\r\nhello\r\n6;ext=1\r\n world\r\n0\r\nTrailer: x\r\n\r\n", false);
+
+        assertEquals(200, exchange.open(server.url(), 0, C.LENGTH_UNSET, NO_PROPERTIES));
+        assertEquals(C.LENGTH_UNSET, exchange.getContentLength());
+        assertEquals("hello world", readAll(exchange));
+    }
+
+    @Test
+    public void requestsRange() throws Exception {
+        server.respond("HTTP/1.1 206 Partial Content\r\nContent-Range: bytes 2-4/5\r\n"
+                + "Content-Length: 3\r\n\r\nllo", false);
+
+        assertEquals(206, exchange.open(server.url(), 2, 3, NO_PROPERTIES));
+        assertEquals("llo", readAll(exchange));
+        assertTrue(server.takeRequest().contains("Range: bytes=2-4"));
+    }
+
+    @Test
+    public void reportsUnsatisfiableRange() throws Exception {
+        server.respond("HTTP/1.1 416 Range Not Satisfiable\r\nContent-Range: bytes */5\r\n"
+                + "Content-Length: 0\r\n\r\n", false);
+
+        assertEquals(416, exchange.open(server.url(), 5, C.LENGTH_UNSET, NO_PROPERTIES));
+        assertEquals(C.RESULT_END_OF_INPUT, exchange.read(new byte[1], 0, 1));
+        assertTrue(server.takeRequest().contains("Range: bytes=5-"));
+    }
+
+    @Test
+    public void reusesConnectionAfterBodyIsRead() throws Exception {
+        server.respond("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n"
+                + "5\r\nhello\r\n0\r\n\r\n", false);
+        server.respond("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nworld", false);
+
+        exchange.open(server.url(), 0, C.LENGTH_UNSET, NO_PROPERTIES);
+        assertEquals("hello", readAll(exchange));
+        exchange.close(true);
+        exchange.open(server.url(), 0, C.LENGTH_UNSET, NO_PROPERTIES);
+
+        assertTrue(exchange.isConnectionReused());
+        assertEquals("world", readAll(exchange));
+        assertEquals(1, server.connectionCount());
+        assertEquals(1, connectionPool.getConnectCount());
+        assertEquals(1, connectionPool.getReuseCount());
+    }
+
+    @Test
+    public void doesNotReuseConnectionWithUnreadBody() throws Exception {
+        server.respond("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nhello", false);
+        server.respond("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nworld", false);
+
+        exchange.open(server.url(), 0, C.LENGTH_UNSET, NO_PROPERTIES);
+        exchange.read(new byte[2], 0, 2);
+        exchange.close(false);
+        exchange.open(server.url(), 0, C.LENGTH_UNSET, NO_PROPERTIES);
+
+        assertFalse(exchange.isConnectionReused());
+        assertEquals("world", readAll(exchange));
+        assertEquals(2, connectionPool.getConnectCount());
+    }
+
+    @Test
+    public void retriesOnConnectionClosedByServer() throws Exception {
+        // the server closes the connection after responding, as on an idle timeout
+        server.respond("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nhello", true);
+        server.respond("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nworld", false);
+
+        exchange.open(server.url(), 0, C.LENGTH_UNSET, NO_PROPERTIES);
+        assertEquals("hello", readAll(exchange));
+        exchange.close(true);
+        server.awaitClosed();
+        assertEquals(200, exchange.open(server.url(), 0, C.LENGTH_UNSET, NO_PROPERTIES));
+
+        assertFalse(exchange.isConnectionReused());
+        assertEquals("world", readAll(exchange));
+        assertEquals(2, server.connectionCount());
+    }
+
+    @Test
+    public void followsRedirect() throws Exception {
+        server.respond("HTTP/1.1 302 Found\r\nLocation: /moved\r\nContent-Length: 0\r\n\r\n", false);
+        server.respond("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nhello", false);
+
+        assertEquals(200, exchange.open(server.url(), 0, C.LENGTH_UNSET, NO_PROPERTIES));
+        assertEquals("hello", readAll(exchange));
+        assertEquals("/moved", exchange.getUrl().getPath());
+    }
+
+    private static String readAll(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[3];
+        int read;
+        while ((read = exchange.read(buffer, 0, buffer.length)) != C.RESULT_END_OF_INPUT) {
+            output.write(buffer, 0, read);
+        }
+        return output.toString("ISO-8859-1");
+    }
+
+    /**
+     * A server on the loopback interface which answers requests, on any
+     * connection, with canned responses in order.
+     */
+    private static final class LocalServer implements Runnable {
+
+        private final ServerSocket serverSocket;
+        private final LinkedBlockingQueue<String> responses = new LinkedBlockingQueue<>();
+        private final LinkedBlockingQueue<Boolean> closeAfter = new LinkedBlockingQueue<>();
+        private final LinkedBlockingQueue<List<String>> requests = new LinkedBlockingQueue<>();
+        private final LinkedBlockingQueue<Socket> closedSockets = new LinkedBlockingQueue<>();
+        private final List<Socket> sockets = Collections.synchronizedList(new ArrayList<Socket>());
+
+        private LocalServer() throws IOException {
+            serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+            Thread thread = new Thread(this);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private URL url() throws IOException {
+            return new URL("http://127.0.0.1:" + serverSocket.getLocalPort() + "/media");
+        }
+
+        /**
+         * Queues a response.
+         *
+         * @param response The whole response, head and body.
+         * @param close Whether to close the connection after sending it.
+         */
+        private void respond(String response, boolean close) {
+            responses.add(response);
+            closeAfter.add(close);
+        }
+
+        /** Waits for the next request, and returns its lines. */
+        private List<String> takeRequest() throws InterruptedException {
+            return requests.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        }
+
+        /** Waits for the server to close a connection. */
+        private void awaitClosed() throws InterruptedException {
+            closedSockets.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        }
+
+        private int connectionCount() {
+            return sockets.size();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    final Socket socket = serverSocket.accept();
+                    sockets.add(socket);
+                    Thread thread = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            serve(socket);
+                        }
+                    });
+                    thread.setDaemon(true);
+                    thread.start();
+                }
+            } catch (IOException e) {
+                // closed
+            }
+        }
+
+        private void serve(Socket socket) {
+            try {
+                BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+                OutputStream output = socket.getOutputStream();
+                while (true) {
+                    List<String> request = new ArrayList<>();
+                    String line;
+                    while ((line = reader.readLine()) != null && !line.isEmpty()) {
+                        request.add(line);
+                    }
+                    if (line == null) {
+                        break;
+                    }
+                    requests.add(request);
+                    output.write(responses.take().getBytes("ISO-8859-1"));
+                    output.flush();
+                    if (closeAfter.take()) {
+                        break;
+                    }
+                }
+            } catch (IOException | InterruptedException e) {
+                // the client went away
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // ignored
+                }
+                closedSockets.add(socket);
+            }
+        }
+
+        private void close() throws IOException {
+            serverSocket.close();
+            synchronized (sockets) {
+                for (Socket socket : sockets) {
+                    socket.close();
+                }
+            }
+        }
+    }
+}